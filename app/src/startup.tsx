@@ -52,6 +52,7 @@ const createControls = (): AudioControls => {
 
     await NativeAudio.preload({
       path: src,
+      songId: song.id,
       volume: _volume ?? 1.0,
       title: song.title,
       artist: song.artist ?? "Unknown Artist",
@@ -0,0 +1,44 @@
+package android.graphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Only the size of the image. Nothing is ever drawn or encoded.
+ */
+public final class Bitmap {
+  public enum CompressFormat {
+    JPEG,
+    PNG,
+    WEBP
+  }
+
+  private final int width;
+  private final int height;
+
+  Bitmap(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  public int getByteCount() {
+    return this.width * this.height * 4;
+  }
+
+  public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+    try {
+      stream.write(new byte[] { 0 });
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+}
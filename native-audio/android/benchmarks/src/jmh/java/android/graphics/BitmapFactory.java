@@ -0,0 +1,26 @@
+package android.graphics;
+
+import java.io.File;
+
+/**
+ * Decoding needs Android's Skia so a file that exists "decodes" to a 256x256 image and byte arrays don't decode.
+ */
+public final class BitmapFactory {
+  public static class Options {
+    public boolean inJustDecodeBounds;
+    public int inSampleSize;
+    public int outWidth;
+    public int outHeight;
+  }
+
+  private BitmapFactory() {
+  }
+
+  public static Bitmap decodeFile(String pathName, Options opts) {
+    return new File(pathName).exists() ? new Bitmap(256, 256) : null;
+  }
+
+  public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+    return null;
+  }
+}
@@ -0,0 +1,48 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Same behavior as Android's: an access ordered map that evicts the least recently used entries once the sizes add
+ * up to more than maxSize.
+ */
+public class LruCache<K, V> {
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<>(0, 0.75f, true);
+  private final int maxSize;
+  private int size = 0;
+
+  public LruCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public final synchronized V get(K key) {
+    return this.map.get(key);
+  }
+
+  public final synchronized V put(K key, V value) {
+    this.size += this.sizeOf(key, value);
+    V previous = this.map.put(key, value);
+    if (previous != null) this.size -= this.sizeOf(key, previous);
+    this.trimToSize(this.maxSize);
+    return previous;
+  }
+
+  public final synchronized void evictAll() {
+    this.trimToSize(-1);
+  }
+
+  protected int sizeOf(K key, V value) {
+    return 1;
+  }
+
+  private void trimToSize(int maxSize) {
+    Iterator<Map.Entry<K, V>> iterator = this.map.entrySet().iterator();
+    while (this.size > maxSize && iterator.hasNext()) {
+      Map.Entry<K, V> entry = iterator.next();
+      this.size -= this.sizeOf(entry.getKey(), entry.getValue());
+      iterator.remove();
+    }
+  }
+}
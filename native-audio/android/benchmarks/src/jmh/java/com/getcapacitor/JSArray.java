@@ -0,0 +1,14 @@
+package com.getcapacitor;
+
+import org.json.JSONArray;
+
+/**
+ * The parts of Capacitor's JSArray that the plugin uses.
+ */
+public class JSArray extends JSONArray {
+  @Override
+  public JSArray put(Object value) {
+    super.put(value);
+    return this;
+  }
+}
@@ -0,0 +1,64 @@
+package com.getcapacitor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The parts of Capacitor's JSObject that the plugin uses. Like the real one it's a JSONObject whose "put" methods
+ * don't throw and return the object so they can be chained.
+ */
+public class JSObject extends JSONObject {
+  @Override
+  public JSObject put(String key, boolean value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+      // Only thrown for a null key
+    }
+    return this;
+  }
+
+  @Override
+  public JSObject put(String key, int value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+    }
+    return this;
+  }
+
+  @Override
+  public JSObject put(String key, long value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+    }
+    return this;
+  }
+
+  @Override
+  public JSObject put(String key, double value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+    }
+    return this;
+  }
+
+  @Override
+  public JSObject put(String key, Object value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+    }
+    return this;
+  }
+
+  public JSObject put(String key, String value) {
+    try {
+      super.put(key, value);
+    } catch (JSONException e) {
+    }
+    return this;
+  }
+}
@@ -0,0 +1,42 @@
+package com.getcapacitor.community.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The parts of loading cover art that run without Android's decoder: the cache key of a cover URL and how much an
+ * image is downsampled before it's decoded. Decoding itself (BitmapFactory) isn't covered, its cost on devices is in
+ * the "cover" histogram of getMetrics.
+ */
+@State(Scope.Thread)
+public class ArtworkBenchmark {
+  @State(Scope.Thread)
+  public static class Image {
+    // The width and height of the original cover
+    @Param({ "600", "3000" })
+    int size;
+  }
+
+  // A download URL with an access token, which the key ignores
+  private static final String COVER =
+    "https://firebasestorage.googleapis.com/v0/b/app.appspot.com/o/covers%2Falbum-1234.jpg" +
+    "?alt=media&token=3f1c2a7e-9b8d-4c6e-a1f0-5d2e8b7c9a41";
+
+  // The notification's large icon on an xxxhdpi screen
+  private static final int ICON_SIZE = 256;
+
+  /**
+   * Worked out every time the cover is looked up.
+   */
+  @Benchmark
+  public String key() {
+    return ArtworkCache.key(COVER);
+  }
+
+  @Benchmark
+  public int sampleSize(Image image) {
+    return ArtworkCache.sampleSize(image.size, image.size, ICON_SIZE, ICON_SIZE);
+  }
+}
@@ -0,0 +1,66 @@
+package com.getcapacitor.community.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Starting the song cache from its index and the record that is appended every time a cached song is played.
+ */
+@State(Scope.Thread)
+public class CacheIndexBenchmark {
+  // How many songs are cached
+  @Param({ "1000", "20000" })
+  int songs;
+
+  private File dir;
+  private CacheIndex index;
+  private int song = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("cache-index").toFile();
+    this.index = new CacheIndex(new File(this.dir, "audio-cache.index"));
+
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (int i = 0; i < this.songs; i++) sizes.put("song-" + i, 4000000L + i);
+    this.index.rebuild(sizes);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    this.dir.delete();
+  }
+
+  /**
+   * What AudioCache.init does instead of listing the cache directory.
+   */
+  @Benchmark
+  public Map<String, CacheIndex.Entry> load() {
+    return this.index.load();
+  }
+
+  /**
+   * What AudioCache.get does for every song that is played from the cache. Compaction is included since it's part
+   * of what touching costs over time.
+   */
+  @Benchmark
+  public void touch() {
+    this.index.touch("song-" + this.song);
+    this.song = (this.song + 1) % this.songs;
+  }
+}
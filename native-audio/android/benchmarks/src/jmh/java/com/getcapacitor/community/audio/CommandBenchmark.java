@@ -0,0 +1,195 @@
+package com.getcapacitor.community.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The cost of the commands that JS sends in bursts (preload, play, pause and seek) when they are run the way
+ * AudioPlayer runs them: on the player thread, against the players, publishing a snapshot with PlayerState.of after
+ * every change and timing them with PlaybackMetrics. AudioPlayer itself needs an Android runtime (HandlerThread,
+ * MediaSession) so only the order of the engine calls is repeated here. Everything else is the plugin's own code.
+ */
+@State(Scope.Thread)
+public class CommandBenchmark {
+  private static final Info INFO = new Info("Title", "Artist", null, "Album");
+
+  // How many seeks follow each "play" (e.g. the user dragging the seek bar)
+  @Param({ "1", "20" })
+  int seeks;
+
+  private FakePlaybackEngine player;
+  private FakePlaybackEngine next;
+  private final AtomicReference<PlayerState> state = new AtomicReference<>(PlayerState.INITIAL);
+  private final PlaybackMetrics metrics = new PlaybackMetrics();
+  private ExecutorService playerThread;
+  private int song = 0;
+
+  private final PlaybackEngine.Listener listener = new PlaybackEngine.Listener() {
+    @Override
+    public void onPrepared(PlaybackEngine engine) {
+      if (engine != player) return;
+      metrics.prepared();
+      publish(PlayerState.Status.PAUSED);
+    }
+
+    @Override
+    public void onCompletion(PlaybackEngine engine) {
+      publish(PlayerState.Status.ENDED);
+    }
+
+    @Override
+    public void onBufferingUpdate(PlaybackEngine engine, int percent) {
+    }
+
+    @Override
+    public void onSeekComplete(PlaybackEngine engine) {
+      metrics.seekCompleted();
+      publish(state.get().status);
+    }
+
+    @Override
+    public void onStall(PlaybackEngine engine) {
+    }
+
+    @Override
+    public void onError(PlaybackEngine engine, String message) {
+      publish(PlayerState.Status.ERROR);
+    }
+  };
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.player = new FakePlaybackEngine();
+    this.next = new FakePlaybackEngine();
+    this.player.setListener(this.listener);
+    this.next.setListener(this.listener);
+    this.playerThread = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.playerThread.shutdownNow();
+  }
+
+  /**
+   * preload, play, seek and pause on the calling thread.
+   */
+  @Benchmark
+  public PlayerState burst() {
+    this.runBurst();
+    return this.state.get();
+  }
+
+  /**
+   * The same burst with every command handed to a single player thread and waited on, like each plugin call is.
+   */
+  @Benchmark
+  public PlayerState burstOnPlayerThread() throws Exception {
+    this.submit(new Runnable() {
+      @Override
+      public void run() {
+        preload();
+      }
+    });
+    this.submit(new Runnable() {
+      @Override
+      public void run() {
+        play();
+      }
+    });
+    for (int i = 0; i <= this.seeks; i++) {
+      final int ms = i * 1000;
+      // The last one is the exact seek when the user lets go
+      final boolean exact = i == this.seeks;
+      this.submit(new Runnable() {
+        @Override
+        public void run() {
+          seek(ms, exact);
+        }
+      });
+    }
+    this.submit(new Runnable() {
+      @Override
+      public void run() {
+        pause();
+      }
+    });
+    return this.state.get();
+  }
+
+  /**
+   * A song finishes and the next one (which was already prepared) takes over.
+   */
+  @Benchmark
+  public PlayerState gaplessSwap() {
+    this.next.reset();
+    this.next.setDataSource("song-" + this.song + "-next");
+    this.next.prepareAsync();
+    this.next.finishPreparing();
+
+    this.preload();
+    this.play();
+    this.player.setNext(this.next);
+    this.player.seekTo(FakePlaybackEngine.DURATION - 1, true);
+    this.player.advance(1);
+
+    FakePlaybackEngine finished = this.player;
+    this.player = this.next;
+    this.next = finished;
+    this.publish(PlayerState.Status.PLAYING);
+    return this.state.get();
+  }
+
+  private void runBurst() {
+    this.preload();
+    this.play();
+    for (int i = 0; i < this.seeks; i++) this.seek(i * 1000, false);
+    this.seek(this.seeks * 1000, true);
+    this.pause();
+  }
+
+  private void submit(Runnable runnable) throws Exception {
+    Future<?> future = this.playerThread.submit(runnable);
+    future.get();
+  }
+
+  private void preload() {
+    this.metrics.preloadStarted();
+    this.player.reset();
+    this.player.setDataSource("song-" + this.song++);
+    this.publish(PlayerState.Status.LOADING);
+    this.player.prepareAsync();
+    this.player.finishPreparing();
+  }
+
+  private void play() {
+    this.metrics.playStarted();
+    this.player.start();
+    this.publish(PlayerState.Status.PLAYING);
+    this.metrics.audioStarted();
+  }
+
+  private void pause() {
+    this.player.pause();
+    this.publish(PlayerState.Status.PAUSED);
+  }
+
+  private void seek(int ms, boolean exact) {
+    this.metrics.seekStarted();
+    this.player.seekTo(ms, exact);
+  }
+
+  private void publish(PlayerState.Status status) {
+    this.state.set(PlayerState.of(status, "song", INFO, -1, this.player, -1, 100));
+  }
+}
@@ -0,0 +1,96 @@
+package com.getcapacitor.community.audio;
+
+import com.getcapacitor.JSArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of sending the plugin's events through notifyListeners, from building the payload (with the same
+ * EventPayloads, PlaybackMetrics and PlayerState code that the plugin uses) to the script that the WebView evaluates.
+ */
+@State(Scope.Thread)
+public class EventBenchmark {
+  @State(Scope.Thread)
+  public static class Downloads {
+    // How many songs are downloading at once
+    @Param({ "1", "50" })
+    int count;
+  }
+
+  // How many JS listeners each event has
+  @Param({ "1", "3" })
+  int listeners;
+
+  private final FakeBridge bridge = new FakeBridge();
+  private final PlaybackMetrics metrics = new PlaybackMetrics();
+  private PlayerState state;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < this.listeners; i++) {
+      this.bridge.addListener("timeupdate", "callback-timeupdate-" + i);
+      this.bridge.addListener("download-progress", "callback-download-progress-" + i);
+      this.bridge.addListener("metrics", "callback-metrics-" + i);
+      this.bridge.addListener("session-restored", "callback-session-restored-" + i);
+    }
+
+    this.state = new PlayerState(
+      PlayerState.Status.PLAYING,
+      "song",
+      new Info("Title", "Artist", null, "Album"),
+      3,
+      42000,
+      System.nanoTime() / 1000000,
+      180000,
+      55
+    );
+
+    for (int i = 0; i < 1000; i++) {
+      this.metrics.preload.record(i % 300);
+      this.metrics.seek.record(i % 50);
+    }
+  }
+
+  /**
+   * Sent every second while playing.
+   */
+  @Benchmark
+  public long timeUpdate() {
+    if (this.bridge.hasListeners("timeupdate")) {
+      this.bridge.notifyListeners("timeupdate", EventPayloads.timeUpdate(this.state));
+    }
+    return this.bridge.getEvaluated();
+  }
+
+  /**
+   * Sent every 500ms while something is downloading, with one entry per download.
+   */
+  @Benchmark
+  public long downloadProgress(Downloads downloads) {
+    JSArray progress = new JSArray();
+    for (int i = 0; i < downloads.count; i++) {
+      progress.put(EventPayloads.download("song-" + i, 1048576L * i, 8388608L));
+    }
+    this.bridge.notifyListeners("download-progress", EventPayloads.downloadProgress(progress));
+    return this.bridge.getEvaluated();
+  }
+
+  @Benchmark
+  public long metrics() {
+    this.bridge.notifyListeners("metrics", this.metrics.toJSObject());
+    return this.bridge.getEvaluated();
+  }
+
+  /**
+   * The state snapshot, which is what "session-restored" sends.
+   */
+  @Benchmark
+  public long sessionRestored() {
+    this.bridge.notifyListeners("session-restored", this.state.toJSObject());
+    return this.bridge.getEvaluated();
+  }
+}
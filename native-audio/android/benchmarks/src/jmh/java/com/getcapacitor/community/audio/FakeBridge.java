@@ -0,0 +1,56 @@
+package com.getcapacitor.community.audio;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Does what Capacitor does between Plugin.notifyListeners and the WebView: every listener gets its own result object
+ * wrapped around the event data, which is serialized and turned into the script that is evaluated in the WebView.
+ * Instead of evaluating the script it only keeps its length so the work can't be optimized away.
+ */
+class FakeBridge {
+  private final Map<String, List<String>> listeners = new HashMap<>();
+  private long evaluated = 0;
+
+  void addListener(String eventName, String callbackId) {
+    List<String> callbackIds = this.listeners.get(eventName);
+    if (callbackIds == null) {
+      callbackIds = new ArrayList<>();
+      this.listeners.put(eventName, callbackIds);
+    }
+    callbackIds.add(callbackId);
+  }
+
+  boolean hasListeners(String eventName) {
+    List<String> callbackIds = this.listeners.get(eventName);
+    return callbackIds != null && !callbackIds.isEmpty();
+  }
+
+  void notifyListeners(String eventName, JSObject data) {
+    List<String> callbackIds = this.listeners.get(eventName);
+    if (callbackIds == null) return;
+
+    for (String callbackId : callbackIds) {
+      JSObject result = new JSObject()
+        .put("save", true)
+        .put("callbackId", callbackId)
+        .put("pluginId", "NativeAudio")
+        .put("methodName", "addListener")
+        .put("success", true)
+        .put("data", data);
+      this.eval("window.Capacitor.fromNative(" + result.toString() + ")");
+    }
+  }
+
+  long getEvaluated() {
+    return this.evaluated;
+  }
+
+  private void eval(String script) {
+    this.evaluated += script.length();
+  }
+}
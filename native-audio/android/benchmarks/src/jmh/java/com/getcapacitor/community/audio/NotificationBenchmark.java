@@ -0,0 +1,94 @@
+package com.getcapacitor.community.audio;
+
+import android.graphics.Bitmap;
+
+import com.getcapacitor.JSObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * What the plugin does for the notification before NotificationRenderer hands it to Android's Notification.Builder:
+ * reading the song that JS sent (title, artist, album and cover) and, in setNotification on every play and pause,
+ * finding the cover in ArtworkCache's memory cache. Building and posting the notification needs an Android runtime,
+ * its cost on devices is in the "notification" histogram of getMetrics.
+ */
+@State(Scope.Thread)
+public class NotificationBenchmark {
+  private static final String COVER =
+    "https://firebasestorage.googleapis.com/v0/b/app.appspot.com/o/covers%2Falbum-1234.jpg" +
+    "?alt=media&token=3f1c2a7e-9b8d-4c6e-a1f0-5d2e8b7c9a41";
+
+  private final JSObject song = new JSObject()
+    .put("path", "https://example.com/songs/1234.mp3")
+    .put("songId", "song-1234")
+    .put("title", "Title")
+    .put("artist", "Artist")
+    .put("album", "Album")
+    .put("cover", COVER);
+
+  private File dir;
+  private ArtworkCache artwork;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    this.dir = Files.createTempDirectory("artwork").toFile();
+    File covers = new File(this.dir, "artwork");
+    covers.mkdirs();
+    // Already downloaded so that loading it puts it in the memory cache
+    Files.write(new File(covers, ArtworkCache.key(COVER)).toPath(), new byte[] { 0 });
+
+    this.artwork = new ArtworkCache(covers, 256, 256, 4 * 1024 * 1024, 10 * 1024 * 1024);
+    final CountDownLatch loaded = new CountDownLatch(1);
+    this.artwork.load(COVER, new ArtworkCache.Callback() {
+      @Override
+      public void onLoaded(String url, Bitmap bitmap) {
+        loaded.countDown();
+      }
+
+      @Override
+      public void onError(String url, Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    loaded.await();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.artwork.shutdown();
+    delete(this.dir);
+  }
+
+  /**
+   * preload, preloadNext and every song given to setQueue.
+   */
+  @Benchmark
+  public PlayQueue.Track song() {
+    return PlayQueue.Track.parse(this.song);
+  }
+
+  @Benchmark
+  public Bitmap cover() {
+    Bitmap cover = this.artwork.getCached(COVER);
+    if (cover == null) throw new IllegalStateException("The cover isn't cached");
+    return cover;
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) delete(child);
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,58 @@
+package com.getcapacitor.community.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishing and reading the PlayerState snapshot. "contended" has the player thread publishing while several
+ * threads (the bridge, the media session, etc.) read the position at the same time.
+ */
+@State(Scope.Group)
+public class StateBenchmark {
+  private static final Info INFO = new Info("Title", "Artist", null, "Album");
+
+  private final AtomicReference<PlayerState> state = new AtomicReference<>(
+    new PlayerState(PlayerState.Status.PLAYING, "song", INFO, 3, 0, System.nanoTime() / 1000000, 180000, 100)
+  );
+  private int position = 0;
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public PlayerState publish() {
+    PlayerState state = new PlayerState(
+      PlayerState.Status.PLAYING,
+      "song",
+      INFO,
+      3,
+      this.position++ % 180000,
+      System.nanoTime() / 1000000,
+      180000,
+      100
+    );
+    this.state.set(state);
+    return state;
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(3)
+  public int read() {
+    return this.state.get().position();
+  }
+
+  /**
+   * What getState sends back to JS. Benchmarks in a Scope.Group class have to be in a group so this is one on its own.
+   */
+  @Benchmark
+  @Group("toJSObject")
+  @GroupThreads(1)
+  public String toJSObject() {
+    return this.state.get().toJSObject().toString();
+  }
+}
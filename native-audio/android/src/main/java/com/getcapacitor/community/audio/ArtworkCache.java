@@ -0,0 +1,203 @@
+package com.getcapacitor.community.audio;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A two tier (memory then disk) cache of cover art. Images are downsampled to the notification's large icon size
+ * when they are decoded and the downsampled version is what gets saved to disk.
+ */
+class ArtworkCache {
+  interface Callback {
+    void onLoaded(String url, Bitmap bitmap);
+
+    void onError(String url, Exception e);
+  }
+
+  private static final String TAG = "native-audio";
+
+  private final int width;
+  private final int height;
+  private final LruCache<String, Bitmap> memory;
+  private final AudioCache disk;
+  // The URLs that are currently being loaded so that toggling play/pause doesn't load the same image twice
+  private final Set<String> loading = new HashSet<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  ArtworkCache(File dir, int width, int height, int maxMemoryBytes, long maxDiskBytes) {
+    this.width = width;
+    this.height = height;
+    this.memory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap bitmap) {
+        return bitmap.getByteCount();
+      }
+    };
+
+    // The audio cache works just as well for images
+    this.disk = new AudioCache(dir, maxDiskBytes);
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        disk.init();
+      }
+    });
+  }
+
+  /**
+   * Returns the image if it's in memory. This never blocks.
+   */
+  @Nullable
+  Bitmap getCached(String url) {
+    return this.memory.get(key(url));
+  }
+
+  /**
+   * Load the image from disk or the network in the background. The callback is called on the background thread.
+   */
+  void load(final String url, final Callback callback) {
+    final String key = key(url);
+    synchronized (this.loading) {
+      if (!this.loading.add(key)) return;
+    }
+
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Bitmap bitmap = loadFromDisk(key);
+          if (bitmap == null) bitmap = loadFromNetwork(key, url);
+          if (bitmap == null) throw new IOException("Unable to decode " + url);
+
+          memory.put(key, bitmap);
+          callback.onLoaded(url, bitmap);
+        } catch (Exception e) {
+          callback.onError(url, e);
+        } finally {
+          synchronized (loading) {
+            loading.remove(key);
+          }
+        }
+      }
+    });
+  }
+
+  void clear() {
+    this.memory.evictAll();
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        disk.clear();
+      }
+    });
+  }
+
+  /**
+   * Stop the thread once the images that are loading have been saved.
+   */
+  void shutdown() {
+    this.executor.shutdown();
+  }
+
+  @Nullable
+  private Bitmap loadFromDisk(String key) {
+    File file = this.disk.get(key);
+    if (file == null) return null;
+    return BitmapFactory.decodeFile(file.getAbsolutePath(), null);
+  }
+
+  @Nullable
+  private Bitmap loadFromNetwork(String key, String url) throws IOException {
+    Log.i(TAG, "Downloading cover " + url);
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    byte[] bytes;
+    try {
+      connection.setDoInput(true);
+      connection.connect();
+      bytes = readAll(connection.getInputStream());
+    } finally {
+      connection.disconnect();
+    }
+
+    // Read the dimensions first so that we never decode the full resolution image
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize(options.outWidth, options.outHeight, this.width, this.height);
+    Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    if (bitmap == null) return null;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+    this.disk.put(key, new ByteArrayInputStream(output.toByteArray()));
+    return bitmap;
+  }
+
+  /**
+   * The largest power of two that keeps the image at least as big as the target.
+   */
+  static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+    int sampleSize = 1;
+    if (targetWidth <= 0 || targetHeight <= 0) return sampleSize;
+
+    while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+      sampleSize *= 2;
+    }
+
+    return sampleSize;
+  }
+
+  /**
+   * The download URLs contain an access token that can change so we ignore the query string.
+   */
+  static String key(String url) {
+    int query = url.indexOf('?');
+    String path = query == -1 ? url : url.substring(0, query);
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder builder = new StringBuilder();
+      for (byte b : digest.digest(path.getBytes("UTF-8"))) {
+        builder.append(String.format("%02x", b));
+      }
+      return builder.toString();
+    } catch (NoSuchAlgorithmException | IOException e) {
+      // Every Android device has SHA-1 and UTF-8
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+      return output.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.getcapacitor.community.audio;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A disk cache of audio files keyed by song ID. Files are evicted in least recently used order once the cache grows
+ * past its byte budget. Writes go to a temporary file first and are renamed into place once complete so a partially
+ * downloaded song is never mistaken for a cached song.
+ *
+ * The list of songs is kept in a CacheIndex next to the cache directory so that starting up doesn't have to look at
+ * every file. The directory is only scanned if the index is missing or unreadable.
+ */
+class AudioCache {
+  private static final String TAG = "native-audio";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Song IDs are used as file names so make sure they can't escape the cache directory
+  private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+  private final File dir;
+  private final CacheIndex index;
+  private long maxBytes;
+  private long totalBytes = 0;
+  // Access ordered so that iteration starts with the least recently used song
+  private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+
+  AudioCache(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    this.index = new CacheIndex(new File(dir.getParentFile(), dir.getName() + ".index"));
+  }
+
+  static boolean isValidId(@Nullable String songId) {
+    return songId != null && VALID_ID.matcher(songId).matches();
+  }
+
+  /**
+   * Load the list of cached songs. This must be called before anything else. Returns the IDs of the cached songs.
+   */
+  synchronized List<String> init() {
+    this.sizes.clear();
+    this.totalBytes = 0;
+
+    // If the directory is gone (e.g. the system cleared it) then so are the songs in the index
+    Map<String, CacheIndex.Entry> indexed = this.dir.exists() ? this.index.load() : null;
+    if (indexed != null) {
+      for (Map.Entry<String, CacheIndex.Entry> entry : indexed.entrySet()) {
+        this.sizes.put(entry.getKey(), entry.getValue().size);
+        this.totalBytes += entry.getValue().size;
+      }
+
+      this.evict();
+      return new ArrayList<>(this.sizes.keySet());
+    }
+
+    Log.i(TAG, "Scanning " + this.dir + " since there is no index");
+    if (!this.dir.exists() && !this.dir.mkdirs()) {
+      Log.e(TAG, "Unable to create cache directory: " + this.dir);
+    }
+
+    File[] files = this.dir.listFiles();
+    if (files == null) files = new File[0];
+
+    // Oldest first so that the access order matches the last time each song was played
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(TEMP_SUFFIX) || !isValidId(name)) {
+        // Left over from a download that was interrupted
+        delete(file);
+        continue;
+      }
+
+      this.sizes.put(name, file.length());
+      this.totalBytes += file.length();
+    }
+
+    this.index.rebuild(this.sizes);
+    this.evict();
+    return new ArrayList<>(this.sizes.keySet());
+  }
+
+  /**
+   * Returns the cached file for the given song or null if the song isn't cached. This marks the song as recently used.
+   */
+  @Nullable
+  synchronized File get(String songId) {
+    // "get" (rather than "containsKey") is what moves the song to the end of the access order
+    if (this.sizes.get(songId) == null) return null;
+
+    File file = new File(this.dir, songId);
+    if (!file.exists()) {
+      this.totalBytes -= this.sizes.remove(songId);
+      this.index.remove(songId);
+      return null;
+    }
+
+    // Persist the access time so that the LRU order survives restarts. The modified time is only used if the index
+    // has to be rebuilt.
+    this.index.touch(songId);
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  synchronized boolean contains(String songId) {
+    return this.sizes.containsKey(songId);
+  }
+
+  /**
+   * Copy the stream into the cache. The song only becomes visible once the entire stream has been written.
+   */
+  void put(String songId, InputStream input) throws IOException {
+    if (!isValidId(songId)) throw new IOException("Invalid song ID: " + songId);
+
+    File temp = new File(this.dir, songId + TEMP_SUFFIX);
+    FileOutputStream output = new FileOutputStream(temp);
+    try {
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+      output.getFD().sync();
+    } catch (IOException e) {
+      output.close();
+      delete(temp);
+      throw e;
+    }
+    output.close();
+
+    this.commit(songId, temp);
+  }
+
+  /**
+   * Move a fully written temporary file into the cache.
+   */
+  synchronized void commit(String songId, File temp) throws IOException {
+    File file = new File(this.dir, songId);
+    // Index first so that a crash in between leaves an index entry without a file (which "get" cleans up) rather
+    // than a file that nothing knows about
+    this.index.put(songId, temp.length());
+    if (!temp.renameTo(file)) {
+      Long previous = this.sizes.get(songId);
+      if (previous != null) {
+        this.index.put(songId, previous);
+      } else {
+        this.index.remove(songId);
+      }
+      delete(temp);
+      throw new IOException("Unable to move " + temp + " to " + file);
+    }
+
+    Long previous = this.sizes.put(songId, file.length());
+    if (previous != null) this.totalBytes -= previous;
+    this.totalBytes += file.length();
+    this.evict();
+  }
+
+  synchronized void remove(String songId) {
+    Long size = this.sizes.remove(songId);
+    if (size == null) return;
+    this.totalBytes -= size;
+    delete(new File(this.dir, songId));
+    this.index.remove(songId);
+  }
+
+  synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.evict();
+  }
+
+  synchronized long getTotalBytes() {
+    return this.totalBytes;
+  }
+
+  synchronized List<String> getSongIds() {
+    return new ArrayList<>(this.sizes.keySet());
+  }
+
+  /**
+   * Delete every cached song.
+   */
+  synchronized void clear() {
+    File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (File file : files) delete(file);
+    }
+
+    this.sizes.clear();
+    this.totalBytes = 0;
+    this.index.clear();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> iterator = this.sizes.entrySet().iterator();
+    while (this.totalBytes > this.maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      Log.i(TAG, "Evicting " + entry.getKey() + " from " + this.dir);
+      delete(new File(this.dir, entry.getKey()));
+      this.index.remove(entry.getKey());
+      this.totalBytes -= entry.getValue();
+      iterator.remove();
+    }
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+}
@@ -0,0 +1,2445 @@
+package com.getcapacitor.community.audio;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.media.AudioManager;
+import android.media.MediaMetadata;
+import android.media.session.MediaSession;
+import android.media.session.PlaybackState;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.KeyEvent;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Media controls tutorial
+// https://www.youtube.com/watch?v=FBC1FgWe5X4&t=10s
+
+// cordova-plugin-music-controls2 media controls file
+// https://github.com/ghenry22/cordova-plugin-music-controls2/blob/master/src/android/MusicControls.java
+// https://github.com/ghenry22/cordova-plugin-music-controls2/blob/master/src/android/MusicControlsNotification.java
+
+// https://android-developers.googleblog.com/2020/08/playing-nicely-with-media-controls.html
+// https://developer.android.com/training/notify-user/expanded#media-style
+// https://developer.android.com/training/run-background-service/create-service
+
+/**
+ * The player: the queue, the two players, the media session, the notification and the caches. It lives in
+ * PlaybackService rather than in the plugin so that playback keeps going when the activity (and with it the WebView
+ * and the plugin) is destroyed. NativeAudio forwards the plugin calls to the methods here and gets the events through
+ * an EventSink while it's attached.
+ */
+class AudioPlayer implements AudioManager.OnAudioFocusChangeListener {
+  /**
+   * Where the events for JS go.
+   */
+  interface EventSink {
+    boolean hasListeners(String eventName);
+
+    void notifyListeners(String eventName, JSObject data, boolean retain);
+  }
+
+  /**
+   * What the player needs from the service that owns it.
+   */
+  interface Host extends NotificationRenderer.Listener {
+    /**
+     * The media session was created. It's created with the players so this only happens once something is loaded.
+     */
+    void onSessionCreated(MediaSession session);
+
+    /**
+     * The queue changed so media browsers (e.g. Android Auto) should reload it.
+     */
+    void onQueueChanged();
+  }
+
+  interface QueueCallback {
+    /**
+     * "tracks" is empty when JS is in charge of moving between songs.
+     */
+    void onQueue(List<PlayQueue.Track> tracks, int index);
+  }
+
+  // The media IDs of the songs in the queue are this followed by their index
+  static final String QUEUE_MEDIA_ID = "queue:";
+
+  private String TAG = "native-audio";
+  private final Context context;
+  private final Host host;
+  // Null while nothing is attached (e.g. the activity was destroyed but the music is still playing). Guarded by
+  // "retained".
+  @Nullable
+  private EventSink events = null;
+  // The retained events that were sent while nothing was attached. They are sent once something attaches.
+  private final Map<String, JSObject> retained = new HashMap<>();
+  private MediaSession mediaSession;
+  // The receiver, media session, players and audio focus. These are released when the service is destroyed.
+  private PlayerResources resources;
+  // Every player command runs on this thread so the players are never touched concurrently. The players are also
+  // created on this thread which means that their listeners are called here too.
+  private HandlerThread playerThread;
+  private Handler playerHandler;
+  // Either MediaPlayer or our own decoder. Set "engine" to "codec" in the NativeAudio section of the Capacitor config to
+  // use the decoder (Android 6.0+).
+  private boolean useCodecEngine = false;
+  // Replaces both of the above when set (for tests)
+  @Nullable
+  private final PlayerResources.EngineFactory engineFactory;
+  private PlaybackEngine player;
+  // The "on deck" player for gapless playback. It is prepared in the background by "preloadNext" and
+  // chained to "player" using setNext so it starts the moment "player" finishes.
+  // When that happens the two players swap roles.
+  private PlaybackEngine nextPlayer;
+  // Whether "player" has finished preparing
+  private boolean prepared = false;
+  // Whether "nextPlayer" has finished preparing. It's chained to "player" once both are prepared.
+  private boolean nextPrepared = false;
+  // Whether to start playing as soon as "player" is prepared (ie. when moving through the queue)
+  private boolean playWhenPrepared = false;
+  private float volume = 1.0f;
+  // Lowered while another app (e.g. navigation) is allowed to play over us. The players play at volume * duckVolume.
+  private float duckVolume = 1.0f;
+  private float duckFrom = 1.0f;
+  private float duckTarget = 1.0f;
+  private long duckStart;
+  // How quiet ducked playback is and how long it takes to get there (and back)
+  private static final float DUCK_VOLUME = 0.2f;
+  private static final long DUCK_RAMP = 300;
+  // What losing audio focus did. The summary is sent to JS once focus comes back (or is gone for good).
+  @Nullable
+  private String focusLoss = null;
+  private long focusLossStart;
+  // Whether playback was paused by a transient loss of audio focus and should resume when focus comes back
+  private boolean resumeOnFocusGain = false;
+  // How much of each song has been buffered (0 - 100)
+  private int bufferedPercent = 0;
+  private int nextBufferedPercent = 0;
+  // How often "timeupdate" is sent while playing. 0 disables the event.
+  private long timeUpdateInterval = 1000;
+  // "timeupdate" is only useful while the app is visible
+  private boolean foreground = true;
+  // The calls that are waiting for their player to finish preparing
+  private PluginCall pendingPreload = null;
+  private PluginCall pendingPreloadNext = null;
+  private static String CHANNEL_ID = "capacitor-community-native-audio-channel-id";
+  private Info info = null;
+  // The song in "player"
+  @Nullable
+  private String songId = null;
+  @Nullable
+  private PlayQueue.Track track = null;
+  // The state machine. Only the player thread changes "status" and every change is published to "state" as an
+  // immutable snapshot that any thread can read without touching the players.
+  private PlayerState.Status status = PlayerState.Status.IDLE;
+  private final AtomicReference<PlayerState> state = new AtomicReference<>(PlayerState.INITIAL);
+  // The song in "nextPlayer". This is null whenever nothing is loaded into "nextPlayer".
+  private PlayQueue.Track nextTrack = null;
+  // The queue set by "setQueue". When this is null, JS is in charge of moving between songs.
+  private PlayQueue queue = null;
+  // How many songs after the next song JS wants downloaded ahead of time. TransferPolicy decides how many actually are.
+  private int prefetchCount = 2;
+  // How long (in milliseconds) songs overlap when moving to the next song. 0 means gapless playback.
+  private long crossfadeDuration = 0;
+  // The player that is fading out during a crossfade. This is always "nextPlayer" so nothing can be loaded into
+  // "nextPlayer" until the crossfade ends.
+  private PlaybackEngine fadingPlayer = null;
+  private long fadeStart;
+  private long fadeLength;
+  // Only one seek is sent to the player at a time. A seek that arrives while another is in progress waits here and
+  // replaces any seek that was already waiting, so dragging the seek bar only runs the newest seek.
+  private boolean seeking = false;
+  private int seekTarget = 0;
+  private int queuedSeek = -1;
+  private boolean queuedSeekExact = false;
+  // Whether the user is dragging the seek bar (between beginScrub and endScrub)
+  private boolean scrubbing = false;
+  // How often the volumes are updated during a crossfade
+  private static final long FADE_STEP = 20;
+  // A "preloadNext" that arrives during a crossfade is loaded once the crossfade ends
+  private PlayQueue.Track deferredNextTrack = null;
+  private PluginCall deferredNextCall = null;
+  private NotificationManager notificationManager;
+  private NotificationRenderer notification;
+  // Same as the iOS disk cache
+  private static long DEFAULT_CACHE_BYTES = 100 * 1024 * 1024;
+  private AudioCache cache;
+  // The cache size set by setCacheSize. The cache can be smaller than this when storage is low.
+  private long cacheBytes = DEFAULT_CACHE_BYTES;
+  // How much is downloaded ahead of time given the network, battery and storage
+  private TransferPolicy policy;
+  // Whether the policy is listening for changes (see startPolicy). Only used on the player thread.
+  private boolean policyStarted = false;
+  // Songs that are partially downloaded by CachingDataSource
+  private File partialDir;
+  // The start of songs that will probably be played soon
+  private HeadPrefetcher heads;
+  // Whole songs that are downloaded for offline playback
+  private DownloadManager downloads;
+  private ArtworkCache artwork;
+  private WaveformCache waveforms;
+  // The state of the last notification so that it can be updated once the cover has loaded
+  private int notificationState = PlaybackState.STATE_NONE;
+  // The state that was last given to the media session so that it can be updated after a seek
+  private int playbackState = PlaybackState.STATE_NONE;
+  private final PlaybackMetrics metrics = new PlaybackMetrics();
+  // How often "metrics" is sent. 0 disables the event.
+  private long metricsInterval = 0;
+  // The position when play was pressed. Audio has started once the position moves past this.
+  private int firstAudioPosition = 0;
+  // What was playing, saved so that it can be loaded again after the process is killed
+  private SessionStore sessionStore;
+  // How often the position is saved while playing
+  private static final long POSITION_SAVE_INTERVAL = 5000;
+  // Whether the saved session is in the state but setUp hasn't run for it yet. Only "player" exists, prepared ahead at
+  // "restorePosition". The first play or transport command sets up the rest (see loadRestored).
+  private boolean restored = false;
+  // Whether "player" is preparing the saved session. It's seeked to "restorePosition" once it's prepared.
+  private boolean restoring = false;
+  private int restorePosition = 0;
+  // Cache maintenance happens one task at a time off the main thread
+  private final ExecutorService downloader = Executors.newSingleThreadExecutor();
+
+  BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      String action = intent.getAction();
+      if (action == null) return;
+
+      Log.i(TAG, "Got INTENT:: " + action);
+
+      switch (action) {
+        case Intent.ACTION_HEADSET_PLUG:
+          int state = intent.getIntExtra("state", -1);
+          switch (state) {
+            case 0:
+              // Unplug headphones
+              notifyOrRun("pause", pauseAction);
+              break;
+            case 1:
+              // Plug in headphones
+              break;
+          }
+          break;
+        case AudioManager.ACTION_AUDIO_BECOMING_NOISY:
+          runOnPlayerThread(new Runnable() {
+            @Override
+            public void run() {
+              pauseLogic();
+            }
+          });
+          break;
+        case Intent.ACTION_MEDIA_BUTTON:
+          // This is prior to android 5.0 (21)
+          // FIXME I think I need to update a manifest for this to work
+          handleIntent(intent);
+          break;
+        case "destroy":
+          notifyListeners("stop", new JSObject());
+          runOnPlayerThread(new Runnable() {
+            @Override
+            public void run() {
+              notification.cancel();
+            }
+          });
+          break;
+        case "next":
+          nextLogic();
+          break;
+        case "previous":
+          previousLogic();
+          break;
+        default:
+          // action is "play" and "pause"
+          notifyOrRun(action, "play".equals(action) ? playAction : pauseAction);
+          break;
+      }
+    }
+  };
+
+  // What the buttons in the notification and on headphones do when JS isn't listening
+  private final Runnable playAction = new Runnable() {
+    @Override
+    public void run() {
+      playLogic();
+    }
+  };
+
+  private final Runnable pauseAction = new Runnable() {
+    @Override
+    public void run() {
+      pauseLogic();
+    }
+  };
+
+  private final Runnable toggleAction = new Runnable() {
+    @Override
+    public void run() {
+      if (prepared && player.isPlaying()) {
+        pauseLogic();
+      } else {
+        playLogic();
+      }
+    }
+  };
+
+  private final Runnable timeUpdate = new Runnable() {
+    @Override
+    public void run() {
+      if (!shouldSendTimeUpdates()) return;
+
+      // Correct the extrapolated position in case playback drifted (e.g. it stalled)
+      publishState();
+
+      if (hasListeners("timeupdate")) notifyListeners("timeupdate", EventPayloads.timeUpdate(state.get()));
+
+      playerHandler.postDelayed(this, timeUpdateInterval);
+    }
+  };
+
+  // Polls the position after play is pressed to time how long it takes for audio to start
+  private final Runnable firstAudioCheck = new Runnable() {
+    @Override
+    public void run() {
+      if (!prepared || !player.isPlaying()) return;
+
+      if (player.getCurrentPosition() > firstAudioPosition) {
+        metrics.audioStarted();
+      } else {
+        playerHandler.postDelayed(this, 10);
+      }
+    }
+  };
+
+  private final Runnable positionSave = new Runnable() {
+    @Override
+    public void run() {
+      if (!prepared || !player.isPlaying()) return;
+      sessionStore.savePosition(player.getCurrentPosition());
+      playerHandler.postDelayed(this, POSITION_SAVE_INTERVAL);
+    }
+  };
+
+  private final Runnable metricsUpdate = new Runnable() {
+    @Override
+    public void run() {
+      if (metricsInterval == 0) return;
+      if (hasListeners("metrics")) notifyListeners("metrics", metrics.toJSObject());
+      playerHandler.postDelayed(this, metricsInterval);
+    }
+  };
+
+  // Waits for the point where the current song should start fading out
+  private final Runnable crossfadeCheck = new Runnable() {
+    @Override
+    public void run() {
+      scheduleCrossfade();
+    }
+  };
+
+  // Runs every FADE_STEP during a crossfade. The volumes are calculated from the elapsed time so a late tick never
+  // stretches the fade and nothing is allocated per tick.
+  private final Runnable crossfadeTick = new Runnable() {
+    @Override
+    public void run() {
+      if (fadingPlayer == null) return;
+
+      long now = SystemClock.uptimeMillis();
+      float progress = (now - fadeStart) / (float) fadeLength;
+      if (progress >= 1) {
+        endCrossfade();
+        return;
+      }
+
+      // Equal power curves so that the overall loudness doesn't dip in the middle of the fade
+      float in = outputVolume() * (float) Math.sin(progress * Math.PI / 2);
+      float out = outputVolume() * (float) Math.cos(progress * Math.PI / 2);
+      player.setVolume(in);
+      fadingPlayer.setVolume(out);
+      playerHandler.postAtTime(this, now + FADE_STEP);
+    }
+  };
+
+  // Runs every FADE_STEP while ducking. Like the crossfade, the volume is calculated from the elapsed time.
+  private final Runnable duckTick = new Runnable() {
+    @Override
+    public void run() {
+      long now = SystemClock.uptimeMillis();
+      float progress = Math.min(1, (now - duckStart) / (float) DUCK_RAMP);
+      duckVolume = duckFrom + (duckTarget - duckFrom) * progress;
+      applyVolume();
+      if (progress < 1) playerHandler.postAtTime(this, now + FADE_STEP);
+    }
+  };
+
+  private final PlaybackEngine.Listener engineListener = new PlaybackEngine.Listener() {
+    @Override
+    public void onPrepared(PlaybackEngine engine) {
+      onPlayerPrepared(engine);
+    }
+
+    @Override
+    public void onCompletion(PlaybackEngine engine) {
+      onPlayerCompletion(engine);
+    }
+
+    @Override
+    public void onBufferingUpdate(PlaybackEngine engine, int percent) {
+      if (engine == player) {
+        bufferedPercent = percent;
+        publishState();
+      } else if (engine == nextPlayer) {
+        nextBufferedPercent = percent;
+      }
+    }
+
+    @Override
+    public void onSeekComplete(PlaybackEngine engine) {
+      if (engine != player) return;
+      seeking = false;
+      if (queuedSeek >= 0) {
+        int ms = queuedSeek;
+        queuedSeek = -1;
+        seekPlayer(ms, queuedSeekExact);
+        return;
+      }
+
+      metrics.seekCompleted();
+      publishState();
+      sessionStore.savePosition(seekTarget);
+      if (playbackState != PlaybackState.STATE_NONE) setMediaPlaybackState(playbackState);
+    }
+
+    @Override
+    public void onStall(PlaybackEngine engine) {
+      if (engine == player) metrics.stalled();
+    }
+
+    @Override
+    public void onError(PlaybackEngine engine, String message) {
+      onPlayerError(engine, message);
+    }
+  };
+
+  // This is used to handle hardware buttons or bluetooth devices
+  // e.g. If I press pause using my airpods the "onMediaButtonEvent" event is triggered
+  MediaSession.Callback callback = new
+    MediaSession.Callback() {
+      @Override
+      public void onPlay() {
+        playLogic();
+      }
+
+      @Override
+      public void onPause() {
+        pauseLogic();
+      }
+
+      @Override
+      public void onSkipToNext() {
+        nextLogic();
+      }
+
+      @Override
+      public void onSkipToPrevious() {
+        previousLogic();
+      }
+
+      @Override
+      public void onPlayFromMediaId(String mediaId, Bundle extras) {
+        // A song picked from the queue in a media browser (e.g. Android Auto)
+        if (queue == null || mediaId == null || !mediaId.startsWith(QUEUE_MEDIA_ID)) return;
+
+        int index;
+        try {
+          index = Integer.parseInt(mediaId.substring(QUEUE_MEDIA_ID.length()));
+        } catch (NumberFormatException e) {
+          Log.w(TAG, "Invalid media ID " + mediaId);
+          return;
+        }
+
+        if (index == queue.getIndex()) {
+          playLogic();
+        } else {
+          moveInQueue(index - queue.getIndex(), true);
+        }
+      }
+
+      @Override
+      public void onSeekTo(long pos) {
+        // The new position is published once the seek completes
+        if (prepared) {
+          seekPlayer((int) pos, true);
+        } else if (restored) {
+          seekRestored((int) pos);
+        }
+      }
+
+      @Override
+      public boolean onMediaButtonEvent(@androidx.annotation.NonNull Intent intent) {
+        // This is for android >= 5.0 (21)
+        boolean result = handleIntent(intent);
+        return result || super.onMediaButtonEvent(intent);
+      }
+    };
+
+  AudioPlayer(Context context, Host host) {
+    this(context, host, null);
+  }
+
+  /**
+   * "engineFactory" creates the players instead of MediaPlayer or our decoder (for tests).
+   */
+  AudioPlayer(Context context, Host host, @Nullable PlayerResources.EngineFactory engineFactory) {
+    this.context = context;
+    this.host = host;
+    this.engineFactory = engineFactory;
+
+    Trace.beginSection("NativeAudio.load");
+    long start = SystemClock.elapsedRealtime();
+
+    this.playerThread = new HandlerThread("native-audio-player");
+    this.playerThread.start();
+    this.playerHandler = new Handler(this.playerThread.getLooper());
+
+    IntentFilter filter = new IntentFilter();
+    filter.addAction("previous");
+    filter.addAction("pause");
+    filter.addAction("play");
+    filter.addAction("next");
+    filter.addAction("destroy");
+    filter.addAction(Intent.ACTION_MEDIA_BUTTON);
+    filter.addAction(Intent.ACTION_HEADSET_PLUG);
+    // Nothing is acquired until setUp
+    this.resources = new PlayerResources(context, this.playerHandler, this.receiver, filter, this.callback, this, new PlayerResources.EngineFactory() {
+      @Override
+      public PlaybackEngine create() {
+        return createEngine();
+      }
+    });
+
+    this.cache = new AudioCache(new File(context.getFilesDir(), "audio-cache"), DEFAULT_CACHE_BYTES);
+    this.partialDir = new File(context.getFilesDir(), "audio-cache-partial");
+    this.heads = new HeadPrefetcher(new File(context.getCacheDir(), "audio-heads"), 16 * 1024 * 1024, 32 * 1024 * 1024, this.cache);
+    this.downloads = new DownloadManager(this.cache, new File(context.getFilesDir(), "audio-downloads"), new DownloadManager.Listener() {
+      @Override
+      public void onProgress(JSArray downloads) {
+        notifyListeners("download-progress", EventPayloads.downloadProgress(downloads));
+      }
+
+      @Override
+      public void onComplete(String songId) {
+        updateCacheBudget();
+        notifyListeners("download-complete", new JSObject().put("songId", songId));
+      }
+
+      @Override
+      public void onError(String songId, String message) {
+        notifyListeners("download-error", new JSObject().put("songId", songId).put("message", message));
+      }
+    });
+    this.downloader.execute(new Runnable() {
+      @Override
+      public void run() {
+        Trace.beginSection("NativeAudio.initOffline");
+        long start = SystemClock.elapsedRealtime();
+        List<String> songIds = cache.init();
+        Log.i(TAG, "Found " + songIds.size() + " cached songs in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        JSArray array = new JSArray();
+        for (String songId : songIds) array.put(songId);
+        // Retain the event since the JS listeners are probably not registered yet
+        notifyListeners("init-offline", new JSObject().put("songIds", array), true);
+        Trace.endSection();
+      }
+    });
+
+    // Only starts listening once something is downloaded (see startPolicy)
+    this.policy = new TransferPolicy(new SystemConditions(context, this.playerHandler, context.getFilesDir()));
+
+    // Covers are only used for the notification so there is no point decoding them any larger than the icon
+    this.artwork = new ArtworkCache(
+      new File(context.getCacheDir(), "artwork"),
+      context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+      context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height),
+      4 * 1024 * 1024,
+      20 * 1024 * 1024
+    );
+
+    // A few KB per song
+    this.waveforms = new WaveformCache(new File(context.getCacheDir(), "waveforms"), 4 * 1024 * 1024, this.cache);
+
+    // Load the last session before JS asks for anything so that "play" can start right away
+    this.sessionStore = new SessionStore(new File(context.getFilesDir(), "native-audio-session"));
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        restoreSession();
+      }
+    });
+
+    this.metrics.loaded(SystemClock.elapsedRealtime() - start);
+    Trace.endSection();
+  }
+
+  /**
+   * Set up everything that is only needed once something is loaded: the receivers for the notification buttons, the
+   * notification channel, the media session and the players. Doing this in "load" would slow down the start of the
+   * app even if nothing is ever played. This must be called on the player thread before touching the players.
+   */
+  private void setUp() {
+    if (this.mediaSession != null) return;
+
+    Trace.beginSection("NativeAudio.setUp");
+    long start = SystemClock.elapsedRealtime();
+
+    this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+    if (Build.VERSION.SDK_INT >= 26) {
+      // The user-visible name of the channel.
+      CharSequence name = "Audio Controls";
+      // The user-visible description of the channel.
+      String description = "Control Playing Audio";
+
+      // IMPORTANCE_LOW is very important (no popup, no sound)
+      // See https://stackoverflow.com/questions/54286389/how-do-i-make-an-android-local-notification-that-doesnt-pop-up-just-shows-up-o
+      NotificationChannel channel = new NotificationChannel(CHANNEL_ID, name, NotificationManager.IMPORTANCE_LOW);
+      channel.setDescription(description);
+      this.notificationManager.createNotificationChannel(channel);
+    }
+
+    this.notification = new NotificationRenderer(
+      context,
+      this.notificationManager,
+      CHANNEL_ID,
+      this.playerHandler,
+      this.metrics.notification,
+      this.host
+    );
+
+    this.resources.acquire();
+    this.mediaSession = this.resources.getMediaSession();
+    this.host.onSessionCreated(this.mediaSession);
+    // A restored session already has one (see prepareRestored)
+    if (this.player == null) this.player = this.resources.createEngine();
+    this.nextPlayer = this.resources.createEngine();
+    // Last since this can load the next song
+    this.startPolicy();
+
+    this.metrics.setUp(SystemClock.elapsedRealtime() - start);
+    Trace.endSection();
+  }
+
+  /**
+   * Ask the other apps to stop playing. This is done when playback starts rather than when the player is created so
+   * that opening the app doesn't stop music from another app.
+   */
+  private void requestAudioFocus() {
+    if (this.resources.requestAudioFocus()) {
+      Log.i(TAG, "Gained audio focus...");
+      // The other app is done even though we weren't told
+      if (this.focusLoss != null) {
+        this.duckTo(1.0f);
+        this.sendFocusSummary(false);
+      }
+    } else {
+      Log.i(TAG, "Failed to gain audio focus...");
+    }
+  }
+
+  /**
+   * This method will load more optimized audio files for background into memory.
+   */
+  void preload(final PluginCall call) {
+    Log.i(TAG, "preload: " + call.getData().toString());
+
+    final String url = call.getString("path");
+    if (url == null) {
+      call.error("url is required");
+      return;
+    }
+
+    final float volume = call.getFloat("volume", 1.0f);
+    final PlayQueue.Track track = PlayQueue.Track.parse(call.getData());
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        setUp();
+        // JS is taking over from the native queue
+        queue = null;
+        host.onQueueChanged();
+        AudioPlayer.this.volume = volume;
+        loadTrack(track, call, false);
+      }
+    });
+  }
+
+  /**
+   * This method will prepare the song that should play after the currently loaded song. When the current song
+   * finishes, Android switches to the next song without any silence and "next-started" is sent instead of "complete".
+   */
+  void preloadNext(final PluginCall call) {
+    Log.i(TAG, "preloadNext: " + call.getData().toString());
+
+    final String url = call.getString("path");
+    if (url == null) {
+      call.error("url is required");
+      return;
+    }
+
+    final float volume = call.getFloat("volume", 1.0f);
+    final PlayQueue.Track track = PlayQueue.Track.parse(call.getData());
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        setUp();
+        queue = null;
+        host.onQueueChanged();
+        // The next song plays after the restored song so that has to be loaded now
+        loadRestored(false);
+        saveSession();
+        AudioPlayer.this.volume = volume;
+        loadNextTrack(track, call);
+      }
+    });
+  }
+
+  /**
+   * This method will give the plugin the list of songs to play. The song at "index" is loaded and, from then on, the
+   * plugin moves through the queue by itself (when a song completes or next/previous is pressed) and sends
+   * "index-changed". The song after the current song is prepared for gapless playback and the "prefetch" songs after
+   * that are downloaded ahead of time.
+   */
+  void setQueue(final PluginCall call) {
+    final List<PlayQueue.Track> tracks = this.parseTracks(call);
+    if (tracks == null) return;
+
+    final int index = call.getInt("index", 0);
+    if (index < 0 || index >= tracks.size()) {
+      call.error("index is out of range");
+      return;
+    }
+
+    final int prefetch = call.getInt("prefetch", 2);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        setUp();
+        queue = new PlayQueue(tracks, index);
+        host.onQueueChanged();
+        prefetchCount = prefetch;
+        loadTrack(queue.current(), call, false);
+        prepareQueueAhead();
+      }
+    });
+  }
+
+  /**
+   * This method will replace the songs in the queue (e.g. after a reorder or shuffle) without interrupting the current
+   * song. The song at "index" must be the song that is currently loaded.
+   */
+  void updateQueue(final PluginCall call) {
+    final List<PlayQueue.Track> tracks = this.parseTracks(call);
+    if (tracks == null) return;
+
+    final int index = call.getInt("index", 0);
+    if (index < 0 || index >= tracks.size()) {
+      call.error("index is out of range");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        if (queue == null) {
+          call.error("setQueue must be called first");
+          return;
+        }
+
+        queue = new PlayQueue(tracks, index);
+        host.onQueueChanged();
+        publishState();
+        saveSession();
+        prepareQueueAhead();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will download the first few hundred KB of songs that are likely to be played soon (e.g. the songs on
+   * screen) so that they start instantly if they are picked. Calling this again replaces the songs that haven't been
+   * downloaded yet.
+   */
+  void prefetchHeads(final PluginCall call) {
+    final List<PlayQueue.Track> tracks = this.parseTracks(call);
+    if (tracks == null) return;
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        startPolicy();
+        // The policy is only applied when the network or the battery changes but storage can run low at any time
+        heads.setEnabled(policy.allowHeads());
+        // The heads are only used when streaming through CachingDataSource
+        if (Build.VERSION.SDK_INT >= 23) heads.prefetch(tracks);
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will download whole songs for offline playback. Songs that are already downloaded or downloading are
+   * skipped. A few songs are downloaded at a time and the rest wait their turn. "download-progress" is sent every
+   * half second while songs are downloading and "download-complete" (or "download-error") when each song is done.
+   */
+  void downloadSongs(final PluginCall call) {
+    final List<PlayQueue.Track> tracks = this.parseTracks(call);
+    if (tracks == null) return;
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        // So that the number of downloads at once is right from the start
+        startPolicy();
+        for (PlayQueue.Track track : tracks) {
+          if (!AudioCache.isValidId(track.songId)) {
+            Log.w(TAG, "Not downloading " + track.url + " since it has no valid songId");
+            continue;
+          }
+
+          downloads.download(track.songId, track.url);
+        }
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will stop downloading the given songs (or every song if songIds is missing). The downloaded bytes are
+   * kept so calling downloadSongs again continues where the download stopped.
+   */
+  void cancelDownloads(final PluginCall call) {
+    JSArray songIds = call.getArray("songIds");
+    if (songIds == null) {
+      this.downloads.cancelAll();
+      call.success();
+      return;
+    }
+
+    try {
+      this.downloads.cancel(songIds.<String>toList());
+    } catch (JSONException e) {
+      call.error("songIds is invalid", e);
+      return;
+    }
+    call.success();
+  }
+
+  /**
+   * This method will play the loaded audio file if present in the memory.
+   */
+  void play(final PluginCall call) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        playLogic();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will pause the audio file during playback.
+   */
+  void pause(final PluginCall call) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        pauseLogic();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will return the current time of the audio file
+   */
+  void getCurrentTime(final PluginCall call) {
+    // Answered from the snapshot so this never waits for the player thread
+    call.success(new JSObject().put("currentTime", this.state.get().position() / 1000.0));
+  }
+
+  /**
+   * This method will return the duration of the audio file
+   */
+  void getDuration(final PluginCall call) {
+    PlayerState state = this.state.get();
+    call.success(new JSObject().put("duration", state.duration < 0 ? 0 : state.duration / 1000.0));
+  }
+
+  /**
+   * This method will return the playback state: "status" (idle, loading, paused, playing, ended or error), the song,
+   * "index" in the queue (-1 without a queue), "currentTime", "duration" and "buffered" (in seconds).
+   */
+  void getState(final PluginCall call) {
+    call.success(this.state.get().toJSObject());
+  }
+
+  /**
+   * This method will stop the audio file during playback.
+   */
+  void stop(final PluginCall call) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        // Forget the saved session even if it was never played
+        if (restored) {
+          restored = false;
+          queue = null;
+          host.onQueueChanged();
+          track = null;
+          sessionStore.clear();
+          if (mediaSession == null) {
+            // Only the player that was prepared ahead exists
+            if (player != null) player.reset();
+            prepared = false;
+            restoring = false;
+            cancelSeeks();
+            setStatus(PlayerState.Status.IDLE);
+            call.success();
+            return;
+          }
+          setStatus(PlayerState.Status.IDLE);
+        }
+
+        // Nothing was ever loaded
+        if (player == null) {
+          call.success();
+          return;
+        }
+
+        queue = null;
+        host.onQueueChanged();
+        clearNext();
+
+        if (pendingPreload != null) {
+          pendingPreload.error("preload was cancelled by stop");
+          pendingPreload = null;
+          player.reset();
+        } else if (prepared) {
+          player.stop();
+        }
+
+        prepared = false;
+        restoring = false;
+        track = null;
+        setStatus(PlayerState.Status.IDLE);
+        updateTimeUpdates();
+        sessionStore.clear();
+
+        // Other apps can play now. Focus changes stop coming so an interruption that is still going ends here.
+        if (focusLoss != null) sendFocusSummary(false);
+        resumeOnFocusGain = false;
+        playerHandler.removeCallbacks(duckTick);
+        duckVolume = 1.0f;
+        resources.abandonAudioFocus();
+        // So the lock screen, bluetooth, etc. stop showing the song as paused
+        setMediaPlaybackState(PlaybackState.STATE_STOPPED);
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will adjust volume to specified value
+   */
+  void setVolume(final PluginCall call) {
+    final float value = call.getFloat("volume", 1.0f);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        volume = value;
+        // Otherwise the volume is applied when a song is loaded
+        applyVolume();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will delete every cached song.
+   */
+  void clearCache(final PluginCall call) {
+    this.downloader.execute(new Runnable() {
+      @Override
+      public void run() {
+        downloads.clear();
+        cache.clear();
+        CachingDataSource.clear(partialDir);
+        heads.clear();
+        artwork.clear();
+        waveforms.clear();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will set the maximum number of bytes that the cache can use. Least recently played songs are removed
+   * first.
+   */
+  void setCacheSize(final PluginCall call) {
+    final Double maxBytes = call.getDouble("maxBytes");
+    if (maxBytes == null || maxBytes < 0) {
+      call.error("maxBytes is required");
+      return;
+    }
+
+    this.downloader.execute(new Runnable() {
+      @Override
+      public void run() {
+        cacheBytes = maxBytes.longValue();
+        cache.setMaxBytes(policy.cacheBytes(cacheBytes, cache.getTotalBytes()));
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will set how often (in milliseconds) "timeupdate" is sent while playing. 0 disables the event.
+   */
+  void setTimeUpdateInterval(final PluginCall call) {
+    final Double interval = call.getDouble("interval");
+    if (interval == null || interval < 0) {
+      call.error("interval is required");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        timeUpdateInterval = interval.longValue();
+        updateTimeUpdates();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will set how long (in milliseconds) the end of a song overlaps with the start of the next song. 0
+   * disables crossfading and goes back to gapless playback.
+   */
+  void setCrossfade(final PluginCall call) {
+    final Double duration = call.getDouble("duration");
+    if (duration == null || duration < 0) {
+      call.error("duration is required");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        crossfadeDuration = duration.longValue();
+        // Android can only start the next song once the current song has finished so only chain when not crossfading
+        if (prepared && nextPrepared) {
+          player.setNext(crossfadeDuration == 0 ? nextPlayer : null);
+        }
+        scheduleCrossfade();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will return the quietest ("min") and loudest ("max") sample (-1 to 1) in each of "buckets" equal parts
+   * of the song for drawing a waveform. The song is decoded from the cache if it's there, otherwise from "path". The
+   * result is saved so each song is only analyzed once.
+   */
+  void getWaveform(final PluginCall call) {
+    final String songId = call.getString("songId");
+    if (!AudioCache.isValidId(songId)) {
+      call.error("songId is required");
+      return;
+    }
+
+    final Integer buckets = call.getInt("buckets");
+    if (buckets == null || buckets <= 0 || buckets > 10000) {
+      call.error("buckets must be between 1 and 10000");
+      return;
+    }
+
+    this.waveforms.load(songId, call.getString("path"), buckets, new WaveformCache.Callback() {
+      @Override
+      public void onLoaded(String songId, byte[] peaks) {
+        JSArray min = new JSArray();
+        JSArray max = new JSArray();
+        for (int i = 0; i < peaks.length; i += 2) {
+          min.put(Double.valueOf(peaks[i] / 127.0));
+          max.put(Double.valueOf(peaks[i + 1] / 127.0));
+        }
+        call.success(new JSObject().put("min", min).put("max", max));
+      }
+
+      @Override
+      public void onError(String songId, Exception e) {
+        Log.e(TAG, "Unable to analyze " + songId, e);
+        call.error("Unable to analyze " + songId, e);
+      }
+    });
+  }
+
+  /**
+   * This method will return how long playback takes to start, seek, etc. Pass "reset" to start counting from zero
+   * again.
+   */
+  void getMetrics(final PluginCall call) {
+    final boolean reset = call.getBoolean("reset", false);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        JSObject result = metrics.toJSObject();
+        if (reset) metrics.reset();
+        call.success(result);
+      }
+    });
+  }
+
+  /**
+   * This method will start scrubbing (e.g. when the user starts dragging the seek bar). "timeupdate" isn't sent while
+   * scrubbing so the seek bar doesn't jump back under the user's finger.
+   */
+  void beginScrub(final PluginCall call) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        scrubbing = true;
+        updateTimeUpdates();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will move to the position under the user's finger. This is a fast, approximate seek (to the nearest
+   * sync frame before the position) and if a seek is still running only the newest position is used once it's done.
+   */
+  void updateScrub(final PluginCall call) {
+    final Double currentTime = call.getDouble("currentTime");
+    if (currentTime == null || currentTime < 0) {
+      call.error("currentTime is required");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        if (!scrubbing) {
+          scrubbing = true;
+          updateTimeUpdates();
+        }
+
+        if (prepared) {
+          seekPlayer((int) Math.round(currentTime * 1000), false);
+        } else if (restored) {
+          seekRestored((int) Math.round(currentTime * 1000));
+        }
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will stop scrubbing and seek exactly to where the user let go.
+   */
+  void endScrub(final PluginCall call) {
+    final Double currentTime = call.getDouble("currentTime");
+    if (currentTime == null || currentTime < 0) {
+      call.error("currentTime is required");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        scrubbing = false;
+        if (prepared) {
+          seekPlayer((int) Math.round(currentTime * 1000), true);
+        } else if (restored) {
+          seekRestored((int) Math.round(currentTime * 1000));
+        }
+        updateTimeUpdates();
+        call.success();
+      }
+    });
+  }
+
+  /**
+   * This method will set how often (in milliseconds) "metrics" is sent. 0 (the default) disables the event.
+   */
+  void setMetricsInterval(final PluginCall call) {
+    final Double interval = call.getDouble("interval");
+    if (interval == null || interval < 0) {
+      call.error("interval is required");
+      return;
+    }
+
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        metricsInterval = interval.longValue();
+        playerHandler.removeCallbacks(metricsUpdate);
+        if (metricsInterval > 0) playerHandler.postDelayed(metricsUpdate, metricsInterval);
+        call.success();
+      }
+    });
+  }
+
+  void setCurrentTime(final PluginCall call) {
+    final double currentTime = call.getDouble("currentTime", 0.0);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        // seconds -> milliseconds
+        if (prepared) {
+          seekPlayer((int) Math.round(currentTime * 1000), true);
+        } else if (restored) {
+          seekRestored((int) Math.round(currentTime * 1000));
+        }
+        call.success();
+      }
+    });
+  }
+
+
+  @Override
+  public void onAudioFocusChange(final int focusChange) {
+    Log.i(TAG, "Audio focus change state: " + focusChange);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        handleFocusChange(focusChange);
+      }
+    });
+  }
+
+  /**
+   * Duck, pause or stop when another app takes audio focus and undo it when focus comes back. This is all done here
+   * since JS might not be running. JS gets a single "audio-focus" event per interruption. This must be called on the
+   * player thread.
+   */
+  private void handleFocusChange(int focusChange) {
+    // Everything was released
+    if (this.player == null) return;
+
+    switch (focusChange) {
+      case AudioManager.AUDIOFOCUS_GAIN:
+        if (this.focusLoss == null) return;
+        this.duckTo(1.0f);
+        boolean resumed = this.resumeOnFocusGain;
+        this.resumeOnFocusGain = false;
+        this.sendFocusSummary(resumed);
+        if (resumed) this.playLogic();
+        break;
+      case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+        if (this.focusLoss == null) this.startFocusLoss("duck");
+        this.duckTo(DUCK_VOLUME);
+        break;
+      case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+        // A duck that turns into a pause is reported as a pause
+        if (this.focusLoss == null) {
+          this.startFocusLoss("pause");
+        } else if ("duck".equals(this.focusLoss)) {
+          this.focusLoss = "pause";
+        }
+        if (this.prepared && this.player.isPlaying()) {
+          this.pauseLogic();
+          this.resumeOnFocusGain = true;
+        }
+        break;
+      case AudioManager.AUDIOFOCUS_LOSS:
+        if (this.focusLoss == null) this.startFocusLoss("stop");
+        this.focusLoss = "stop";
+        this.pauseLogic();
+        // Focus doesn't come back by itself after this so the next "play" asks for it again
+        this.resources.abandonAudioFocus();
+        this.duckTo(1.0f);
+        this.sendFocusSummary(false);
+        break;
+    }
+  }
+
+  private void startFocusLoss(String loss) {
+    this.focusLoss = loss;
+    this.focusLossStart = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Send what happened while focus was lost: "duck", "pause" or "stop", whether playback resumed by itself and how long
+   * it lasted (in seconds).
+   */
+  private void sendFocusSummary(boolean resumed) {
+    notifyListeners(
+      "audio-focus",
+      new JSObject()
+        .put("loss", this.focusLoss)
+        .put("resumed", resumed)
+        .put("duration", (SystemClock.elapsedRealtime() - this.focusLossStart) / 1000.0)
+    );
+    this.focusLoss = null;
+  }
+
+  /**
+   * Ramp the volume to "target" (relative to the volume set by JS).
+   */
+  private void duckTo(float target) {
+    this.playerHandler.removeCallbacks(this.duckTick);
+    if (this.duckVolume == target) return;
+
+    this.duckFrom = this.duckVolume;
+    this.duckTarget = target;
+    this.duckStart = SystemClock.uptimeMillis();
+    this.playerHandler.post(this.duckTick);
+  }
+
+  private float outputVolume() {
+    return this.volume * this.duckVolume;
+  }
+
+  /**
+   * Apply the volume to the players. During a crossfade, the next step of the fade applies it instead.
+   */
+  private void applyVolume() {
+    if (this.player == null || this.fadingPlayer != null) return;
+    this.player.setVolume(this.outputVolume());
+    // Not set up yet (see prepareRestored)
+    if (this.nextPlayer != null) this.nextPlayer.setVolume(this.outputVolume());
+  }
+
+  /**
+   * Point the player at the cached file if there is one. Otherwise, stream from the URL and cache the song while it
+   * streams (or download it in the background before Android 6.0). Returns true if the song is playing from disk.
+   */
+  private boolean setDataSource(PlaybackEngine mp, @Nullable String songId, String url) throws IOException {
+    if (!AudioCache.isValidId(songId)) {
+      mp.setDataSource(url);
+      return false;
+    }
+
+    File file = this.cache.get(songId);
+    if (file != null) {
+      Log.i(TAG, "Cache HIT (" + songId + ")");
+      mp.setDataSource(file.getAbsolutePath());
+      return true;
+    }
+
+    Log.i(TAG, "Cache MISS (" + songId + ")");
+    if (Build.VERSION.SDK_INT >= 23) {
+      // Cache the bytes as the player reads them rather than downloading the song a second time
+      mp.setDataSource(new CachingDataSource(this.cache, this.heads, this.partialDir, songId, url, new CachingDataSource.Listener() {
+        @Override
+        public void onCached(String songId) {
+          updateCacheBudget();
+          notifyListeners("download-complete", new JSObject().put("songId", songId));
+        }
+      }));
+      return false;
+    }
+
+    mp.setDataSource(url);
+    this.download(songId, url);
+    return false;
+  }
+
+  private void download(String songId, String url) {
+    this.downloads.download(songId, url);
+  }
+
+  /**
+   * Parse the "songs" option. The call is rejected and null is returned if the songs are invalid.
+   */
+  @Nullable
+  private List<PlayQueue.Track> parseTracks(PluginCall call) {
+    JSArray songs = call.getArray("songs");
+    if (songs == null) {
+      call.error("songs is required");
+      return null;
+    }
+
+    List<PlayQueue.Track> tracks = new ArrayList<>();
+    try {
+      for (int i = 0; i < songs.length(); i++) {
+        JSONObject song = songs.getJSONObject(i);
+        if (!song.has("path")) {
+          call.error("songs[" + i + "].path is required");
+          return null;
+        }
+
+        tracks.add(PlayQueue.Track.parse(song));
+      }
+    } catch (JSONException e) {
+      call.error("songs is invalid", e);
+      return null;
+    }
+
+    return tracks;
+  }
+
+  /**
+   * Load the song into "player". "call" is resolved once the song is prepared. This must be called on the player
+   * thread.
+   */
+  private void loadTrack(PlayQueue.Track track, @Nullable PluginCall call, boolean autoplay) {
+    // Only the newest song matters. Resetting the player below cancels the older preparation.
+    if (this.pendingPreload != null) {
+      this.pendingPreload.error("preload was superseded by a newer preload");
+      this.pendingPreload = null;
+    }
+
+    // Loading a song explicitly invalidates whatever was queued up to play after the current song
+    this.clearNext();
+
+    this.track = track;
+    this.info = track.info;
+    this.songId = track.songId;
+    this.prepared = false;
+    this.playWhenPrepared = autoplay;
+    this.restored = false;
+    this.restoring = false;
+    this.metrics.cancel();
+    this.metrics.preloadStarted();
+    this.updateMetadata();
+    this.updateTimeUpdates();
+    this.cancelSeeks();
+    this.player.reset();
+    this.player.setVolume(this.outputVolume());
+    this.saveSession();
+
+    try {
+      Log.i(TAG, "PREPARE!!!");
+      this.bufferedPercent = this.setDataSource(this.player, track.songId, track.url) ? 100 : 0;
+    } catch (IOException e) {
+      e.printStackTrace();
+      this.setStatus(PlayerState.Status.ERROR);
+      if (call != null) {
+        call.error(e.getMessage());
+      } else {
+        notifyListeners("error", new JSObject().put("message", e.getMessage()));
+      }
+      return;
+    }
+
+    // Resolved in onPlayerPrepared
+    this.pendingPreload = call;
+    this.setStatus(PlayerState.Status.LOADING);
+    this.player.prepareAsync();
+  }
+
+  /**
+   * Load the song into "nextPlayer". "call" is resolved once the song is prepared. This must be called on the player
+   * thread.
+   */
+  private void loadNextTrack(PlayQueue.Track track, @Nullable PluginCall call) {
+    if (this.fadingPlayer != null) {
+      if (this.deferredNextCall != null) this.deferredNextCall.error("preloadNext was superseded");
+      this.deferredNextTrack = track;
+      this.deferredNextCall = call;
+      return;
+    }
+
+    this.clearNext();
+
+    this.nextTrack = track;
+    this.nextPlayer.setVolume(this.outputVolume());
+
+    try {
+      this.nextBufferedPercent = this.setDataSource(this.nextPlayer, track.songId, track.url) ? 100 : 0;
+    } catch (IOException e) {
+      e.printStackTrace();
+      this.clearNext();
+      if (call != null) call.error(e.getMessage());
+      return;
+    }
+
+    // Chained and resolved in onPlayerPrepared
+    this.pendingPreloadNext = call;
+    this.nextPlayer.prepareAsync();
+  }
+
+  /**
+   * Prepare the song after the current song and download the songs after that.
+   */
+  private void prepareQueueAhead() {
+    // This happens once the crossfade ends since "nextPlayer" is still in use. A restored queue waits until it's loaded.
+    if (this.queue == null || this.restored || this.fadingPlayer != null) return;
+
+    PlayQueue.Track next = this.queue.peek(1);
+    if (next == null) {
+      this.clearNext();
+    } else if (!isSameTrack(next, this.nextTrack)) {
+      this.loadNextTrack(next, null);
+    }
+
+    int depth = this.policy.prefetchDepth(this.prefetchCount);
+    for (int offset = 2; offset <= depth + 1; offset++) {
+      PlayQueue.Track track = this.queue.peek(offset);
+      if (track == null) break;
+      if (AudioCache.isValidId(track.songId)) this.download(track.songId, track.url);
+    }
+  }
+
+  /**
+   * Start listening for the network, battery and storage conditions. Like setUp, this waits until something is loaded,
+   * prefetched or downloaded so that starting the app doesn't register anything. This must be called on the player
+   * thread.
+   */
+  private void startPolicy() {
+    if (this.policyStarted) return;
+    this.policyStarted = true;
+
+    this.policy.start(new ConditionsSource.Listener() {
+      @Override
+      public void onChanged(Conditions conditions) {
+        applyPolicy();
+      }
+    });
+    // The listener is only called when something the policy uses changes so start with the current conditions
+    this.applyPolicy();
+  }
+
+  /**
+   * Apply TransferPolicy to the downloads, the head prefetcher and the cache. This is called on the player thread when
+   * the policy starts and whenever the network, charging or the low battery state changes (not on every battery
+   * percent).
+   */
+  private void applyPolicy() {
+    Log.i(TAG, "Conditions changed: " + this.policy.getConditions());
+    this.downloads.setMaxTransfers(this.policy.maxTransfers());
+    this.heads.setEnabled(this.policy.allowHeads());
+    this.updateCacheBudget();
+    // Songs further ahead might be allowed now
+    this.prepareQueueAhead();
+  }
+
+  /**
+   * Shrink the cache if it is leaving too little storage for the rest of the device.
+   */
+  private void updateCacheBudget() {
+    this.downloader.execute(new Runnable() {
+      @Override
+      public void run() {
+        cache.setMaxBytes(policy.cacheBytes(cacheBytes, cache.getTotalBytes()));
+      }
+    });
+  }
+
+  /**
+   * Move through the queue and load the new current song. Returns false if that's outside of the queue.
+   */
+  private boolean moveInQueue(int offset, boolean autoplay) {
+    if (this.queue == null || !this.queue.move(offset)) return false;
+
+    this.loadTrack(this.queue.current(), null, autoplay);
+    this.prepareQueueAhead();
+    notifyListeners("index-changed", new JSObject().put("index", this.queue.getIndex()));
+    return true;
+  }
+
+  private static boolean isSameTrack(PlayQueue.Track a, @Nullable PlayQueue.Track b) {
+    if (b == null) return false;
+    return a.url.equals(b.url) && (a.songId == null ? b.songId == null : a.songId.equals(b.songId));
+  }
+
+  private void runOnPlayerThread(Runnable runnable) {
+    this.playerHandler.post(runnable);
+  }
+
+  private boolean shouldSendTimeUpdates() {
+    return this.timeUpdateInterval > 0 && this.foreground && !this.scrubbing && this.prepared && this.player.isPlaying();
+  }
+
+  /**
+   * Start or stop the "timeupdate" ticker. This must be called on the player thread whenever the playing state, the
+   * interval or the visibility of the app changes.
+   */
+  private void updateTimeUpdates() {
+    this.playerHandler.removeCallbacks(this.timeUpdate);
+    if (this.shouldSendTimeUpdates()) {
+      this.playerHandler.post(this.timeUpdate);
+    }
+  }
+
+  private PlaybackEngine createEngine() {
+    PlaybackEngine engine;
+    if (this.engineFactory != null) {
+      engine = this.engineFactory.create();
+    } else if (Build.VERSION.SDK_INT >= 23 && this.useCodecEngine) {
+      engine = new CodecEngine(this.playerHandler);
+    } else {
+      engine = new MediaPlayerEngine();
+    }
+    engine.setListener(this.engineListener);
+    return engine;
+  }
+
+  private void onPlayerPrepared(PlaybackEngine mp) {
+    if (mp == this.player) {
+      this.prepared = true;
+      this.metrics.prepared();
+      this.setStatus(PlayerState.Status.PAUSED);
+      // The duration is known now
+      this.updateMetadata();
+      if (this.pendingPreload != null) {
+        this.pendingPreload.success();
+        this.pendingPreload = null;
+      }
+
+      if (this.restoring) {
+        this.restoring = false;
+        if (this.restorePosition > 0) this.seekPlayer(this.restorePosition, true);
+      }
+
+      if (this.playWhenPrepared) {
+        this.playWhenPrepared = false;
+        this.playLogic();
+      }
+    } else if (mp == this.nextPlayer && this.nextTrack != null) {
+      this.nextPrepared = true;
+      if (this.pendingPreloadNext != null) {
+        this.pendingPreloadNext.success();
+        this.pendingPreloadNext = null;
+      }
+    } else {
+      return;
+    }
+
+    // The next player can only be chained once both players are prepared
+    if (this.prepared && this.nextPrepared && this.crossfadeDuration == 0) {
+      this.player.setNext(this.nextPlayer);
+    }
+
+    this.scheduleCrossfade();
+  }
+
+  private void onPlayerError(PlaybackEngine mp, String message) {
+    Log.e(TAG, message);
+    this.metrics.failed();
+
+    if (mp == this.player) {
+      this.prepared = false;
+      this.cancelSeeks();
+      if (this.restored) {
+        // Preparing ahead failed (e.g. there is no network yet). loadRestored tries again when it's played.
+        this.restoring = false;
+        Log.w(TAG, "Unable to prepare the restored session: " + message);
+        mp.reset();
+        this.publishState();
+        return;
+      }
+      this.setStatus(PlayerState.Status.ERROR);
+      if (this.restoring) {
+        // The saved song can't be played anymore (e.g. it was deleted) so don't try again next time
+        this.restoring = false;
+        this.sessionStore.clear();
+        Log.w(TAG, "Unable to restore the session: " + message);
+      } else if (this.pendingPreload != null) {
+        this.pendingPreload.error(message);
+        this.pendingPreload = null;
+      } else {
+        notifyListeners("error", new JSObject().put("message", message));
+      }
+
+      // The player can't be used again until it's reset
+      mp.reset();
+    } else if (mp == this.nextPlayer) {
+      if (this.pendingPreloadNext != null) {
+        this.pendingPreloadNext.error(message);
+        this.pendingPreloadNext = null;
+      }
+
+      this.clearNext();
+    }
+  }
+
+  private void onPlayerCompletion(PlaybackEngine mp) {
+    // The song that is fading out reached the end before the fade did
+    if (mp == this.fadingPlayer) {
+      this.endCrossfade();
+      return;
+    }
+
+    // The "on deck" player can't complete but let's be safe
+    if (mp != this.player) return;
+
+    // Only swap if "nextPlayer" actually started (ie. it finished preparing and was chained)
+    if (this.nextTrack == null || !this.nextPrepared) {
+      this.clearNext();
+      this.updateTimeUpdates();
+
+      // Not gapless but at least there is no round trip through JS
+      if (this.moveInQueue(1, true)) return;
+
+      Log.i(TAG, "HELLO COMPLETE");
+      this.setStatus(PlayerState.Status.ENDED);
+      notifyListeners("complete", new JSObject());
+      return;
+    }
+
+    // If the players were chained, Android has already started "nextPlayer" so all we need to do is swap the roles.
+    // Otherwise crossfading is on but the song ended before the crossfade could start (e.g. after a seek).
+    Log.i(TAG, "Gapless transition to " + this.nextTrack.info.title);
+    if (!this.nextPlayer.isPlaying()) this.nextPlayer.start();
+    this.swapToNext();
+  }
+
+  /**
+   * Make "nextPlayer" the current player once it has started. The old player is reset unless it's fading out.
+   */
+  private void swapToNext() {
+    PlaybackEngine finished = this.player;
+    this.player = this.nextPlayer;
+    this.nextPlayer = finished;
+    this.track = this.nextTrack;
+    this.info = this.nextTrack.info;
+    this.songId = this.nextTrack.songId;
+    this.nextTrack = null;
+    this.nextPrepared = false;
+    this.bufferedPercent = this.nextBufferedPercent;
+    this.cancelSeeks();
+    if (finished != this.fadingPlayer) finished.reset();
+    this.setStatus(PlayerState.Status.PLAYING);
+
+    this.updateMetadata();
+    this.setMediaPlaybackState(PlaybackState.STATE_PLAYING);
+    this.setNotification(PlaybackState.STATE_PLAYING);
+
+    if (this.queue != null && this.queue.move(1)) {
+      this.publishState();
+      this.saveSession();
+      this.prepareQueueAhead();
+      notifyListeners("index-changed", new JSObject().put("index", this.queue.getIndex()));
+    } else {
+      this.saveSession();
+      notifyListeners("next-started", new JSObject());
+    }
+  }
+
+  /**
+   * Start the crossfade if the current song is close enough to the end. Otherwise, check again later. This must be
+   * called on the player thread whenever the playing state, the position or the next song changes.
+   */
+  private void scheduleCrossfade() {
+    this.playerHandler.removeCallbacks(this.crossfadeCheck);
+    if (this.crossfadeDuration == 0 || this.fadingPlayer != null) return;
+    if (!this.prepared || !this.nextPrepared || !this.player.isPlaying()) return;
+
+    // The duration isn't always known for streams
+    int duration = this.player.getDuration();
+    if (duration <= 0) return;
+
+    long remaining = duration - this.player.getCurrentPosition();
+    if (remaining > this.crossfadeDuration) {
+      // Check again halfway there so that drift in the position doesn't make us late
+      this.playerHandler.postDelayed(this.crossfadeCheck, Math.max(FADE_STEP, (remaining - this.crossfadeDuration) / 2));
+      return;
+    }
+
+    Log.i(TAG, "Crossfading to " + this.nextTrack.info.title);
+    this.fadingPlayer = this.player;
+    this.fadeStart = SystemClock.uptimeMillis();
+    this.fadeLength = Math.max(FADE_STEP, remaining);
+    this.nextPlayer.setVolume(0);
+    this.nextPlayer.start();
+    this.swapToNext();
+    this.playerHandler.post(this.crossfadeTick);
+  }
+
+  /**
+   * Stop the song that is fading out and load whatever was waiting on "nextPlayer".
+   */
+  private void endCrossfade() {
+    if (this.fadingPlayer == null) return;
+
+    this.playerHandler.removeCallbacks(this.crossfadeTick);
+    this.fadingPlayer.reset();
+    this.fadingPlayer = null;
+    this.player.setVolume(this.outputVolume());
+
+    if (this.deferredNextTrack != null) {
+      PlayQueue.Track track = this.deferredNextTrack;
+      PluginCall call = this.deferredNextCall;
+      this.deferredNextTrack = null;
+      this.deferredNextCall = null;
+      this.loadNextTrack(track, call);
+    } else {
+      this.prepareQueueAhead();
+    }
+  }
+
+  /**
+   * Unload the "on deck" player. A "preloadNext" call that is still preparing is rejected. This also cuts a crossfade
+   * short.
+   */
+  private void clearNext() {
+    if (this.pendingPreloadNext != null) {
+      this.pendingPreloadNext.error("preloadNext was superseded");
+      this.pendingPreloadNext = null;
+    }
+
+    if (this.deferredNextCall != null) {
+      this.deferredNextCall.error("preloadNext was superseded");
+      this.deferredNextCall = null;
+    }
+    this.deferredNextTrack = null;
+
+    if (this.fadingPlayer != null) {
+      this.playerHandler.removeCallbacks(this.crossfadeTick);
+      this.fadingPlayer = null;
+      this.player.setVolume(this.outputVolume());
+    }
+
+    this.nextTrack = null;
+    this.nextPrepared = false;
+    if (this.prepared) {
+      // This throws if "player" isn't prepared but there is nothing chained in that case anyway
+      this.player.setNext(null);
+    }
+    this.nextPlayer.reset();
+  }
+
+  /**
+   * Publish the state along with the position, speed and time of the update. The system projects the position from
+   * these so this only needs to be called when the state changes or after a seek.
+   */
+  private void setMediaPlaybackState(int state) {
+    // A restored session that isn't set up yet. Playing it sets up the media session.
+    if (this.mediaSession == null) return;
+    Log.i(TAG, "setMediaPlaybackState: " + state);
+    this.playbackState = state;
+    PlaybackState.Builder builder = new PlaybackState.Builder();
+    if(state == PlaybackState.STATE_PLAYING ) {
+      builder.setActions(
+        PlaybackState.ACTION_PLAY_PAUSE |
+        PlaybackState.ACTION_PAUSE |
+        PlaybackState.ACTION_SKIP_TO_NEXT |
+        PlaybackState.ACTION_SKIP_TO_PREVIOUS |
+        PlaybackState.ACTION_SEEK_TO
+      );
+    } else {
+      builder.setActions(
+        PlaybackState.ACTION_PLAY_PAUSE |
+        PlaybackState.ACTION_PLAY |
+        PlaybackState.ACTION_SKIP_TO_NEXT |
+        PlaybackState.ACTION_SKIP_TO_PREVIOUS |
+        PlaybackState.ACTION_SEEK_TO
+      );
+    }
+
+    long position = PlaybackState.PLAYBACK_POSITION_UNKNOWN;
+    if (this.prepared) {
+      position = this.player.getCurrentPosition();
+      builder.setBufferedPosition((long) this.player.getDuration() * this.bufferedPercent / 100);
+    }
+
+    float speed = state == PlaybackState.STATE_PLAYING ? 1.0f : 0;
+    builder.setState(state, position, speed, SystemClock.elapsedRealtime());
+    this.mediaSession.setPlaybackState(builder.build());
+  }
+
+  /**
+   * Publish the current song to the media session (lock screen, bluetooth, wear, etc.).
+   */
+  private void updateMetadata() {
+    if (this.info == null || this.mediaSession == null) return;
+
+    MediaMetadata.Builder builder = new MediaMetadata.Builder()
+      .putString(MediaMetadata.METADATA_KEY_TITLE, this.info.title)
+      .putString(MediaMetadata.METADATA_KEY_ARTIST, this.info.artist)
+      .putString(MediaMetadata.METADATA_KEY_ALBUM, this.info.album);
+
+    // The duration isn't known until the song is prepared
+    if (this.prepared) {
+      builder.putLong(MediaMetadata.METADATA_KEY_DURATION, this.player.getDuration());
+    }
+
+    if (this.info.cover != null) {
+      Bitmap bitmap = this.artwork.getCached(this.info.cover);
+      if (bitmap != null) {
+        builder.putBitmap(MediaMetadata.METADATA_KEY_ALBUM_ART, bitmap);
+      } else {
+        // This is called again once the cover is ready
+        this.loadCover(this.info.cover);
+      }
+    }
+
+    this.mediaSession.setMetadata(builder.build());
+  }
+
+  private void setNotification(int state) {
+    if (this.info == null || this.notification == null) return;
+    this.notificationState = state;
+
+    Bitmap cover = null;
+    if (this.info.cover != null) {
+      cover = this.artwork.getCached(this.info.cover);
+      if (cover == null) {
+        // Show the notification now and update it once the cover is ready
+        this.loadCover(this.info.cover);
+      }
+    }
+
+    this.notification.update(this.info, state == PlaybackState.STATE_PLAYING, cover);
+  }
+
+  private void loadCover(String cover) {
+    final long start = PlaybackMetrics.now();
+    this.artwork.load(cover, new ArtworkCache.Callback() {
+      @Override
+      public void onLoaded(final String url, Bitmap bitmap) {
+        metrics.cover.record(PlaybackMetrics.now() - start);
+        runOnPlayerThread(new Runnable() {
+          @Override
+          public void run() {
+            // The song could have changed while the cover was loading
+            if (info == null || !url.equals(info.cover)) return;
+            updateMetadata();
+            if (notificationState != PlaybackState.STATE_NONE) setNotification(notificationState);
+          }
+        });
+      }
+
+      @Override
+      public void onError(String url, Exception e) {
+        notifyListeners("error", new JSObject().put("message", e.getMessage()));
+        e.printStackTrace();
+      }
+    });
+  }
+
+  private boolean handleIntent(Intent intent) {
+    Bundle extras = intent.getExtras();
+    if (extras == null) {
+      return false;
+    }
+
+    final KeyEvent event = (KeyEvent) extras.get(Intent.EXTRA_KEY_EVENT);
+
+    if (event == null) {
+      return false;
+    }
+
+    if (event.getAction() != KeyEvent.ACTION_DOWN) {
+      return false;
+    }
+
+    final int keyCode = event.getKeyCode();
+    switch (keyCode) {
+      case KeyEvent.KEYCODE_MEDIA_PAUSE:
+        this.notifyOrRun("pause", this.pauseAction);
+        break;
+      case KeyEvent.KEYCODE_MEDIA_PLAY:
+        this.notifyOrRun("play", this.playAction);
+        break;
+      case KeyEvent.KEYCODE_MEDIA_PREVIOUS:
+        this.previousLogic();
+        break;
+      case KeyEvent.KEYCODE_MEDIA_NEXT:
+        this.nextLogic();
+        break;
+      case KeyEvent.KEYCODE_HEADSETHOOK:
+      case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE:
+        // FIXME what causes this??
+        // FIXME handle
+        this.notifyOrRun("toggle", this.toggleAction);
+        break;
+      default:
+        return false;
+    }
+
+    return true;
+  }
+
+  private void pauseLogic() {
+    // Pausing (for whatever reason) cancels resuming when audio focus comes back
+    this.resumeOnFocusGain = false;
+    // A restored song isn't playing until loadRestored
+    if (!this.prepared || this.restored) return;
+    // Pausing in the middle of a crossfade skips to the end of the fade
+    this.endCrossfade();
+    this.player.pause();
+    this.setStatus(PlayerState.Status.PAUSED);
+    this.sessionStore.savePosition(this.player.getCurrentPosition());
+    this.updateTimeUpdates();
+    this.scheduleCrossfade();
+    this.setMediaPlaybackState(PlaybackState.STATE_PAUSED);
+    this.setNotification(PlaybackState.STATE_PAUSED);
+  }
+
+  /**
+   * Seek "player" or, if a seek is already in progress, run this seek once it's done.
+   */
+  private void seekPlayer(int ms, boolean exact) {
+    if (this.seeking) {
+      this.queuedSeek = ms;
+      this.queuedSeekExact = exact;
+      this.publishState();
+      return;
+    }
+
+    this.seeking = true;
+    this.seekTarget = ms;
+    this.metrics.seekStarted();
+    this.player.seekTo(ms, exact);
+    this.publishState();
+    this.scheduleCrossfade();
+  }
+
+  private void setStatus(PlayerState.Status status) {
+    this.status = status;
+    this.publishState();
+  }
+
+  /**
+   * Publish a snapshot of the current state. This must be called on the player thread whenever something in the
+   * snapshot changes.
+   */
+  private void publishState() {
+    int position = -1;
+    if (this.prepared) {
+      // While seeking, the players report either the old position or the target so use the newest target
+      if (this.queuedSeek >= 0) {
+        position = this.queuedSeek;
+      } else if (this.seeking) {
+        position = this.seekTarget;
+      }
+    } else if (this.restored || this.restoring) {
+      position = this.restorePosition;
+    }
+
+    this.state.set(PlayerState.of(
+      this.status,
+      this.songId,
+      this.info,
+      this.queue == null ? -1 : this.queue.getIndex(),
+      this.prepared ? this.player : null,
+      position,
+      this.bufferedPercent
+    ));
+  }
+
+  /**
+   * Save the current song (and the queue if there is one) so that it can be restored after the process is killed.
+   * This must be called on the player thread whenever the song or the queue changes.
+   */
+  private void saveSession() {
+    if (this.track == null) return;
+
+    int position = this.prepared ? this.player.getCurrentPosition() : this.restored || this.restoring ? this.restorePosition : 0;
+    if (this.queue != null) {
+      this.sessionStore.save(new ArrayList<>(this.queue.getTracks()), this.queue.getIndex(), true, position);
+    } else {
+      this.sessionStore.save(Collections.singletonList(this.track), 0, false, position);
+    }
+  }
+
+  /**
+   * Put the saved session (the queue, the song and the position) back into the state, send "session-restored" and
+   * prepare the song at the saved position so that "play" starts right away. Only the player is created here. The
+   * media session, notification, receivers, etc. wait for the first play or transport command (see loadRestored) so
+   * that starting the app doesn't post a notification. This must be called on the player thread.
+   */
+  private void restoreSession() {
+    // JS already loaded something
+    if (this.track != null) return;
+
+    SessionStore.Session session = this.sessionStore.load();
+    if (session == null) return;
+
+    Log.i(TAG, "Restoring " + session.tracks.get(session.index).info.title + " at " + session.position + "ms");
+    if (session.queued) {
+      this.queue = new PlayQueue(session.tracks, session.index);
+      this.host.onQueueChanged();
+    }
+    this.track = session.tracks.get(session.index);
+    this.info = this.track.info;
+    this.songId = this.track.songId;
+    this.restored = true;
+    this.restorePosition = session.position;
+    this.setStatus(PlayerState.Status.PAUSED);
+    // Retain the event since the JS listeners are probably not registered yet
+    notifyListeners("session-restored", this.state.get().toJSObject(), true);
+    this.prepareRestored();
+  }
+
+  /**
+   * Prepare the restored song in "player". It's seeked to "restorePosition" once it's prepared (see
+   * onPlayerPrepared). If this fails, loadRestored loads the song the usual way.
+   */
+  private void prepareRestored() {
+    if (this.player == null) this.player = this.resources.createEngine();
+    this.player.setVolume(this.outputVolume());
+
+    try {
+      this.bufferedPercent = this.setDataSource(this.player, this.track.songId, this.track.url) ? 100 : 0;
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to prepare the restored session", e);
+      this.player.reset();
+      return;
+    }
+
+    this.restoring = true;
+    this.player.prepareAsync();
+  }
+
+  /**
+   * Set up the restored session now that it's needed. Returns false if there is no restored session or it's already
+   * prepared, so it can be played right away. Otherwise returns true and the song is paused at the saved position (or
+   * played if "autoplay") once it's prepared. This must be called on the player thread.
+   */
+  private boolean loadRestored(boolean autoplay) {
+    if (!this.restored) return false;
+
+    this.restored = false;
+    this.setUp();
+    if (this.prepared || this.restoring) {
+      // Prepared ahead by prepareRestored
+      this.updateMetadata();
+      if (this.queue != null) this.prepareQueueAhead();
+      if (this.prepared) return false;
+      this.playWhenPrepared = autoplay;
+      return true;
+    }
+
+    // Preparing ahead failed so load it from the start
+    this.loadTrack(this.track, null, autoplay);
+    if (this.status != PlayerState.Status.LOADING) {
+      this.sessionStore.clear();
+      return true;
+    }
+
+    this.restoring = true;
+    // Loading saves the session from the start of the song
+    this.sessionStore.savePosition(this.restorePosition);
+    if (this.queue != null) this.prepareQueueAhead();
+    return true;
+  }
+
+  /**
+   * Move the restored session to "ms" without loading it.
+   */
+  private void seekRestored(int ms) {
+    this.restorePosition = ms;
+    this.publishState();
+    this.sessionStore.savePosition(ms);
+  }
+
+  /**
+   * Forget about seeks on "player" since it's being replaced or reset.
+   */
+  private void cancelSeeks() {
+    this.seeking = false;
+    this.queuedSeek = -1;
+  }
+
+  private void playLogic() {
+    // The song is played once it's loaded
+    if (this.loadRestored(true)) return;
+
+    if (!this.prepared) {
+      Log.i(TAG, "Ignoring play since nothing is prepared");
+      return;
+    }
+
+    if (!this.player.isPlaying()) {
+      this.requestAudioFocus();
+      this.metrics.playStarted();
+      this.firstAudioPosition = this.player.getCurrentPosition();
+      this.playerHandler.removeCallbacks(this.firstAudioCheck);
+      this.playerHandler.post(this.firstAudioCheck);
+    }
+
+    this.player.start();
+    this.setStatus(PlayerState.Status.PLAYING);
+    this.updateTimeUpdates();
+    this.scheduleCrossfade();
+    this.playerHandler.removeCallbacks(this.positionSave);
+    this.playerHandler.postDelayed(this.positionSave, POSITION_SAVE_INTERVAL);
+    Log.i(TAG, "PLAY LOGIC");
+    this.setMediaPlaybackState(PlaybackState.STATE_PLAYING);
+    this.setNotification(PlaybackState.STATE_PLAYING);
+  }
+
+  private void previousLogic() {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        if (queue == null) {
+          notifyListeners("previous", new JSObject());
+          return;
+        }
+
+        // Same as the JS queue. If we are more than 4 seconds in, go back to the start of the song.
+        if (restored && !prepared && restorePosition > 4000) {
+          seekRestored(0);
+          return;
+        }
+
+        if (restored) setUp();
+        boolean playing = playWhenPrepared || (prepared && player.isPlaying());
+        if (prepared && player.getCurrentPosition() > 4000) {
+          seekPlayer(0, true);
+        } else if (!moveInQueue(-1, playing) && prepared) {
+          seekPlayer(0, true);
+        }
+      }
+    });
+  }
+
+  private void nextLogic() {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        if (queue == null) {
+          notifyListeners("next", new JSObject());
+          return;
+        }
+
+        if (restored) setUp();
+        boolean playing = playWhenPrepared || (prepared && player.isPlaying());
+        moveInQueue(1, playing);
+      }
+    });
+  }
+
+  /**
+   * The thread that every player command runs on (for tests).
+   */
+  Looper getPlayerLooper() {
+    return this.playerThread.getLooper();
+  }
+
+  /**
+   * Release everything. The player can't be used after this.
+   */
+  void destroy() {
+    this.setEventSink(null);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        tearDown();
+      }
+    });
+    // The teardown above still runs before the thread quits
+    this.playerThread.quitSafely();
+
+    this.downloader.shutdown();
+    this.downloads.shutdown();
+    this.heads.shutdown();
+    this.artwork.shutdown();
+    this.waveforms.shutdown();
+  }
+
+  /**
+   * Release every player, the media session, the receiver and audio focus and reject the calls that are waiting on
+   * them. This must be called on the player thread.
+   */
+  private void tearDown() {
+    // Timers, crossfade steps, notification updates, etc.
+    this.playerHandler.removeCallbacksAndMessages(null);
+    // Keep the session so that it's restored next time
+    if (this.prepared) this.sessionStore.savePosition(this.player.getCurrentPosition());
+    this.sessionStore.shutdown();
+    this.rejectPendingCalls("The player was destroyed");
+
+    if (this.notification != null) this.notification.cancel();
+    this.resources.release();
+    this.policy.stop();
+    this.policyStarted = false;
+
+    this.player = null;
+    this.nextPlayer = null;
+    this.fadingPlayer = null;
+    this.mediaSession = null;
+    this.prepared = false;
+    this.nextPrepared = false;
+    this.playWhenPrepared = false;
+    this.nextTrack = null;
+    this.deferredNextTrack = null;
+    this.queue = null;
+    this.track = null;
+    this.info = null;
+    this.songId = null;
+    this.restored = false;
+    this.restoring = false;
+    this.duckVolume = 1.0f;
+    this.focusLoss = null;
+    this.resumeOnFocusGain = false;
+    this.cancelSeeks();
+    this.setStatus(PlayerState.Status.IDLE);
+  }
+
+  /**
+   * Reject the calls that are waiting on a player so that their promises don't hang. This must be called on the
+   * player thread.
+   */
+  private void rejectPendingCalls(String message) {
+    if (this.pendingPreload != null) {
+      this.pendingPreload.error(message);
+      this.pendingPreload = null;
+    }
+    if (this.pendingPreloadNext != null) {
+      this.pendingPreloadNext.error(message);
+      this.pendingPreloadNext = null;
+    }
+    if (this.deferredNextCall != null) {
+      this.deferredNextCall.error(message);
+      this.deferredNextCall = null;
+    }
+  }
+
+  /**
+   * Start or stop sending events to JS. Retained events that were sent while nothing was attached are sent to the
+   * new sink right away.
+   */
+  void setEventSink(@Nullable EventSink events) {
+    synchronized (this.retained) {
+      this.events = events;
+      if (events == null) return;
+
+      for (Map.Entry<String, JSObject> event : this.retained.entrySet()) {
+        events.notifyListeners(event.getKey(), event.getValue(), true);
+      }
+      this.retained.clear();
+    }
+  }
+
+  /**
+   * The WebView that made the calls that are waiting on a player is gone.
+   */
+  void detach() {
+    this.setEventSink(null);
+    this.setForeground(false);
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        rejectPendingCalls("The plugin was destroyed");
+      }
+    });
+  }
+
+  /**
+   * Whether the app is visible. "timeupdate" is only sent while it is.
+   */
+  void setForeground(final boolean foreground) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        AudioPlayer.this.foreground = foreground;
+        updateTimeUpdates();
+      }
+    });
+  }
+
+  /**
+   * Either MediaPlayer or our own decoder (Android 6.0+). This only affects players created after the first song is
+   * loaded.
+   */
+  void setUseCodecEngine(final boolean useCodecEngine) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        AudioPlayer.this.useCodecEngine = useCodecEngine;
+      }
+    });
+  }
+
+  /**
+   * Call "callback" on the player thread with the songs in the queue.
+   */
+  void loadQueue(final QueueCallback callback) {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        if (queue == null) {
+          callback.onQueue(Collections.<PlayQueue.Track>emptyList(), -1);
+        } else {
+          callback.onQueue(queue.getTracks(), queue.getIndex());
+        }
+      }
+    });
+  }
+
+  /**
+   * Make sure the media session exists so media browsers can connect before anything is loaded.
+   */
+  void prepareSession() {
+    this.runOnPlayerThread(new Runnable() {
+      @Override
+      public void run() {
+        setUp();
+      }
+    });
+  }
+
+  private boolean hasListeners(String eventName) {
+    synchronized (this.retained) {
+      return this.events != null && this.events.hasListeners(eventName);
+    }
+  }
+
+  private void notifyListeners(String eventName, JSObject data) {
+    this.notifyListeners(eventName, data, false);
+  }
+
+  private void notifyListeners(String eventName, JSObject data, boolean retain) {
+    synchronized (this.retained) {
+      if (this.events != null) {
+        this.events.notifyListeners(eventName, data, retain);
+      } else if (retain) {
+        this.retained.put(eventName, data);
+      }
+    }
+  }
+
+  /**
+   * Send the event to JS if it's listening. Otherwise (e.g. the activity is gone) run "fallback" on the player
+   * thread so buttons in the notification and on headphones still work.
+   */
+  private void notifyOrRun(String eventName, Runnable fallback) {
+    if (this.hasListeners(eventName)) {
+      this.notifyListeners(eventName, new JSObject());
+    } else {
+      this.runOnPlayerThread(fallback);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package com.getcapacitor.community.audio;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The list of songs in an AudioCache kept in a file so that the cache can start without listing the cache directory
+ * and reading the size of every song. With tens of thousands of songs that scan takes seconds.
+ *
+ * The file is a log: every change to the cache appends a small record (put, touch or remove) and loading replays the
+ * records in order. Each record ends with a CRC32 of itself so a record that was only partially written when the app
+ * was killed is detected and dropped. Once the log has a lot more records than there are songs it is compacted into
+ * one record per song.
+ *
+ * This isn't thread safe. AudioCache only calls it while holding its own lock.
+ */
+class CacheIndex {
+  private static final String TAG = "native-audio";
+  private static final int MAGIC = 0x4e414349; // "NACI"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+
+  private static final byte PUT = 1;
+  private static final byte TOUCH = 2;
+  private static final byte REMOVE = 3;
+
+  // Song IDs are validated by AudioCache so they are always ASCII
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  // Compact once the log is this many times bigger than it needs to be
+  private static final int COMPACT_RATIO = 4;
+  private static final int MIN_COMPACT_RECORDS = 1024;
+
+  static class Entry {
+    final long size;
+    final long lastAccess;
+
+    Entry(long size, long lastAccess) {
+      this.size = size;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private final File file;
+  // The songs in least recently used order, same as the log would replay to
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+  private int records = 0;
+  @Nullable
+  private FileChannel channel = null;
+
+  CacheIndex(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Read the log. Returns the songs in least recently used order or null if there is no usable log, in which case
+   * the caller should scan the cache directory and give the result to "rebuild".
+   */
+  @Nullable
+  Map<String, Entry> load() {
+    this.close();
+    this.entries.clear();
+    this.records = 0;
+    if (!this.file.exists()) return null;
+
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(this.file, "rw");
+      FileChannel channel = raf.getChannel();
+      long length = channel.size();
+      if (length < HEADER_BYTES) return this.unusable(raf);
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return this.unusable(raf);
+
+      long end = HEADER_BYTES;
+      while (buffer.hasRemaining()) {
+        if (!this.replay(buffer)) break;
+        end = buffer.position();
+      }
+
+      if (end != length) {
+        // Drop the torn record so that new records are appended after the last good one. The file can't be truncated
+        // safely while "buffer" maps it (the mapping lives until it's garbage collected) so the good records are
+        // written to a new file instead.
+        Log.w(TAG, "Dropping " + (length - end) + " bytes from the end of " + this.file);
+        raf.close();
+        this.compact();
+      } else {
+        channel.position(end);
+        this.channel = channel;
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read " + this.file, e);
+      return this.unusable(raf);
+    }
+
+    return new LinkedHashMap<>(this.entries);
+  }
+
+  /**
+   * Replace the log with these songs (in least recently used order).
+   */
+  void rebuild(Map<String, Long> sizes) {
+    this.entries.clear();
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+      this.entries.put(entry.getKey(), new Entry(entry.getValue(), now));
+    }
+    this.compact();
+  }
+
+  void put(String songId, long size) {
+    Entry entry = new Entry(size, System.currentTimeMillis());
+    this.entries.remove(songId);
+    this.entries.put(songId, entry);
+    this.append(PUT, songId, entry);
+  }
+
+  void touch(String songId) {
+    Entry previous = this.entries.remove(songId);
+    if (previous == null) return;
+    Entry entry = new Entry(previous.size, System.currentTimeMillis());
+    this.entries.put(songId, entry);
+    this.append(TOUCH, songId, entry);
+  }
+
+  void remove(String songId) {
+    if (this.entries.remove(songId) == null) return;
+    this.append(REMOVE, songId, null);
+  }
+
+  void clear() {
+    this.entries.clear();
+    this.compact();
+  }
+
+  /**
+   * Read one record and apply it. Returns false if the record is incomplete or corrupt.
+   */
+  private boolean replay(ByteBuffer buffer) {
+    int start = buffer.position();
+    try {
+      byte op = buffer.get();
+      int idLength = buffer.getShort();
+      if (idLength <= 0 || idLength > buffer.remaining()) return false;
+      byte[] id = new byte[idLength];
+      buffer.get(id);
+      long size = buffer.getLong();
+      long lastAccess = buffer.getLong();
+      int end = buffer.position();
+      int crc = buffer.getInt();
+
+      if (crc != checksum(buffer, start, end)) return false;
+
+      String songId = new String(id, ASCII);
+      Entry previous = this.entries.remove(songId);
+      switch (op) {
+        case PUT:
+          this.entries.put(songId, new Entry(size, lastAccess));
+          break;
+        case TOUCH:
+          if (previous != null) this.entries.put(songId, new Entry(previous.size, lastAccess));
+          break;
+        case REMOVE:
+          break;
+        default:
+          return false;
+      }
+
+      this.records++;
+      return true;
+    } catch (BufferUnderflowException e) {
+      return false;
+    }
+  }
+
+  private void append(byte op, String songId, @Nullable Entry entry) {
+    if (this.channel == null) {
+      // There was no usable log (or writing failed) so start a new one from what is in memory
+      this.compact();
+      return;
+    }
+
+    if (this.records >= MIN_COMPACT_RECORDS && this.records > this.entries.size() * COMPACT_RATIO) {
+      this.compact();
+      return;
+    }
+
+    try {
+      ByteBuffer buffer = record(op, songId, entry == null ? 0 : entry.size, entry == null ? 0 : entry.lastAccess);
+      while (buffer.hasRemaining()) this.channel.write(buffer);
+      this.records++;
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write to " + this.file, e);
+      this.close();
+    }
+  }
+
+  /**
+   * Write one PUT record per song to a new file and swap it in.
+   */
+  private void compact() {
+    this.close();
+
+    File temp = new File(this.file.getPath() + ".tmp");
+    try {
+      RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+      try {
+        raf.setLength(0);
+        FileChannel channel = raf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) channel.write(header);
+
+        for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+          ByteBuffer buffer = record(PUT, entry.getKey(), entry.getValue().size, entry.getValue().lastAccess);
+          while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        channel.force(false);
+      } finally {
+        raf.close();
+      }
+
+      if (!temp.renameTo(this.file)) throw new IOException("Unable to move " + temp + " to " + this.file);
+
+      RandomAccessFile log = new RandomAccessFile(this.file, "rw");
+      this.channel = log.getChannel();
+      this.channel.position(this.channel.size());
+      this.records = this.entries.size();
+    } catch (IOException e) {
+      // The next load falls back to scanning the directory
+      Log.w(TAG, "Unable to write " + this.file, e);
+      this.close();
+      if (temp.exists() && !temp.delete()) Log.w(TAG, "Unable to delete " + temp);
+      if (this.file.exists() && !this.file.delete()) Log.w(TAG, "Unable to delete " + this.file);
+    }
+  }
+
+  private void close() {
+    if (this.channel == null) return;
+    try {
+      this.channel.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to close " + this.file, e);
+    }
+    this.channel = null;
+  }
+
+  @Nullable
+  private Map<String, Entry> unusable(@Nullable RandomAccessFile raf) {
+    this.entries.clear();
+    if (raf != null) {
+      try {
+        raf.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to close " + this.file, e);
+      }
+    }
+    return null;
+  }
+
+  private static ByteBuffer record(byte op, String songId, long size, long lastAccess) {
+    byte[] id = songId.getBytes(ASCII);
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + id.length + 8 + 8 + 4);
+    buffer.put(op).putShort((short) id.length).put(id).putLong(size).putLong(lastAccess);
+    buffer.putInt(checksum(buffer, 0, buffer.position()));
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int checksum(ByteBuffer buffer, int start, int end) {
+    CRC32 crc = new CRC32();
+    for (int i = start; i < end; i++) crc.update(buffer.get(i));
+    return (int) crc.getValue();
+  }
+}
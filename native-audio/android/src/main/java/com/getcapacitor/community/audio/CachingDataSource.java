@@ -0,0 +1,375 @@
+package com.getcapacitor.community.audio;
+
+import android.media.MediaDataSource;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streams a song over HTTP while writing every byte that MediaPlayer reads into a partial file. Bytes that are already
+ * in the partial file are served from disk so replaying or seeking backwards costs no network I/O. When there is a
+ * gap, only the missing range is requested. Once every byte has been fetched, the partial file is moved into the
+ * AudioCache. If HeadPrefetcher has the start of the song, the partial file starts out with those bytes.
+ */
+@RequiresApi(23)
+class CachingDataSource extends MediaDataSource {
+  interface Listener {
+    void onCached(String songId);
+  }
+
+  private static final String TAG = "native-audio";
+  private static final String PART_SUFFIX = ".part";
+  private static final String RANGES_SUFFIX = ".ranges";
+  // The number of partially downloaded songs to keep around
+  private static final int MAX_PARTIAL = 8;
+  // If MediaPlayer skips ahead by less than this, keep reading the current response instead of starting a new one
+  private static final long SKIP_LIMIT = 64 * 1024;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private final AudioCache cache;
+  @Nullable
+  private final HeadPrefetcher heads;
+  private final String songId;
+  private final String url;
+  private final File partFile;
+  private final File rangesFile;
+  private final Listener listener;
+  private final RandomAccessFile file;
+  private final byte[] scratch = new byte[16 * 1024];
+
+  private RangeSet ranges = new RangeSet();
+  private long size = -1;
+  private boolean committed = false;
+
+  private HttpURLConnection connection;
+  private InputStream stream;
+  private long streamPosition;
+  private long streamEnd;
+
+  CachingDataSource(
+    AudioCache cache,
+    @Nullable HeadPrefetcher heads,
+    File partialDir,
+    String songId,
+    String url,
+    Listener listener
+  ) throws IOException {
+    this.cache = cache;
+    this.heads = heads;
+    this.songId = songId;
+    this.url = url;
+    this.listener = listener;
+    this.partFile = new File(partialDir, songId + PART_SUFFIX);
+    this.rangesFile = new File(partialDir, songId + RANGES_SUFFIX);
+
+    if (!partialDir.exists() && !partialDir.mkdirs()) {
+      throw new IOException("Unable to create " + partialDir);
+    }
+
+    prune(partialDir);
+    this.restore();
+    this.file = new RandomAccessFile(this.partFile, "rw");
+
+    // The head could be the whole song
+    if (this.size >= 0 && this.ranges.covers(0, this.size)) this.commit();
+  }
+
+  @Override
+  public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+    if (size == 0) return 0;
+    if (this.size >= 0 && position >= this.size) return -1;
+
+    long cachedEnd = this.ranges.endOf(position);
+    if (cachedEnd == -1) {
+      if (!this.openStream(position)) return -1;
+      // Skipping forward could have filled in the position
+      cachedEnd = this.ranges.endOf(position);
+    }
+
+    if (cachedEnd != -1) {
+      int length = (int) Math.min(size, cachedEnd - position);
+      this.file.seek(position);
+      this.file.readFully(buffer, offset, length);
+      return length;
+    }
+
+    int length = this.stream.read(buffer, offset, (int) Math.min(size, this.streamEnd - position));
+    if (length == -1) {
+      this.endStream();
+      return -1;
+    }
+
+    this.store(position, buffer, offset, length);
+    return length;
+  }
+
+  @Override
+  public synchronized long getSize() throws IOException {
+    if (this.size < 0 && this.stream == null) {
+      // The size comes from the response headers so request whatever we need first
+      long first = this.ranges.endOf(0);
+      this.openStream(first == -1 ? 0 : first);
+    }
+
+    return this.size;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.closeStream();
+    if (!this.committed) this.persist();
+    this.file.close();
+  }
+
+  /**
+   * Make sure that "stream" is positioned at "position". Returns false if the position is past the end of the song.
+   */
+  private boolean openStream(long position) throws IOException {
+    if (this.stream != null && position >= this.streamPosition && position < this.streamEnd) {
+      if (position - this.streamPosition <= SKIP_LIMIT) {
+        return this.skipTo(position);
+      }
+    }
+
+    this.closeStream();
+
+    // Only request the bytes up until the next range that we already have
+    long end = this.ranges.nextStart(position);
+    String range = "bytes=" + position + "-" + (end == -1 ? "" : String.valueOf(end - 1));
+    Log.i(TAG, "Requesting " + range + " for " + this.songId);
+
+    this.connection = (HttpURLConnection) new URL(this.url).openConnection();
+    this.connection.setRequestProperty("Range", range);
+    this.connection.setDoInput(true);
+    this.connection.connect();
+
+    int status = this.connection.getResponseCode();
+    if (status == 416) {
+      this.closeStream();
+      return false;
+    } else if (status == HttpURLConnection.HTTP_PARTIAL) {
+      Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(this.connection.getHeaderField("Content-Range")));
+      if (!matcher.matches()) {
+        this.closeStream();
+        throw new IOException("Invalid Content-Range for " + this.songId);
+      }
+
+      this.streamPosition = Long.parseLong(matcher.group(1));
+      this.streamEnd = Long.parseLong(matcher.group(2)) + 1;
+      this.size = Long.parseLong(matcher.group(3));
+    } else if (status == HttpURLConnection.HTTP_OK) {
+      // The server ignored the range so we are getting the whole thing
+      long length = this.connection.getContentLength();
+      this.streamPosition = 0;
+      this.streamEnd = length < 0 ? Long.MAX_VALUE : length;
+      if (length >= 0) this.size = length;
+    } else {
+      this.closeStream();
+      throw new IOException("Unexpected status code " + status + " for " + this.songId);
+    }
+
+    this.stream = this.connection.getInputStream();
+    return this.skipTo(position);
+  }
+
+  /**
+   * Read forward until the stream is at the position. Skipped bytes are stored since they are useful too.
+   */
+  private boolean skipTo(long position) throws IOException {
+    // The stream is closed once it reaches the end of the requested range or the song is complete
+    while (this.stream != null && this.streamPosition < position) {
+      int length = this.stream.read(this.scratch, 0, (int) Math.min(this.scratch.length, position - this.streamPosition));
+      if (length == -1) {
+        this.endStream();
+        return false;
+      }
+
+      this.store(this.streamPosition, this.scratch, 0, length);
+    }
+
+    return this.stream != null || this.ranges.endOf(position) != -1;
+  }
+
+  private void store(long position, byte[] buffer, int offset, int length) throws IOException {
+    this.file.seek(position);
+    this.file.write(buffer, offset, length);
+    this.ranges.add(position, position + length);
+    this.streamPosition = position + length;
+
+    if (this.streamPosition >= this.streamEnd) {
+      this.closeStream();
+    }
+
+    if (this.size >= 0 && this.ranges.covers(0, this.size)) {
+      this.commit();
+    }
+  }
+
+  private void commit() throws IOException {
+    if (this.committed) return;
+
+    this.closeStream();
+    if (!this.partFile.exists() && this.cache.contains(this.songId)) {
+      // Another data source for the same song (e.g. "preload" and "preloadNext") got here first
+      this.committed = true;
+      return;
+    }
+
+    this.file.getFD().sync();
+    // The open file descriptor stays valid after the rename so we can keep serving reads
+    this.cache.commit(this.songId, this.partFile);
+    this.committed = true;
+    delete(this.rangesFile);
+
+    Log.i(TAG, "Finished caching " + this.songId);
+    this.listener.onCached(this.songId);
+  }
+
+  /**
+   * The stream ran out. A whole song sent without a Content-Length only ends at the end of the song, which is the first
+   * time we know its size.
+   */
+  private void endStream() throws IOException {
+    boolean unknownSize = this.size < 0 && this.streamEnd == Long.MAX_VALUE;
+    long end = this.streamPosition;
+    this.closeStream();
+
+    if (unknownSize) {
+      this.size = end;
+      if (this.ranges.covers(0, this.size)) this.commit();
+    }
+  }
+
+  private void closeStream() {
+    if (this.stream != null) {
+      try {
+        this.stream.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+      this.stream = null;
+    }
+
+    if (this.connection != null) {
+      this.connection.disconnect();
+      this.connection = null;
+    }
+  }
+
+  /**
+   * Load the ranges of a previous partial download. If anything looks wrong we start from scratch.
+   */
+  private void restore() {
+    if (!this.partFile.exists() || !this.rangesFile.exists()) {
+      delete(this.partFile);
+      delete(this.rangesFile);
+      this.seed();
+      return;
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new FileInputStream(this.rangesFile));
+      try {
+        this.size = input.readLong();
+        this.ranges = RangeSet.read(input);
+      } finally {
+        input.close();
+      }
+      Log.i(TAG, "Resuming " + this.songId + " with " + this.ranges.total() + " bytes");
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read " + this.rangesFile, e);
+      this.size = -1;
+      this.ranges = new RangeSet();
+      delete(this.partFile);
+    }
+
+    delete(this.rangesFile);
+  }
+
+  /**
+   * Start from the prefetched head of the song if there is one.
+   */
+  private void seed() {
+    if (this.heads == null) return;
+
+    HeadPrefetcher.Head head = this.heads.copyTo(this.songId, this.partFile);
+    if (head == null) return;
+
+    this.size = head.size;
+    this.ranges.add(0, head.length);
+    // The partial file has the bytes now
+    this.heads.remove(this.songId);
+    Log.i(TAG, "Starting " + this.songId + " with a prefetched head of " + head.length + " bytes");
+  }
+
+  private void persist() {
+    File temp = new File(this.rangesFile.getPath() + ".tmp");
+    try {
+      DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+      try {
+        output.writeLong(this.size);
+        this.ranges.write(output);
+      } finally {
+        output.close();
+      }
+
+      if (!temp.renameTo(this.rangesFile)) throw new IOException("Unable to move " + temp);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to save the ranges for " + this.songId, e);
+      delete(temp);
+    }
+  }
+
+  /**
+   * Delete the oldest partial downloads so that abandoned songs don't pile up.
+   */
+  private static void prune(File partialDir) {
+    File[] parts = partialDir.listFiles();
+    if (parts == null) return;
+
+    Arrays.sort(parts, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(b.lastModified(), a.lastModified());
+      }
+    });
+
+    int kept = 0;
+    for (File part : parts) {
+      if (!part.getName().endsWith(PART_SUFFIX)) continue;
+      if (++kept < MAX_PARTIAL) continue;
+
+      String name = part.getName();
+      delete(part);
+      delete(new File(partialDir, name.substring(0, name.length() - PART_SUFFIX.length()) + RANGES_SUFFIX));
+    }
+  }
+
+  static void clear(File partialDir) {
+    File[] files = partialDir.listFiles();
+    if (files == null) return;
+    for (File file : files) delete(file);
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+}
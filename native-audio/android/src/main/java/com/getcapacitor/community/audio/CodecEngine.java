@@ -0,0 +1,681 @@
+package com.getcapacitor.community.audio;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes with MediaExtractor/MediaCodec and plays the PCM through an AudioTrack. Unlike MediaPlayer, this lets us
+ * pick the buffer size, fill the AudioTrack before playback starts (so start() is instant) and seek to the exact
+ * sample instead of the nearest sync frame.
+ *
+ * The codec's output buffers are written straight into the AudioTrack so the only PCM buffers are the codec's own
+ * (which it reuses) and the AudioTrack's. Nothing is allocated per buffer.
+ *
+ * Decoding happens on a dedicated thread. The state is only changed on the player thread and the listener is called
+ * on the player thread.
+ */
+@RequiresApi(23)
+class CodecEngine implements PlaybackEngine {
+  private static final String TAG = "native-audio";
+
+  private static final int IDLE = 0;
+  private static final int INITIALIZED = 1;
+  private static final int PREPARING = 2;
+  private static final int PREPARED = 3;
+  private static final int STARTED = 4;
+  private static final int PAUSED = 5;
+  private static final int COMPLETED = 6;
+  private static final int ERROR = 7;
+
+  // How long to wait when the codec has nothing for us and the AudioTrack is full
+  private static final long RETRY_DELAY = 10;
+  // The AudioTrack buffer is this many times the minimum size. This is also how much is decoded before playback
+  // starts.
+  private static final int BUFFER_MULTIPLIER = 4;
+  private static final long BUFFERING_INTERVAL = 1000;
+  // How much longer than what's left in the AudioTrack to wait for it to finish playing at the end of the song
+  private static final long DRAIN_TIMEOUT = 1000;
+
+  private final Handler callbackHandler;
+  private final HandlerThread decoderThread;
+  private final Handler decoderHandler;
+  private Listener listener;
+  @Nullable
+  private volatile PlaybackEngine next;
+
+  // Bumped by every reset so that the decoder thread can tell that its work is stale
+  private volatile int generation = 0;
+  private volatile int state = IDLE;
+  private volatile int durationMs = -1;
+  private volatile float volume = 1;
+  // The position that was passed to seekTo until the seek is done
+  private volatile int seekingTo = -1;
+  @Nullable
+  private String path;
+  @Nullable
+  private MediaDataSource source;
+
+  // The rest is only used on the decoder thread except "track", "sampleRate" and "baseUs" which are guarded by "this"
+  @Nullable
+  private MediaDataSource openSource;
+  private MediaExtractor extractor;
+  private MediaCodec codec;
+  private AudioTrack track;
+  private int sampleRate;
+  private int frameSize;
+  // The position of the first frame written since the AudioTrack was created or flushed
+  private long baseUs;
+  private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+  private boolean inputDone;
+  private boolean outputDone;
+  private boolean trackFull;
+  // The output buffer that is partially written into the AudioTrack (-1 if none)
+  private int outputIndex = -1;
+  private ByteBuffer output;
+  private long framesWritten;
+  // Samples before this are dropped after a seek so playback starts at exactly the requested position
+  private long skipUntilUs = -1;
+  private long lastBufferingUpdate;
+  // Whether the AudioTrack has run dry while playing
+  private boolean stalled = false;
+  // Whether the AudioTrack was stopped to play what's left at the end of the song (see drain)
+  private boolean draining = false;
+  private long drainHead;
+  private long drainDeadline;
+
+  private final Runnable decode = new Runnable() {
+    @Override
+    public void run() {
+      int state = CodecEngine.this.state;
+      if (codec == null || (state != PREPARING && state != PREPARED && state != STARTED && state != PAUSED)) return;
+
+      try {
+        trackFull = false;
+        boolean progress = step();
+
+        if (state != STARTED) {
+          // Prerolling. Stop once the AudioTrack is full so that start() has something to play right away.
+          if (trackFull || (outputDone && outputIndex == -1)) {
+            if (state == PREPARING) onPrerolled();
+            return;
+          }
+        } else {
+          if (outputDone && outputIndex == -1) {
+            if (drain()) {
+              onEnded();
+              return;
+            }
+            // Wait for the AudioTrack to play what's left
+            progress = false;
+          } else {
+            updateStalled(progress);
+          }
+          updateBuffering();
+        }
+
+        if (progress) {
+          decoderHandler.post(this);
+        } else {
+          decoderHandler.postDelayed(this, RETRY_DELAY);
+        }
+      } catch (IOException | RuntimeException e) {
+        fail(generation, e);
+      }
+    }
+  };
+
+  private final Runnable play = new Runnable() {
+    @Override
+    public void run() {
+      if (state != STARTED || track == null) return;
+      // Resuming at the end of the song stops the AudioTrack again with a new deadline
+      draining = false;
+      track.play();
+      decoderHandler.removeCallbacks(decode);
+      decoderHandler.post(decode);
+    }
+  };
+
+  private final Runnable pauseTrack = new Runnable() {
+    @Override
+    public void run() {
+      if (state != PAUSED || track == null) return;
+      track.pause();
+    }
+  };
+
+  private final Runnable teardown = new Runnable() {
+    @Override
+    public void run() {
+      decoderHandler.removeCallbacks(decode);
+      releaseDecoder();
+    }
+  };
+
+  CodecEngine(Handler callbackHandler) {
+    this.callbackHandler = callbackHandler;
+    this.decoderThread = new HandlerThread("native-audio-decoder", Process.THREAD_PRIORITY_AUDIO);
+    this.decoderThread.start();
+    this.decoderHandler = new Handler(this.decoderThread.getLooper());
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void reset() {
+    this.generation++;
+    this.state = IDLE;
+    this.durationMs = -1;
+    this.seekingTo = -1;
+    this.path = null;
+    this.source = null;
+    this.decoderHandler.removeCallbacks(this.decode);
+    this.decoderHandler.post(this.teardown);
+  }
+
+  @Override
+  public void setDataSource(String path) {
+    this.path = path;
+    this.source = null;
+    this.state = INITIALIZED;
+  }
+
+  @Override
+  public void setDataSource(MediaDataSource source) {
+    this.path = null;
+    this.source = source;
+    this.state = INITIALIZED;
+  }
+
+  @Override
+  public void prepareAsync() {
+    if (this.state != INITIALIZED) return;
+    this.state = PREPARING;
+
+    final String path = this.path;
+    final MediaDataSource source = this.source;
+    final int generation = this.generation;
+    this.decoderHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation) return;
+        try {
+          prepare(path, source);
+          decoderHandler.post(decode);
+        } catch (IOException | RuntimeException e) {
+          fail(generation, e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void start() {
+    if (this.state != PREPARED && this.state != PAUSED && this.state != COMPLETED) return;
+
+    // Same as MediaPlayer, starting after the song is complete starts from the beginning
+    boolean restart = this.state == COMPLETED;
+    this.state = STARTED;
+    if (restart) this.seekTo(0, true);
+    this.decoderHandler.post(this.play);
+  }
+
+  @Override
+  public void pause() {
+    if (this.state != STARTED) return;
+    this.state = PAUSED;
+    this.decoderHandler.post(this.pauseTrack);
+  }
+
+  /**
+   * The plugin always loads a new song after stopping so this frees the decoder just like reset.
+   */
+  @Override
+  public void stop() {
+    this.reset();
+  }
+
+  @Override
+  public void seekTo(final int ms, final boolean exact) {
+    if (this.state != PREPARED && this.state != STARTED && this.state != PAUSED && this.state != COMPLETED) return;
+    if (this.state == COMPLETED) this.state = PAUSED;
+
+    this.seekingTo = ms;
+    final int generation = this.generation;
+    this.decoderHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation || codec == null) return;
+        try {
+          seek(ms * 1000L, exact);
+        } catch (RuntimeException e) {
+          fail(generation, e);
+          return;
+        }
+
+        callbackHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation != CodecEngine.this.generation) return;
+            if (seekingTo == ms) seekingTo = -1;
+            listener.onSeekComplete(CodecEngine.this);
+          }
+        });
+      }
+    });
+  }
+
+  @Override
+  public void setVolume(float volume) {
+    this.volume = volume;
+    synchronized (this) {
+      if (this.track != null) this.track.setVolume(volume);
+    }
+  }
+
+  @Override
+  public int getCurrentPosition() {
+    int seekingTo = this.seekingTo;
+    if (seekingTo >= 0) return seekingTo;
+    return (int) (this.positionUs() / 1000);
+  }
+
+  @Override
+  public int getDuration() {
+    return this.durationMs;
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return this.state == STARTED;
+  }
+
+  @Override
+  public void setNext(@Nullable PlaybackEngine next) {
+    this.next = next;
+  }
+
+  @Override
+  public void release() {
+    this.reset();
+    // The teardown is still processed before the thread quits
+    this.decoderThread.quitSafely();
+  }
+
+  private void prepare(@Nullable String path, @Nullable MediaDataSource source) throws IOException {
+    this.extractor = new MediaExtractor();
+    if (source != null) {
+      this.openSource = source;
+      this.extractor.setDataSource(source);
+    } else {
+      this.extractor.setDataSource(path);
+    }
+
+    MediaFormat format = null;
+    for (int i = 0; i < this.extractor.getTrackCount(); i++) {
+      MediaFormat trackFormat = this.extractor.getTrackFormat(i);
+      String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("audio/")) {
+        this.extractor.selectTrack(i);
+        format = trackFormat;
+        break;
+      }
+    }
+
+    if (format == null) throw new IOException("No audio track in " + (path != null ? path : "data source"));
+
+    if (format.containsKey(MediaFormat.KEY_DURATION)) {
+      this.durationMs = (int) (format.getLong(MediaFormat.KEY_DURATION) / 1000);
+    }
+
+    this.codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+    this.codec.configure(format, null, null, 0);
+    this.codec.start();
+
+    this.inputDone = false;
+    this.outputDone = false;
+    this.draining = false;
+    this.framesWritten = 0;
+    this.skipUntilUs = -1;
+    this.createTrack(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), 0);
+  }
+
+  private void createTrack(int sampleRate, int channels, long baseUs) throws IOException {
+    if (channels < 1 || channels > 2) throw new IOException("Unsupported channel count " + channels);
+
+    int channelMask = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+    int bufferSize = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT) * BUFFER_MULTIPLIER;
+    AudioTrack track;
+    try {
+      track = new AudioTrack.Builder()
+        .setAudioAttributes(
+          new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+            .build()
+        )
+        .setAudioFormat(
+          new AudioFormat.Builder()
+            .setSampleRate(sampleRate)
+            .setChannelMask(channelMask)
+            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+            .build()
+        )
+        .setBufferSizeInBytes(bufferSize)
+        .setTransferMode(AudioTrack.MODE_STREAM)
+        .build();
+    } catch (UnsupportedOperationException e) {
+      throw new IOException("Unable to create an AudioTrack for " + sampleRate + " Hz, " + channels + " channels", e);
+    }
+    track.setVolume(this.volume);
+
+    synchronized (this) {
+      if (this.track != null) this.track.release();
+      this.track = track;
+      this.sampleRate = sampleRate;
+      this.baseUs = baseUs;
+    }
+
+    this.frameSize = channels * 2;
+    this.framesWritten = 0;
+  }
+
+  /**
+   * Feed the codec and move decoded samples into the AudioTrack. Returns false if nothing could be done.
+   */
+  private boolean step() throws IOException {
+    boolean progress = false;
+
+    if (!this.inputDone) {
+      int index = this.codec.dequeueInputBuffer(0);
+      if (index >= 0) {
+        int size = this.extractor.readSampleData(this.codec.getInputBuffer(index), 0);
+        if (size < 0) {
+          this.codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+          this.inputDone = true;
+        } else {
+          this.codec.queueInputBuffer(index, 0, size, this.extractor.getSampleTime(), 0);
+          this.extractor.advance();
+        }
+        progress = true;
+      }
+    }
+
+    if (this.outputIndex == -1 && !this.outputDone) {
+      int index = this.codec.dequeueOutputBuffer(this.bufferInfo, 0);
+      if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        this.onOutputFormatChanged();
+        progress = true;
+      } else if (index >= 0) {
+        if ((this.bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) this.outputDone = true;
+        ByteBuffer buffer = this.codec.getOutputBuffer(index);
+        buffer.limit(this.bufferInfo.offset + this.bufferInfo.size);
+        buffer.position(this.bufferInfo.offset);
+
+        if (this.skipUntilUs > this.bufferInfo.presentationTimeUs) {
+          long skipBytes = (this.skipUntilUs - this.bufferInfo.presentationTimeUs) * this.sampleRate / 1000000 * this.frameSize;
+          if (skipBytes >= this.bufferInfo.size) {
+            // The whole buffer is before the seek position
+            this.codec.releaseOutputBuffer(index, false);
+            return true;
+          }
+          buffer.position(this.bufferInfo.offset + (int) skipBytes);
+        }
+
+        this.skipUntilUs = -1;
+        this.outputIndex = index;
+        this.output = buffer;
+        progress = true;
+      }
+    }
+
+    if (this.outputIndex != -1) {
+      int written = this.output.hasRemaining()
+        ? this.track.write(this.output, this.output.remaining(), AudioTrack.WRITE_NON_BLOCKING)
+        : 0;
+      if (written < 0) throw new IOException("AudioTrack write failed (" + written + ")");
+
+      this.framesWritten += written / this.frameSize;
+      if (written > 0) progress = true;
+
+      if (this.output.hasRemaining()) {
+        this.trackFull = true;
+      } else {
+        this.codec.releaseOutputBuffer(this.outputIndex, false);
+        this.outputIndex = -1;
+        this.output = null;
+      }
+    }
+
+    return progress;
+  }
+
+  /**
+   * Some codecs only report the real sample rate or channel count once they start decoding (e.g. HE-AAC).
+   */
+  private void onOutputFormatChanged() throws IOException {
+    MediaFormat format = this.codec.getOutputFormat();
+    int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    if (sampleRate == this.sampleRate && channels * 2 == this.frameSize) return;
+
+    Log.i(TAG, "Output format changed to " + sampleRate + "Hz with " + channels + " channels");
+    boolean playing = this.track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+    this.createTrack(sampleRate, channels, this.positionUs());
+    if (playing) this.track.play();
+  }
+
+  private void seek(long us, boolean exact) {
+    this.decoderHandler.removeCallbacks(this.decode);
+    if (this.outputIndex != -1) {
+      this.codec.releaseOutputBuffer(this.outputIndex, false);
+      this.outputIndex = -1;
+      this.output = null;
+    }
+
+    // Start decoding from the sync frame before the position and (for exact seeks) drop everything up until the
+    // position
+    this.extractor.seekTo(us, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    this.codec.flush();
+    this.inputDone = false;
+    this.outputDone = false;
+    if (!exact) {
+      long syncUs = this.extractor.getSampleTime();
+      if (syncUs >= 0) us = syncUs;
+    }
+    this.skipUntilUs = exact ? us : -1;
+
+    synchronized (this) {
+      // The AudioTrack can only be flushed while it's paused. This also resets the playback head. An AudioTrack that
+      // was stopped at the end of the song is still playing as far as the user is concerned.
+      boolean playing = this.track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING || (this.draining && this.state == STARTED);
+      this.draining = false;
+      this.track.pause();
+      this.track.flush();
+      this.baseUs = us;
+      this.framesWritten = 0;
+      if (playing) this.track.play();
+    }
+
+    // Either keep playing or preroll from the new position
+    this.decoderHandler.post(this.decode);
+  }
+
+  /**
+   * Called once everything is decoded and written. The AudioTrack only starts playing a buffer once it's full so
+   * without stop() the end of the song (or all of a short one) is never played. Returns true once it has all been
+   * played, or after DRAIN_TIMEOUT on top of how long that should have taken.
+   */
+  private boolean drain() {
+    long head = this.playbackFrames();
+    long now = SystemClock.uptimeMillis();
+    if (!this.draining) {
+      this.draining = true;
+      synchronized (this) {
+        this.track.stop();
+      }
+      this.drainDeadline = now + Math.max(0, this.framesWritten - head) * 1000 / this.sampleRate + DRAIN_TIMEOUT;
+    } else if (head >= this.framesWritten || head < this.drainHead || now >= this.drainDeadline) {
+      // Some AudioTracks go back to 0 once they're stopped and empty. Flush so the position stays at the end.
+      synchronized (this) {
+        this.track.pause();
+        this.track.flush();
+        this.baseUs += this.framesWritten * 1000000 / this.sampleRate;
+      }
+      this.framesWritten = 0;
+      this.draining = false;
+      return true;
+    }
+
+    this.drainHead = head;
+    return false;
+  }
+
+  private long playbackFrames() {
+    synchronized (this) {
+      return this.track == null ? 0 : this.track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+  }
+
+  private long positionUs() {
+    synchronized (this) {
+      if (this.track == null || this.sampleRate == 0) return this.baseUs;
+      long frames = this.track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+      return this.baseUs + frames * 1000000 / this.sampleRate;
+    }
+  }
+
+  private void updateBuffering() {
+    long now = SystemClock.uptimeMillis();
+    if (now - this.lastBufferingUpdate < BUFFERING_INTERVAL) return;
+    this.lastBufferingUpdate = now;
+
+    // This is only known when MediaExtractor is streaming the URL itself
+    long cachedUs = this.extractor.getCachedDuration();
+    final int durationMs = this.durationMs;
+    if (cachedUs < 0 || durationMs <= 0) return;
+
+    final int percent = (int) Math.min(100, (this.positionUs() + cachedUs) / 10 / durationMs);
+    final int generation = this.generation;
+    this.callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation) return;
+        listener.onBufferingUpdate(CodecEngine.this, percent);
+      }
+    });
+  }
+
+  private void updateStalled(boolean progress) {
+    if (progress) {
+      this.stalled = false;
+    } else if (!this.stalled && this.framesWritten > 0 && this.playbackFrames() >= this.framesWritten) {
+      // Everything that was decoded has been played and there is nothing new
+      this.stalled = true;
+      final int generation = this.generation;
+      this.callbackHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (generation != CodecEngine.this.generation) return;
+          listener.onStall(CodecEngine.this);
+        }
+      });
+    }
+  }
+
+  private void onPrerolled() {
+    final int generation = this.generation;
+    this.callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation || state != PREPARING) return;
+        state = PREPARED;
+        listener.onPrepared(CodecEngine.this);
+      }
+    });
+  }
+
+  private void onEnded() {
+    final int generation = this.generation;
+    this.callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation || state != STARTED) return;
+        state = COMPLETED;
+        // Start the next song before anything else happens to keep the gap as small as possible
+        PlaybackEngine next = CodecEngine.this.next;
+        if (next != null) next.start();
+        listener.onCompletion(CodecEngine.this);
+      }
+    });
+  }
+
+  private void fail(final int generation, final Exception e) {
+    Log.e(TAG, "Decoding failed", e);
+    this.callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != CodecEngine.this.generation) return;
+        state = ERROR;
+        listener.onError(CodecEngine.this, "Decoding failed: " + e.getMessage());
+      }
+    });
+  }
+
+  private void releaseDecoder() {
+    if (this.codec != null) {
+      try {
+        this.codec.stop();
+      } catch (IllegalStateException e) {
+        // The codec was already in an error state
+      }
+      this.codec.release();
+      this.codec = null;
+    }
+
+    this.outputIndex = -1;
+    this.output = null;
+
+    if (this.extractor != null) {
+      this.extractor.release();
+      this.extractor = null;
+    }
+
+    if (this.openSource != null) {
+      try {
+        this.openSource.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to close the data source", e);
+      }
+      this.openSource = null;
+    }
+
+    synchronized (this) {
+      if (this.track != null) {
+        this.track.release();
+        this.track = null;
+      }
+      this.sampleRate = 0;
+      this.baseUs = 0;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.getcapacitor.community.audio;
+
+/**
+ * What the device looks like right now as far as downloading is concerned: the network, the battery and the free
+ * storage. Immutable so it can be handed between threads.
+ */
+final class Conditions {
+  // What is assumed until something is known, which is the same as what the plugin did before it checked
+  static final Conditions UNKNOWN = new Conditions(true, false, false, -1, -1);
+
+  final boolean connected;
+  // Whether the user pays for data (e.g. cellular or a hotspot)
+  final boolean metered;
+  final boolean charging;
+  // 0 - 100 or -1 if not known
+  final int batteryPercent;
+  // The free space where songs are stored or -1 if not known
+  final long freeBytes;
+
+  Conditions(boolean connected, boolean metered, boolean charging, int batteryPercent, long freeBytes) {
+    this.connected = connected;
+    this.metered = metered;
+    this.charging = charging;
+    this.batteryPercent = batteryPercent;
+    this.freeBytes = freeBytes;
+  }
+
+  @Override
+  public String toString() {
+    return (this.connected ? (this.metered ? "metered" : "unmetered") : "offline") +
+      ", battery " + this.batteryPercent + "%" + (this.charging ? " (charging)" : "") +
+      ", " + (this.freeBytes < 0 ? "?" : this.freeBytes / (1024 * 1024)) + "MB free";
+  }
+}
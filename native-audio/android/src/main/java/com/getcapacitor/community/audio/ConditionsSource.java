@@ -0,0 +1,23 @@
+package com.getcapacitor.community.audio;
+
+/**
+ * Where TransferPolicy gets the conditions from. SystemConditions reads them from Android and tests can pass in
+ * whatever conditions they want to simulate.
+ */
+interface ConditionsSource {
+  interface Listener {
+    void onChanged(Conditions conditions);
+  }
+
+  /**
+   * The conditions right now. This is called often so it must be cheap.
+   */
+  Conditions get();
+
+  /**
+   * Start calling "listener" whenever the network or the battery changes.
+   */
+  void start(Listener listener);
+
+  void stop();
+}
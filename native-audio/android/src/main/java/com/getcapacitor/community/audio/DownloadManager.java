@@ -0,0 +1,307 @@
+package com.getcapacitor.community.audio;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads whole songs into the AudioCache for offline playback. A few worker threads (see TransferPolicy) work
+ * through the queue no matter how many songs are queued. Songs are downloaded into a ".download" file first so an interrupted download
+ * continues from where it stopped (using a Range request) the next time the song is queued. The length of the file is
+ * checked against what the server said before the song is moved into the cache.
+ *
+ * Progress is collected and sent in batches every PROGRESS_INTERVAL rather than once per chunk.
+ */
+class DownloadManager {
+  interface Listener {
+    /**
+     * "downloads" is an array of { songId, loaded, total } for the songs that made progress since the last batch.
+     * "total" is -1 if it isn't known.
+     */
+    void onProgress(JSArray downloads);
+
+    void onComplete(String songId);
+
+    void onError(String songId, String message);
+  }
+
+  private static final String TAG = "native-audio";
+  private static final String SUFFIX = ".download";
+  private static final int THREADS = 3;
+  private static final long PROGRESS_INTERVAL = 500;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private final AudioCache cache;
+  private final File dir;
+  private final Listener listener;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+
+  // The songs that are queued or downloading. Guarded by "this".
+  private final Map<String, Task> tasks = new LinkedHashMap<>();
+  private ScheduledFuture<?> flushing = null;
+
+  private final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      flushProgress();
+    }
+  };
+
+  DownloadManager(AudioCache cache, File dir, Listener listener) {
+    this.cache = cache;
+    this.dir = dir;
+    this.listener = listener;
+    this.executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue the song unless it's already cached or queued.
+   */
+  synchronized void download(String songId, String url) {
+    if (!AudioCache.isValidId(songId) || this.tasks.containsKey(songId) || this.cache.contains(songId)) return;
+
+    Task task = new Task(songId, url);
+    this.tasks.put(songId, task);
+    task.future = this.executor.submit(task);
+
+    if (this.flushing == null) {
+      this.flushing = this.timer.scheduleWithFixedDelay(this.flush, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Change how many songs download at once. Downloads that are already running finish first when this goes down.
+   */
+  synchronized void setMaxTransfers(int transfers) {
+    transfers = Math.max(1, transfers);
+    if (transfers == this.executor.getMaximumPoolSize()) return;
+
+    // The core size can never be bigger than the maximum size so the order matters
+    if (transfers > this.executor.getMaximumPoolSize()) {
+      this.executor.setMaximumPoolSize(transfers);
+      this.executor.setCorePoolSize(transfers);
+    } else {
+      this.executor.setCorePoolSize(transfers);
+      this.executor.setMaximumPoolSize(transfers);
+    }
+  }
+
+  /**
+   * Stop downloading the songs. What was downloaded so far is kept so the songs can continue later.
+   */
+  synchronized void cancel(List<String> songIds) {
+    for (String songId : songIds) {
+      Task task = this.tasks.remove(songId);
+      if (task == null) continue;
+      // Reads from the connection don't notice the interrupt so the task also checks this between reads
+      task.cancelled = true;
+      task.future.cancel(true);
+    }
+  }
+
+  synchronized void cancelAll() {
+    this.cancel(new ArrayList<>(this.tasks.keySet()));
+  }
+
+  /**
+   * Cancel everything and delete the partial downloads. A download that is still running can't create its file or
+   * move it into the cache after this (see Task.open and Task.commit) and whatever it writes to the file it already has
+   * open is gone with the file.
+   */
+  synchronized void clear() {
+    this.cancelAll();
+    File[] files = this.dir.listFiles();
+    if (files == null) return;
+    for (File file : files) {
+      if (!file.delete()) Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+
+  /**
+   * Stop every download and the threads. What was downloaded so far is kept.
+   */
+  void shutdown() {
+    this.cancelAll();
+    this.executor.shutdownNow();
+    this.timer.shutdownNow();
+  }
+
+  private void flushProgress() {
+    JSArray downloads = new JSArray();
+    synchronized (this) {
+      for (Task task : this.tasks.values()) {
+        if (!task.changed) continue;
+        task.changed = false;
+        downloads.put(EventPayloads.download(task.songId, task.loaded, task.total));
+      }
+
+      // Don't wake up for nothing
+      if (this.tasks.isEmpty() && this.flushing != null) {
+        this.flushing.cancel(false);
+        this.flushing = null;
+      }
+    }
+
+    if (downloads.length() > 0) this.listener.onProgress(downloads);
+  }
+
+  private synchronized void finished(Task task) {
+    if (this.tasks.get(task.songId) == task) this.tasks.remove(task.songId);
+  }
+
+  private class Task implements Runnable {
+    final String songId;
+    final String url;
+    Future<?> future;
+    volatile long loaded = 0;
+    volatile long total = -1;
+    volatile boolean changed = false;
+    // Set by cancel. Guarded by the DownloadManager.
+    volatile boolean cancelled = false;
+
+    Task(String songId, String url) {
+      this.songId = songId;
+      this.url = url;
+    }
+
+    @Override
+    public void run() {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      try {
+        if (cache.contains(this.songId)) return;
+        this.transfer();
+        Log.i(TAG, "Downloaded " + this.songId);
+        listener.onComplete(this.songId);
+      } catch (IOException e) {
+        // A cancelled download usually fails one way or another (e.g. clear deleted its file) but that's expected
+        if (e instanceof InterruptedIOException || this.cancelled) {
+          Log.i(TAG, "Cancelled the download of " + this.songId);
+        } else {
+          Log.e(TAG, "Unable to download " + this.songId, e);
+          listener.onError(this.songId, e.getMessage());
+        }
+      } finally {
+        finished(this);
+      }
+    }
+
+    private void transfer() throws IOException {
+      if (!dir.exists() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+
+      File file = new File(dir, this.songId + SUFFIX);
+      long offset = file.exists() ? file.length() : 0;
+
+      HttpURLConnection connection = (HttpURLConnection) new URL(this.url).openConnection();
+      try {
+        if (offset > 0) connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        connection.setDoInput(true);
+        connection.connect();
+
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_PARTIAL) {
+          Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+          if (!matcher.matches() || Long.parseLong(matcher.group(1)) != offset) {
+            throw new IOException("Invalid Content-Range for " + this.songId);
+          }
+          this.total = Long.parseLong(matcher.group(3));
+          Log.i(TAG, "Resuming the download of " + this.songId + " at " + offset);
+        } else if (status == HttpURLConnection.HTTP_OK) {
+          // Either this is a new download or the server ignored the range. Either way, start from the beginning.
+          offset = 0;
+          this.total = connection.getContentLength();
+        } else if (status == 416 && offset > 0) {
+          // The file probably has every byte already but we can't check so start over next time
+          delete(file);
+          throw new IOException("Unable to resume " + this.songId);
+        } else {
+          throw new IOException("Unexpected status code " + status + " for " + this.songId);
+        }
+
+        this.loaded = offset;
+        this.changed = true;
+
+        InputStream input = connection.getInputStream();
+        FileOutputStream output;
+        try {
+          output = this.open(file, offset > 0);
+        } catch (IOException e) {
+          input.close();
+          throw e;
+        }
+        try {
+          byte[] buffer = new byte[16 * 1024];
+          int read;
+          while ((read = input.read(buffer)) != -1) {
+            if (this.cancelled || Thread.currentThread().isInterrupted()) throw new InterruptedIOException();
+            output.write(buffer, 0, read);
+            this.loaded += read;
+            this.changed = true;
+          }
+          output.getFD().sync();
+        } finally {
+          output.close();
+          input.close();
+        }
+      } finally {
+        connection.disconnect();
+      }
+
+      if (this.total >= 0 && file.length() != this.total) {
+        delete(file);
+        throw new IOException("Expected " + this.total + " bytes for " + this.songId + " but got " + file.length());
+      }
+
+      this.commit(file);
+    }
+
+    /**
+     * Open the partial download unless the task was cancelled, so that a cancelled task can't create the file again
+     * after clear deleted it.
+     */
+    private FileOutputStream open(File file, boolean append) throws IOException {
+      synchronized (DownloadManager.this) {
+        if (this.cancelled) throw new InterruptedIOException();
+        return new FileOutputStream(file, append);
+      }
+    }
+
+    /**
+     * Move the song into the cache unless the task was cancelled while it was finishing.
+     */
+    private void commit(File file) throws IOException {
+      synchronized (DownloadManager.this) {
+        if (this.cancelled) throw new InterruptedIOException();
+        cache.commit(this.songId, file);
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+}
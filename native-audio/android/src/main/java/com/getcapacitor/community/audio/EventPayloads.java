@@ -0,0 +1,38 @@
+package com.getcapacitor.community.audio;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+/**
+ * Builds the data of the events that are sent over and over while playing or downloading. They are kept out of
+ * AudioPlayer and DownloadManager (which need an Android runtime) so the benchmarks measure the same code.
+ */
+final class EventPayloads {
+  private EventPayloads() {
+  }
+
+  /**
+   * "timeupdate": where the snapshot is, in seconds.
+   */
+  static JSObject timeUpdate(PlayerState state) {
+    double duration = state.duration < 0 ? 0 : state.duration;
+    return new JSObject()
+      .put("currentTime", state.position() / 1000.0)
+      .put("duration", duration / 1000)
+      .put("buffered", duration * state.bufferedPercent / 100 / 1000);
+  }
+
+  /**
+   * One song in "download-progress". "total" is -1 if it isn't known.
+   */
+  static JSObject download(String songId, long loaded, long total) {
+    return new JSObject().put("songId", songId).put("loaded", loaded).put("total", total);
+  }
+
+  /**
+   * "download-progress" with the songs (see download) that made progress since the last one.
+   */
+  static JSObject downloadProgress(JSArray downloads) {
+    return new JSObject().put("downloads", downloads);
+  }
+}
@@ -0,0 +1,235 @@
+package com.getcapacitor.community.audio;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads the first few hundred KB of songs that are likely to be played soon. When one of those songs is loaded,
+ * CachingDataSource starts from the downloaded head and only streams the rest. Heads live in their own small cache so
+ * they never push full songs out of the song cache.
+ *
+ * Each head is stored as the total size of the song (a long, -1 if unknown) followed by the bytes.
+ */
+class HeadPrefetcher {
+  static class Head {
+    // The size of the whole song or -1 if unknown
+    final long size;
+    final long length;
+
+    Head(long size, long length) {
+      this.size = size;
+      this.length = length;
+    }
+  }
+
+  private static final String TAG = "native-audio";
+  static final int HEAD_BYTES = 256 * 1024;
+  private static final int THREADS = 2;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private final AudioCache heads;
+  private final AudioCache songs;
+  // The most bytes that will be downloaded while the app is running. This keeps a long scroll through a big library
+  // from using a lot of data.
+  private final long sessionLimit;
+  private final AtomicLong sessionBytes = new AtomicLong();
+  // The songs that are waiting or downloading
+  private final Set<String> queued = Collections.synchronizedSet(new HashSet<String>());
+  private final ThreadPoolExecutor executor;
+  // Turned off by TransferPolicy on metered connections, a low battery and low storage
+  private volatile boolean enabled = true;
+
+  HeadPrefetcher(File dir, long maxBytes, long sessionLimit, AudioCache songs) {
+    this.heads = new AudioCache(dir, maxBytes);
+    this.songs = songs;
+    this.sessionLimit = sessionLimit;
+
+    this.executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    this.executor.allowCoreThreadTimeOut(true);
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        heads.init();
+      }
+    });
+  }
+
+  /**
+   * Download the heads of these songs. This replaces the songs from the last call that haven't started yet since
+   * only the newest guess about what's next matters.
+   */
+  void prefetch(List<PlayQueue.Track> tracks) {
+    List<Runnable> cancelled = new ArrayList<>();
+    this.executor.getQueue().drainTo(cancelled);
+    for (Runnable task : cancelled) {
+      if (task instanceof HeadTask) this.queued.remove(((HeadTask) task).track.songId);
+    }
+
+    if (!this.enabled) return;
+
+    for (PlayQueue.Track track : tracks) {
+      if (!AudioCache.isValidId(track.songId)) continue;
+      if (this.songs.contains(track.songId) || this.heads.contains(track.songId)) continue;
+      if (!this.queued.add(track.songId)) continue;
+      this.executor.execute(new HeadTask(track));
+    }
+  }
+
+  /**
+   * Stop or resume prefetching. Heads that are waiting are dropped when this is turned off.
+   */
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) this.prefetch(Collections.<PlayQueue.Track>emptyList());
+  }
+
+  /**
+   * Write the head of the song to the start of "output". Returns null if there is no head.
+   */
+  @Nullable
+  Head copyTo(String songId, File output) {
+    File file = this.heads.get(songId);
+    if (file == null) return null;
+
+    try {
+      DataInputStream input = new DataInputStream(new FileInputStream(file));
+      try {
+        long size = input.readLong();
+        long length = 0;
+        FileOutputStream stream = new FileOutputStream(output);
+        try {
+          byte[] buffer = new byte[16 * 1024];
+          int read;
+          while ((read = input.read(buffer)) != -1) {
+            stream.write(buffer, 0, read);
+            length += read;
+          }
+        } finally {
+          stream.close();
+        }
+
+        return new Head(size, length);
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read the head of " + songId, e);
+      this.heads.remove(songId);
+      return null;
+    }
+  }
+
+  /**
+   * Heads aren't needed once the song is being streamed or is cached.
+   */
+  void remove(String songId) {
+    this.heads.remove(songId);
+  }
+
+  void clear() {
+    this.heads.clear();
+  }
+
+  void shutdown() {
+    this.executor.shutdownNow();
+  }
+
+  private class HeadTask implements Runnable {
+    final PlayQueue.Track track;
+
+    HeadTask(PlayQueue.Track track) {
+      this.track = track;
+    }
+
+    @Override
+    public void run() {
+      String songId = this.track.songId;
+      try {
+        if (!enabled) return;
+
+        if (sessionBytes.get() >= sessionLimit) {
+          Log.i(TAG, "Skipping the head of " + songId + " since the session limit was reached");
+          return;
+        }
+
+        if (songs.contains(songId) || heads.contains(songId)) return;
+        download(songId, this.track.url);
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to prefetch the head of " + songId, e);
+      } finally {
+        queued.remove(songId);
+      }
+    }
+  }
+
+  private void download(String songId, String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      connection.setRequestProperty("Range", "bytes=0-" + (HEAD_BYTES - 1));
+      connection.setDoInput(true);
+      connection.connect();
+
+      long size;
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_PARTIAL) {
+        Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) != 0) {
+          throw new IOException("Invalid Content-Range for " + songId);
+        }
+        size = Long.parseLong(matcher.group(3));
+      } else if (status == HttpURLConnection.HTTP_OK) {
+        // The server ignored the range so we stop reading once we have enough
+        size = connection.getContentLength();
+      } else {
+        throw new IOException("Unexpected status code " + status + " for " + songId);
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEAD_BYTES + 8);
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeLong(size);
+
+      InputStream input = connection.getInputStream();
+      int length = 0;
+      try {
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while (length < HEAD_BYTES && (read = input.read(buffer, 0, Math.min(buffer.length, HEAD_BYTES - length))) != -1) {
+          output.write(buffer, 0, read);
+          length += read;
+        }
+      } finally {
+        input.close();
+      }
+
+      this.heads.put(songId, new ByteArrayInputStream(bytes.toByteArray()));
+      sessionBytes.addAndGet(length);
+      Log.i(TAG, "Prefetched " + length + " bytes of " + songId);
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.getcapacitor.community.audio;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * A histogram of durations in milliseconds. The buckets are powers of two (<= 1ms, <= 2ms, <= 4ms, ... <= 65s and
+ * everything above that) so recording is a couple of comparisons and an increment and never allocates. Percentiles
+ * are estimated as the upper bound of the bucket that contains them.
+ */
+class Histogram {
+  private static final int BUCKETS = 18;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = 0;
+
+  synchronized void record(long ms) {
+    if (ms < 0) ms = 0;
+
+    int bucket = 0;
+    while (bucket < BUCKETS - 1 && ms > (1L << bucket)) bucket++;
+
+    this.counts[bucket]++;
+    this.count++;
+    this.sum += ms;
+    this.min = Math.min(this.min, ms);
+    this.max = Math.max(this.max, ms);
+  }
+
+  synchronized long getCount() {
+    return this.count;
+  }
+
+  /**
+   * "percentile" is between 0 and 1.
+   */
+  synchronized long percentile(double percentile) {
+    if (this.count == 0) return 0;
+
+    long rank = (long) Math.ceil(percentile * this.count);
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += this.counts[bucket];
+      if (seen >= Math.max(rank, 1)) {
+        // The last bucket has no upper bound
+        return bucket == BUCKETS - 1 ? this.max : Math.min(1L << bucket, this.max);
+      }
+    }
+
+    return this.max;
+  }
+
+  synchronized JSObject toJSObject() {
+    return new JSObject()
+      .put("count", this.count)
+      .put("mean", this.count == 0 ? 0 : (double) this.sum / this.count)
+      .put("min", this.count == 0 ? 0 : this.min)
+      .put("max", this.max)
+      .put("p50", this.percentile(0.5))
+      .put("p90", this.percentile(0.9))
+      .put("p99", this.percentile(0.99));
+  }
+
+  synchronized void reset() {
+    for (int bucket = 0; bucket < BUCKETS; bucket++) this.counts[bucket] = 0;
+    this.count = 0;
+    this.sum = 0;
+    this.min = Long.MAX_VALUE;
+    this.max = 0;
+  }
+}
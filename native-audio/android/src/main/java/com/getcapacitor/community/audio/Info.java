@@ -0,0 +1,18 @@
+package com.getcapacitor.community.audio;
+
+import androidx.annotation.Nullable;
+
+class Info {
+  String title;
+  String artist;
+  String album;
+  @Nullable
+  String cover;
+
+  Info(@Nullable String title, @Nullable String artist, @Nullable String cover, @Nullable String album) {
+    this.title = title != null ? title :  "Unknown Title";
+    this.artist = artist != null ? artist : "Unknown Artist";
+    this.album = album != null ? album : "Unknown Album";
+    this.cover = cover;
+  }
+}
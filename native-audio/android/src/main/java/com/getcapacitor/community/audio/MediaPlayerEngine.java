@@ -0,0 +1,155 @@
+package com.getcapacitor.community.audio;
+
+import android.media.AudioManager;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+
+/**
+ * The default engine. This is a thin wrapper around MediaPlayer. It must be created on the player thread so that
+ * MediaPlayer calls the listeners on the player thread.
+ */
+class MediaPlayerEngine implements PlaybackEngine {
+  private final MediaPlayer player = new MediaPlayer();
+  private Listener listener;
+
+  MediaPlayerEngine() {
+    this.player.setLooping(false);
+    this.player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+
+    // This must be registered *after* .start()
+    // See https://stackoverflow.com/questions/9998677/cannot-get-android-mediaplayer-oncompletion-to-fire
+    // Ok so the above comments seem to not be true anymore... since it works here
+    // Note that listeners survive reset() so this only needs to happen once per player
+    this.player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+      @Override
+      public void onCompletion(MediaPlayer mp) {
+        listener.onCompletion(MediaPlayerEngine.this);
+      }
+    });
+
+    this.player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+      @Override
+      public void onPrepared(MediaPlayer mp) {
+        listener.onPrepared(MediaPlayerEngine.this);
+      }
+    });
+
+    this.player.setOnBufferingUpdateListener(new MediaPlayer.OnBufferingUpdateListener() {
+      @Override
+      public void onBufferingUpdate(MediaPlayer mp, int percent) {
+        listener.onBufferingUpdate(MediaPlayerEngine.this, percent);
+      }
+    });
+
+    this.player.setOnSeekCompleteListener(new MediaPlayer.OnSeekCompleteListener() {
+      @Override
+      public void onSeekComplete(MediaPlayer mp) {
+        listener.onSeekComplete(MediaPlayerEngine.this);
+      }
+    });
+
+    this.player.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+      @Override
+      public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) listener.onStall(MediaPlayerEngine.this);
+        return false;
+      }
+    });
+
+    this.player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+      @Override
+      public boolean onError(MediaPlayer mp, int what, int extra) {
+        listener.onError(MediaPlayerEngine.this, "MediaPlayer error (" + what + ", " + extra + ")");
+        // Returning true prevents onCompletion from being called
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void reset() {
+    this.player.reset();
+  }
+
+  @Override
+  public void setDataSource(String path) throws IOException {
+    this.player.setDataSource(path);
+  }
+
+  @Override
+  @RequiresApi(23)
+  public void setDataSource(MediaDataSource source) {
+    this.player.setDataSource(source);
+  }
+
+  @Override
+  public void prepareAsync() {
+    this.player.prepareAsync();
+  }
+
+  @Override
+  public void start() {
+    this.player.start();
+  }
+
+  @Override
+  public void pause() {
+    this.player.pause();
+  }
+
+  @Override
+  public void stop() {
+    this.player.stop();
+  }
+
+  @Override
+  public void seekTo(int ms, boolean exact) {
+    if (Build.VERSION.SDK_INT >= 26) {
+      this.player.seekTo(ms, exact ? MediaPlayer.SEEK_CLOSEST : MediaPlayer.SEEK_PREVIOUS_SYNC);
+    } else {
+      // Before Android 8.0 seeks always go to a sync frame
+      this.player.seekTo(ms);
+    }
+  }
+
+  @Override
+  public void setVolume(float volume) {
+    this.player.setVolume(volume, volume);
+  }
+
+  @Override
+  public int getCurrentPosition() {
+    return this.player.getCurrentPosition();
+  }
+
+  @Override
+  public int getDuration() {
+    return this.player.getDuration();
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return this.player.isPlaying();
+  }
+
+  @Override
+  public void setNext(@Nullable PlaybackEngine next) {
+    this.player.setNextMediaPlayer(next == null ? null : ((MediaPlayerEngine) next).player);
+  }
+
+  @Override
+  public void release() {
+    this.player.release();
+  }
+}
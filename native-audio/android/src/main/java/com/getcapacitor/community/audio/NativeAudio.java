@@ -1,24 +1,12 @@
 package com.getcapacitor.community.audio;
 
 import android.Manifest;
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.session.MediaSession;
-import android.media.session.PlaybackState;
-import android.os.Build;
-import android.os.Bundle;
+import android.content.ServiceConnection;
+import android.os.IBinder;
 import android.util.Log;
-import android.view.KeyEvent;
 
 import androidx.annotation.Nullable;
 
@@ -28,23 +16,16 @@ import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
-// Media controls tutorial
-// https://www.youtube.com/watch?v=FBC1FgWe5X4&t=10s
-
-// cordova-plugin-music-controls2 media controls file
-// https://github.com/ghenry22/cordova-plugin-music-controls2/blob/master/src/android/MusicControls.java
-// https://github.com/ghenry22/cordova-plugin-music-controls2/blob/master/src/android/MusicControlsNotification.java
-
-// https://android-developers.googleblog.com/2020/08/playing-nicely-with-media-controls.html
-// https://developer.android.com/training/notify-user/expanded#media-style
-// https://developer.android.com/training/run-background-service/create-service
-
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * The plugin is only a client of PlaybackService, which owns the player. The plugin lives and dies with the activity
+ * while the service keeps playing in the background, so every call is forwarded to the service's AudioPlayer (see
+ * there for what each method does) and the player's events are forwarded to JS while the plugin is attached.
+ *
+ * Binding is asynchronous so calls that arrive before the service is connected wait and run in order once it is.
+ */
 @SuppressWarnings("unused")
 @NativePlugin(
   permissions = {
@@ -53,488 +34,386 @@ import java.net.URL;
     Manifest.permission.READ_PHONE_STATE,
   }
 )
-public class NativeAudio extends Plugin implements AudioManager.OnAudioFocusChangeListener {
+public class NativeAudio extends Plugin {
+  private interface Command {
+    void run(AudioPlayer player);
+  }
+
+  private static class WaitingCommand {
+    // Rejected if the plugin is destroyed before the service is connected
+    @Nullable
+    final PluginCall call;
+    final Command command;
+
+    WaitingCommand(@Nullable PluginCall call, Command command) {
+      this.call = call;
+      this.command = command;
+    }
+  }
+
   private String TAG = "native-audio";
-  private MediaSession mediaSession;
-  private MediaPlayer player = new MediaPlayer();
-  private static String CHANNEL_ID = "capacitor-community-native-audio-channel-id";
-  private Info info = null;
-  private NotificationManager notificationManager;
+  // Null until the service is connected. Guarded by "waiting".
+  @Nullable
+  private AudioPlayer player = null;
+  // The commands that arrived before the service was connected
+  private final List<WaitingCommand> waiting = new ArrayList<>();
+  // Guarded by "waiting"
+  private boolean destroyed = false;
+
+  private final AudioPlayer.EventSink events = new AudioPlayer.EventSink() {
+    @Override
+    public boolean hasListeners(String eventName) {
+      return NativeAudio.this.hasListeners(eventName);
+    }
+
+    @Override
+    public void notifyListeners(String eventName, JSObject data, boolean retain) {
+      NativeAudio.this.notifyListeners(eventName, data, retain);
+    }
+  };
 
-  BroadcastReceiver receiver = new BroadcastReceiver() {
+  private final ServiceConnection connection = new ServiceConnection() {
     @Override
-    public void onReceive(Context context, Intent intent) {
-      String action = intent.getAction();
-      if (action == null) return;
-
-      Log.i(TAG, "Got INTENT:: " + action);
-
-      switch (action) {
-        case Intent.ACTION_HEADSET_PLUG:
-          int state = intent.getIntExtra("state", -1);
-          switch (state) {
-            case 0:
-              // Unplug headphones
-              notifyListeners("pause", new JSObject());
-              break;
-            case 1:
-              // Plug in headphones
-              break;
-          }
-          break;
-        case AudioManager.ACTION_AUDIO_BECOMING_NOISY:
-          pauseLogic();
-          break;
-        case Intent.ACTION_MEDIA_BUTTON:
-          // This is prior to android 5.0 (21)
-          // FIXME I think I need to update a manifest for this to work
-          handleIntent(intent);
-          break;
-        case "destroy":
-          notifyListeners("stop", new JSObject());
-          notificationManager.cancel(1234);
-          break;
-        default:
-          // action is "next", "previous", "play" and "pause"
-          notifyListeners(action, new JSObject());
-          break;
+    public void onServiceConnected(ComponentName name, IBinder binder) {
+      Log.i(TAG, "Connected to the playback service");
+      AudioPlayer player = ((PlaybackService.LocalBinder) binder).getPlayer();
+
+      synchronized (waiting) {
+        // The connection raced with handleOnDestroy. The waiting calls were already rejected.
+        if (destroyed) return;
+
+        // Set "engine" to "codec" in the NativeAudio section of the Capacitor config to use our own decoder
+        player.setUseCodecEngine("codec".equals(getConfigValue("engine")));
+        player.setEventSink(events);
+        NativeAudio.this.player = player;
+        for (WaitingCommand waitingCommand : waiting) waitingCommand.command.run(player);
+        waiting.clear();
+      }
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+      // The service runs in our process so this only happens if the process is going away
+      synchronized (waiting) {
+        player = null;
       }
     }
   };
 
-  // This is used to handle hardware buttons or bluetooth devices
-  // e.g. If I press pause using my airpods the "onMediaButtonEvent" event is triggered
-  MediaSession.Callback callback = new
-    MediaSession.Callback() {
+  @Override
+  public void load() {
+    Log.i(TAG, "LOAD");
+    super.load();
+
+    Context context = getContext();
+    context.bindService(new Intent(context, PlaybackService.class), this.connection, Context.BIND_AUTO_CREATE);
+  }
+
+  @PluginMethod
+  public void preload(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public void onPlay() {
-        playLogic();
+      public void run(AudioPlayer player) {
+        player.preload(call);
       }
+    });
+  }
 
+  @PluginMethod
+  public void preloadNext(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public void onPause() {
-        pauseLogic();
+      public void run(AudioPlayer player) {
+        player.preloadNext(call);
       }
+    });
+  }
 
+  @PluginMethod
+  public void setQueue(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public void onSkipToNext() {
-        nextLogic();
+      public void run(AudioPlayer player) {
+        player.setQueue(call);
       }
+    });
+  }
 
+  @PluginMethod
+  public void updateQueue(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public void onSkipToPrevious() {
-        previousLogic();
+      public void run(AudioPlayer player) {
+        player.updateQueue(call);
       }
+    });
+  }
 
+  @PluginMethod
+  public void prefetchHeads(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public boolean onMediaButtonEvent(@androidx.annotation.NonNull Intent intent) {
-        // This is for android >= 5.0 (21)
-        boolean result = handleIntent(intent);
-        return result || super.onMediaButtonEvent(intent);
+      public void run(AudioPlayer player) {
+        player.prefetchHeads(call);
       }
-    };
-
-  @Override
-  public void load() {
-    Log.i(TAG, "LOAD");
-    super.load();
-
-    getContext().registerReceiver(this.receiver, new IntentFilter("previous"));
-    getContext().registerReceiver(this.receiver, new IntentFilter("pause"));
-    getContext().registerReceiver(this.receiver, new IntentFilter("play"));
-    getContext().registerReceiver(this.receiver, new IntentFilter("next"));
-    getContext().registerReceiver(this.receiver, new IntentFilter("destroy"));
-    getContext().registerReceiver(this.receiver, new IntentFilter(Intent.ACTION_MEDIA_BUTTON));
-    getContext().registerReceiver(this.receiver, new IntentFilter(Intent.ACTION_HEADSET_PLUG));
-
-    this.notificationManager = (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-
-    if (Build.VERSION.SDK_INT >= 26) {
-      // The user-visible name of the channel.
-      CharSequence name = "Audio Controls";
-      // The user-visible description of the channel.
-      String description = "Control Playing Audio";
-
-      // IMPORTANCE_LOW is very important (no popup, no sound)
-      // See https://stackoverflow.com/questions/54286389/how-do-i-make-an-android-local-notification-that-doesnt-pop-up-just-shows-up-o
-      NotificationChannel channel = new NotificationChannel(NativeAudio.CHANNEL_ID, name, NotificationManager.IMPORTANCE_LOW);
-      channel.setDescription(description);
-      this.notificationManager.createNotificationChannel(channel);
-    }
-
-    final Context context = this.getContext();
-    Intent headsetIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-    PendingIntent intent = PendingIntent.getBroadcast(context, 0, headsetIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-    this.mediaSession = new MediaSession(context, "capacitor-community-native-audio");
-
-    this.mediaSession.setActive(true);
-    this.mediaSession.setCallback(this.callback);
-
-    this.player.setLooping(false);
-    this.player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+    });
+  }
 
-    // This must be registered *after* .start()
-    // See https://stackoverflow.com/questions/9998677/cannot-get-android-mediaplayer-oncompletion-to-fire
-    // Ok so the above comments seem to not be true anymore... since it works here
-    this.player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+  @PluginMethod
+  public void downloadSongs(final PluginCall call) {
+    this.send(call, new Command() {
       @Override
-      public void onCompletion(MediaPlayer mp) {
-        Log.i(TAG, "HELLO COMPLETE");
-        notifyListeners("complete", new JSObject());
+      public void run(AudioPlayer player) {
+        player.downloadSongs(call);
       }
     });
-
-    AudioManager audioManager = (AudioManager)
-      getContext()
-      .getSystemService(Context.AUDIO_SERVICE);
-
-    int result = audioManager.requestAudioFocus(
-      this,
-      AudioManager.STREAM_MUSIC,
-      AudioManager.AUDIOFOCUS_GAIN
-    );
-
-    if (result == AudioManager.AUDIOFOCUS_GAIN) {
-      Log.i(TAG, "Gained audio focus...");
-    } else {
-      Log.i(TAG, "Failed to gain audio focus...");
-    }
   }
 
-  /**
-   * This method will load more optimized audio files for background into memory.
-   */
   @PluginMethod
-  public void preload(final PluginCall call) {
-    Log.i(TAG, "preload: " + call.getData().toString());
-
-    final String url = call.getString("path");
-    if (url == null) {
-      call.error("url is required");
-      return;
-    }
-
-    final String title = call.getString("title", "Unknown Title");
-    final String artist = call.getString("artist", "Unknown Artist");
-    final String album = call.getString("album", "Unknown Album");
-    final String cover = call.getString("cover");
-    final float volume = call.getFloat("volume", 1.0f);
-    this.info = new Info(title, artist, cover, album);
-
-    new Thread(
-      new Runnable() {
-        @Override
-        public void run() {
-          player.setVolume(volume, volume);
-
-          try {
-            player.reset();
-            Log.i(TAG, "PREPARE!!!");
-            player.setDataSource(url);
-            player.prepare();
-          } catch (IOException e) {
-            e.printStackTrace();
-            call.error(e.getMessage());
-            return;
-          }
-          call.success();
-        }
+  public void cancelDownloads(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.cancelDownloads(call);
       }
-    ).start();
+    });
   }
 
-  /**
-   * This method will play the loaded audio file if present in the memory.
-   */
   @PluginMethod
   public void play(final PluginCall call) {
-    this.playLogic();
-    call.success();
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.play(call);
+      }
+    });
   }
 
-  /**
-   * This method will pause the audio file during playback.
-   */
   @PluginMethod
-  public void pause(PluginCall call) {
-    this.pauseLogic();
-    call.success();
+  public void pause(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.pause(call);
+      }
+    });
   }
 
-  /**
-   * This method will return the current time of the audio file
-   */
   @PluginMethod
   public void getCurrentTime(final PluginCall call) {
-    final double position = this.player.getCurrentPosition();
-    call.success(new JSObject().put("currentTime", position / 1000));
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.getCurrentTime(call);
+      }
+    });
   }
 
-  /**
-   * This method will return the duration of the audio file
-   */
   @PluginMethod
   public void getDuration(final PluginCall call) {
-    final double duration = this.player.getDuration();
-    call.success(new JSObject().put("duration", duration / 1000));
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.getDuration(call);
+      }
+    });
   }
 
-  /**
-   * This method will stop the audio file during playback.
-   */
   @PluginMethod
-  public void stop(PluginCall call) {
-    this.player.stop();
-    call.success();
+  public void getState(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.getState(call);
+      }
+    });
   }
 
-  /**
-   * This method will adjust volume to specified value
-   */
   @PluginMethod
-  public void setVolume(PluginCall call) {
-    final float value = call.getFloat("volume", 1.0f);
-    this.player.setVolume(value, value);
-    call.success();
+  public void stop(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.stop(call);
+      }
+    });
   }
 
   @PluginMethod
-  public void clearCache(PluginCall call) {
-    // Nothing to do yet
-    call.success();
+  public void setVolume(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setVolume(call);
+      }
+    });
   }
 
   @PluginMethod
-  public void setCurrentTime(PluginCall call) {
-    final double currentTime = call.getDouble("currentTime", 0.0);
-    // seconds -> milliseconds
-    this.player.seekTo((int) currentTime * 1000);
-    call.success();
+  public void clearCache(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.clearCache(call);
+      }
+    });
   }
 
-
-  @Override
-  public void onAudioFocusChange(int focusChange) {
-//    if (focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT) {} else if (
-//            focusChange == AudioManager.AUDIOFOCUS_GAIN
-//    ) {} else if (focusChange == AudioManager.AUDIOFOCUS_LOSS) {}
-    Log.i(TAG, "Audio focus change state: " + focusChange);
-  }
-
-  private void setMediaPlaybackState(int state) {
-    Log.i(TAG, "setMediaPlaybackState: " + state);
-    PlaybackState.Builder builder = new PlaybackState.Builder();
-    if(state == PlaybackState.STATE_PLAYING ) {
-      builder.setActions(
-        PlaybackState.ACTION_PLAY_PAUSE |
-        PlaybackState.ACTION_PAUSE |
-        PlaybackState.ACTION_SKIP_TO_NEXT |
-        PlaybackState.ACTION_SKIP_TO_PREVIOUS
-      );
-
-      builder.setState(state, PlaybackState.PLAYBACK_POSITION_UNKNOWN, 1.0f);
-    } else {
-      builder.setActions(
-        PlaybackState.ACTION_PLAY_PAUSE |
-        PlaybackState.ACTION_PLAY |
-        PlaybackState.ACTION_SKIP_TO_NEXT |
-        PlaybackState.ACTION_SKIP_TO_PREVIOUS
-      );
-
-      builder.setState(state, PlaybackState.PLAYBACK_POSITION_UNKNOWN, 0);
-    }
-
-    this.mediaSession.setPlaybackState(builder.build());
-  }
-
-  private void setNotification(int state) {
-    if (this.info == null) return;
-
-    // Swipe to dismiss intent
-    Intent dismissIntent = new Intent("destroy");
-    PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(getContext(), 1, dismissIntent, 0);
-
-    // Tap to open intent
-    Intent resultIntent = new Intent(getContext(), getContext().getClass()); // FIXME IDK if the second arg is right
-    resultIntent.setAction(Intent.ACTION_MAIN);
-    resultIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-    PendingIntent resultPendingIntent = PendingIntent.getActivity(getContext(), 0, resultIntent, 0);
-    Notification.MediaStyle style = new Notification.MediaStyle()
-            .setShowActionsInCompactView(1);
-    // FIXME why does this break things?
-//            .setMediaSession(this.mediaSession.getSessionToken());
-
-    Notification.Builder builder = new Notification.Builder(getContext())
-            .setStyle(style)
-            .setContentTitle(this.info.title)
-            .setContentText(this.info.artist + " - " + this.info.album)
-            .setWhen(0)
-            .setOngoing(false)
-            .setDeleteIntent(dismissPendingIntent)
-            .setPriority(Notification.PRIORITY_MAX) // Note this is deprecated now
-            .setContentIntent(resultPendingIntent)
-            .setTicker(null);
-
-    if (Build.VERSION.SDK_INT >= 26) {
-      builder.setChannelId(NativeAudio.CHANNEL_ID);
-    }
-
-    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP){
-      builder.setVisibility(Notification.VISIBILITY_PUBLIC);
-    }
-
-    Bitmap bitmap;
-    if (this.info.cover != null) {
-      bitmap = getBitmapFromURL(this.info.cover);
-      builder.setLargeIcon(bitmap);
-    }
-
-    if (state == PlaybackState.STATE_PLAYING){
-      builder.setSmallIcon(android.R.drawable.ic_media_play);
-    } else {
-      builder.setSmallIcon(android.R.drawable.ic_media_pause);
-    }
-
-    // The intent action names must match the capacitor event names
-    // Previous intent
-    Intent previousIntent = new Intent("previous");
-    PendingIntent previousPendingIntent = PendingIntent.getBroadcast(getContext(), 1, previousIntent, 0);
-    builder.addAction(android.R.drawable.ic_media_previous, "Previous", previousPendingIntent);
-
-    if (state == PlaybackState.STATE_PLAYING) {
-      Intent pauseIntent = new Intent("pause");
-      PendingIntent pausePendingIntent = PendingIntent.getBroadcast(getContext(), 1, pauseIntent, 0);
-      builder.addAction(android.R.drawable.ic_media_pause, "Pause", pausePendingIntent);
-    } else {
-      Intent playIntent = new Intent("play");
-      PendingIntent playPendingIntent = PendingIntent.getBroadcast(getContext(), 1, playIntent, 0);
-      builder.addAction(android.R.drawable.ic_media_play, "Play", playPendingIntent);
-    }
-
-    Intent nextIntent = new Intent("next");
-    PendingIntent nextPendingIntent = PendingIntent.getBroadcast(getContext(), 1, nextIntent, 0);
-    builder.addAction(android.R.drawable.ic_media_next, "Next", nextPendingIntent);
-
-    Log.i(TAG, "Sending out notification!!");
-    Notification notification = builder.build();
-    this.notificationManager.notify(1234, notification);
-  }
-
-  private Bitmap getBitmapFromURL(String strURL) {
-    try {
-      URL url = new URL(strURL);
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-      connection.setDoInput(true);
-      connection.connect();
-      InputStream input = connection.getInputStream();
-      return BitmapFactory.decodeStream(input);
-    } catch (Exception ex) {
-      notifyListeners("error", new JSObject().put("message", ex.getMessage()));
-      ex.printStackTrace();
-      return null;
-    }
+  @PluginMethod
+  public void setCacheSize(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setCacheSize(call);
+      }
+    });
   }
 
-  private boolean handleIntent(Intent intent) {
-    Bundle extras = intent.getExtras();
-    if (extras == null) {
-      return false;
-    }
-
-    final KeyEvent event = (KeyEvent) extras.get(Intent.EXTRA_KEY_EVENT);
+  @PluginMethod
+  public void setTimeUpdateInterval(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setTimeUpdateInterval(call);
+      }
+    });
+  }
 
-    if (event == null) {
-      return false;
-    }
+  @PluginMethod
+  public void setCrossfade(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setCrossfade(call);
+      }
+    });
+  }
 
-    if (event.getAction() != KeyEvent.ACTION_DOWN) {
-      return false;
-    }
+  @PluginMethod
+  public void getWaveform(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.getWaveform(call);
+      }
+    });
+  }
 
-    final int keyCode = event.getKeyCode();
-    switch (keyCode) {
-      case KeyEvent.KEYCODE_MEDIA_PAUSE:
-        notifyListeners("pause", new JSObject());
-        break;
-      case KeyEvent.KEYCODE_MEDIA_PLAY:
-        notifyListeners("play", new JSObject());
-        break;
-      case KeyEvent.KEYCODE_MEDIA_PREVIOUS:
-        this.previousLogic();
-        break;
-      case KeyEvent.KEYCODE_MEDIA_NEXT:
-        this.nextLogic();
-        break;
-      case KeyEvent.KEYCODE_HEADSETHOOK:
-      case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE:
-        // FIXME what causes this??
-        // FIXME handle
-        notifyListeners("toggle", new JSObject());
-        break;
-      default:
-        return false;
-    }
+  @PluginMethod
+  public void getMetrics(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.getMetrics(call);
+      }
+    });
+  }
 
-    return true;
+  @PluginMethod
+  public void beginScrub(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.beginScrub(call);
+      }
+    });
   }
 
-  private void pauseLogic() {
-    this.player.pause();
-    this.setMediaPlaybackState(PlaybackState.STATE_PAUSED);
-    this.setNotification(PlaybackState.STATE_PAUSED);
+  @PluginMethod
+  public void updateScrub(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.updateScrub(call);
+      }
+    });
   }
 
-  private void playLogic() {
-    this.player.start();
-    Log.i(TAG, "PLAY LOGIC");
-    this.setMediaPlaybackState(PlaybackState.STATE_PLAYING);
-    this.setNotification(PlaybackState.STATE_PLAYING);
+  @PluginMethod
+  public void endScrub(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.endScrub(call);
+      }
+    });
   }
 
-  private void previousLogic() {
-    notifyListeners("previous", new JSObject());
+  @PluginMethod
+  public void setMetricsInterval(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setMetricsInterval(call);
+      }
+    });
   }
 
-  private void nextLogic() {
-    notifyListeners("next", new JSObject());
+  @PluginMethod
+  public void setCurrentTime(final PluginCall call) {
+    this.send(call, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setCurrentTime(call);
+      }
+    });
   }
 
   @Override
   protected void handleOnDestroy() {
     Log.i(TAG, "HANDLE ON DESTROY");
     super.handleOnDestroy();
-  }
 
-  @Override
-  protected void handleOnRestart() {
-    Log.i(TAG, "HANDLE ON RESTART");
-    super.handleOnRestart();
+    // The player keeps going in the service. A new instance of the plugin attaches to it with the next activity.
+    synchronized (this.waiting) {
+      this.destroyed = true;
+      for (WaitingCommand waitingCommand : this.waiting) {
+        if (waitingCommand.call != null) waitingCommand.call.reject("Plugin destroyed");
+      }
+      this.waiting.clear();
+      if (this.player != null) this.player.detach();
+      this.player = null;
+    }
+    getContext().unbindService(this.connection);
   }
 
   @Override
   protected void handleOnPause() {
     Log.i(TAG, "HANDLE ON PAUSE");
     super.handleOnPause();
+    this.send(null, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setForeground(false);
+      }
+    });
   }
 
   @Override
   protected void handleOnResume() {
     Log.i(TAG, "HANDLE ON RESUME");
     super.handleOnResume();
+    this.send(null, new Command() {
+      @Override
+      public void run(AudioPlayer player) {
+        player.setForeground(true);
+      }
+    });
   }
-}
-
-class Info {
-  String title;
-  String artist;
-  String album;
-  @Nullable
-  String cover;
 
-  Info(@Nullable String title, @Nullable String artist, @Nullable String cover, @Nullable String album) {
-    this.title = title != null ? title :  "Unknown Title";
-    this.artist = artist != null ? artist : "Unknown Artist";
-    this.album = album != null ? album : "Unknown Album";
-    this.cover = cover;
+  /**
+   * Run the command now if the service is connected or once it is. "call" is rejected if the plugin is destroyed
+   * before then.
+   */
+  private void send(@Nullable PluginCall call, Command command) {
+    synchronized (this.waiting) {
+      if (this.destroyed) {
+        if (call != null) call.reject("Plugin destroyed");
+      } else if (this.player == null) {
+        this.waiting.add(new WaitingCommand(call, command));
+      } else {
+        command.run(this.player);
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+package com.getcapacitor.community.audio;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Posts the media notification. Android throttles apps that post too often (and silently drops the extra
+ * notifications) so updates that arrive within UPDATE_WINDOW of the last post are merged into a single post and
+ * nothing is posted unless something visible changed. Everything here must run on the handler's thread.
+ */
+class NotificationRenderer {
+  interface Listener {
+    /**
+     * Called on the handler's thread after every post. PlaybackService uses this to run in the foreground while
+     * playing.
+     */
+    void onPosted(Notification notification, boolean playing);
+
+    void onCancelled();
+  }
+
+  static final int NOTIFICATION_ID = 1234;
+  private static final String TAG = "native-audio";
+  // Android allows roughly 5 updates per second
+  private static final long UPDATE_WINDOW = 250;
+
+  private final Context context;
+  private final NotificationManager manager;
+  private final String channelId;
+  private final Handler handler;
+  private final Histogram renderTimes;
+  private final Listener listener;
+
+  // These never change so they are only created once
+  private final PendingIntent dismissIntent;
+  private final PendingIntent contentIntent;
+  private final PendingIntent previousIntent;
+  private final PendingIntent pauseIntent;
+  private final PendingIntent playIntent;
+  private final PendingIntent nextIntent;
+
+  // What should be shown
+  private Info info = null;
+  private boolean playing = false;
+  @Nullable
+  private Bitmap cover = null;
+
+  // What is currently shown
+  private Info renderedInfo = null;
+  private boolean renderedPlaying = false;
+  @Nullable
+  private Bitmap renderedCover = null;
+
+  private long lastPost = 0;
+  private boolean scheduled = false;
+
+  private final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      scheduled = false;
+      render();
+    }
+  };
+
+  NotificationRenderer(
+    Context context,
+    NotificationManager manager,
+    String channelId,
+    Handler handler,
+    Histogram renderTimes,
+    Listener listener
+  ) {
+    this.context = context;
+    this.manager = manager;
+    this.channelId = channelId;
+    this.handler = handler;
+    this.renderTimes = renderTimes;
+    this.listener = listener;
+
+    // Swipe to dismiss intent
+    this.dismissIntent = PendingIntent.getBroadcast(context, 1, new Intent("destroy"), 0);
+
+    // Tap to open intent. "context" is PlaybackService so the app's launcher activity is looked up.
+    Intent resultIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+    if (resultIntent == null) {
+      resultIntent = new Intent(Intent.ACTION_MAIN);
+      resultIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+      resultIntent.setPackage(context.getPackageName());
+    }
+    this.contentIntent = PendingIntent.getActivity(context, 0, resultIntent, 0);
+
+    // The intent action names must match the capacitor event names
+    this.previousIntent = PendingIntent.getBroadcast(context, 1, new Intent("previous"), 0);
+    this.pauseIntent = PendingIntent.getBroadcast(context, 1, new Intent("pause"), 0);
+    this.playIntent = PendingIntent.getBroadcast(context, 1, new Intent("play"), 0);
+    this.nextIntent = PendingIntent.getBroadcast(context, 1, new Intent("next"), 0);
+  }
+
+  /**
+   * Show the song. The notification is posted right away unless it was posted less than UPDATE_WINDOW ago in which
+   * case it's posted at the end of the window with whatever the latest state is by then.
+   */
+  void update(Info info, boolean playing, @Nullable Bitmap cover) {
+    this.info = info;
+    this.playing = playing;
+    this.cover = cover;
+
+    if (this.scheduled) return;
+    long wait = this.lastPost + UPDATE_WINDOW - SystemClock.uptimeMillis();
+    if (wait <= 0) {
+      this.render();
+    } else {
+      this.scheduled = true;
+      this.handler.postDelayed(this.flush, wait);
+    }
+  }
+
+  void cancel() {
+    this.handler.removeCallbacks(this.flush);
+    this.scheduled = false;
+    this.info = null;
+    this.renderedInfo = null;
+    this.renderedCover = null;
+    this.manager.cancel(NOTIFICATION_ID);
+    this.listener.onCancelled();
+  }
+
+  private void render() {
+    if (this.info == null) return;
+
+    // Songs are always represented by the same Info so comparing the references is enough
+    if (this.info == this.renderedInfo && this.playing == this.renderedPlaying && this.cover == this.renderedCover) {
+      return;
+    }
+
+    long start = SystemClock.elapsedRealtime();
+    Notification.MediaStyle style = new Notification.MediaStyle()
+            .setShowActionsInCompactView(1);
+    // FIXME why does this break things?
+//            .setMediaSession(this.mediaSession.getSessionToken());
+
+    Notification.Builder builder = new Notification.Builder(this.context)
+            .setStyle(style)
+            .setContentTitle(this.info.title)
+            .setContentText(this.info.artist + " - " + this.info.album)
+            .setWhen(0)
+            .setOngoing(false)
+            .setDeleteIntent(this.dismissIntent)
+            .setPriority(Notification.PRIORITY_MAX) // Note this is deprecated now
+            .setContentIntent(this.contentIntent)
+            .setTicker(null);
+
+    if (Build.VERSION.SDK_INT >= 26) {
+      builder.setChannelId(this.channelId);
+    }
+
+    builder.setVisibility(Notification.VISIBILITY_PUBLIC);
+
+    if (this.cover != null) {
+      builder.setLargeIcon(this.cover);
+    }
+
+    builder.setSmallIcon(this.playing ? android.R.drawable.ic_media_play : android.R.drawable.ic_media_pause);
+    builder.addAction(android.R.drawable.ic_media_previous, "Previous", this.previousIntent);
+    if (this.playing) {
+      builder.addAction(android.R.drawable.ic_media_pause, "Pause", this.pauseIntent);
+    } else {
+      builder.addAction(android.R.drawable.ic_media_play, "Play", this.playIntent);
+    }
+    builder.addAction(android.R.drawable.ic_media_next, "Next", this.nextIntent);
+
+    Log.i(TAG, "Sending out notification!!");
+    Notification notification = builder.build();
+    this.manager.notify(NOTIFICATION_ID, notification);
+    this.listener.onPosted(notification, this.playing);
+    this.renderTimes.record(SystemClock.elapsedRealtime() - start);
+    this.lastPost = SystemClock.uptimeMillis();
+    this.renderedInfo = this.info;
+    this.renderedPlaying = this.playing;
+    this.renderedCover = this.cover;
+  }
+}
@@ -0,0 +1,85 @@
+package com.getcapacitor.community.audio;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ordered list of songs and the index of the song that is currently loaded. This lets the plugin move between
+ * songs without waiting on JS (which is throttled when the screen is off).
+ */
+class PlayQueue {
+  static class Track {
+    final String url;
+    @Nullable
+    final String songId;
+    final Info info;
+
+    Track(String url, @Nullable String songId, Info info) {
+      this.url = url;
+      this.songId = songId;
+      this.info = info;
+    }
+
+    /**
+     * A song as JS gives it to preload, preloadNext and setQueue.
+     */
+    static Track parse(JSONObject data) {
+      Info info = new Info(
+        data.optString("title", "Unknown Title"),
+        data.optString("artist", "Unknown Artist"),
+        data.has("cover") ? data.optString("cover") : null,
+        data.optString("album", "Unknown Album")
+      );
+
+      return new Track(data.optString("path"), data.has("songId") ? data.optString("songId") : null, info);
+    }
+  }
+
+  private final List<Track> tracks;
+  private int index;
+
+  PlayQueue(List<Track> tracks, int index) {
+    this.tracks = new ArrayList<>(tracks);
+    this.index = index;
+  }
+
+  int getIndex() {
+    return this.index;
+  }
+
+  int size() {
+    return this.tracks.size();
+  }
+
+  List<Track> getTracks() {
+    return Collections.unmodifiableList(this.tracks);
+  }
+
+  @Nullable
+  Track current() {
+    return this.peek(0);
+  }
+
+  /**
+   * Returns the track that is "offset" songs away from the current song or null if that's outside of the queue.
+   */
+  @Nullable
+  Track peek(int offset) {
+    int i = this.index + offset;
+    return i >= 0 && i < this.tracks.size() ? this.tracks.get(i) : null;
+  }
+
+  /**
+   * Move by "offset" songs. Returns false (and doesn't move) if that's outside of the queue.
+   */
+  boolean move(int offset) {
+    if (this.peek(offset) == null) return false;
+    this.index += offset;
+    return true;
+  }
+}
@@ -0,0 +1,79 @@
+package com.getcapacitor.community.audio;
+
+import android.media.MediaDataSource;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+
+/**
+ * Something that can play one song at a time. The methods follow the MediaPlayer state machine (reset ->
+ * setDataSource -> prepareAsync -> start/pause/seekTo) since that's what the plugin was written against. Every
+ * method must be called on the player thread and the listener is called on the player thread too.
+ */
+interface PlaybackEngine {
+  interface Listener {
+    void onPrepared(PlaybackEngine engine);
+
+    void onCompletion(PlaybackEngine engine);
+
+    void onBufferingUpdate(PlaybackEngine engine, int percent);
+
+    void onSeekComplete(PlaybackEngine engine);
+
+    /**
+     * Playback stopped because the engine ran out of data.
+     */
+    void onStall(PlaybackEngine engine);
+
+    /**
+     * The engine can't be used again until it's reset.
+     */
+    void onError(PlaybackEngine engine, String message);
+  }
+
+  void setListener(Listener listener);
+
+  void reset();
+
+  /**
+   * A file path or a URL.
+   */
+  void setDataSource(String path) throws IOException;
+
+  @RequiresApi(23)
+  void setDataSource(MediaDataSource source) throws IOException;
+
+  void prepareAsync();
+
+  void start();
+
+  void pause();
+
+  void stop();
+
+  /**
+   * When "exact" is false the engine may jump to the sync frame before "ms" instead, which is much faster (e.g. while
+   * the user drags the seek bar).
+   */
+  void seekTo(int ms, boolean exact);
+
+  void setVolume(float volume);
+
+  int getCurrentPosition();
+
+  /**
+   * Returns -1 if the duration isn't known.
+   */
+  int getDuration();
+
+  boolean isPlaying();
+
+  /**
+   * Start "next" as soon as this engine finishes its song. "next" is always the same kind of engine.
+   */
+  void setNext(@Nullable PlaybackEngine next);
+
+  void release();
+}
@@ -0,0 +1,114 @@
+package com.getcapacitor.community.audio;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * How long the things that users wait on take (starting a song, seeking, loading covers, etc.) and how often
+ * playback stalls or fails. Nothing here allocates until the numbers are read with toJSObject.
+ */
+class PlaybackMetrics {
+  // preload -> prepared
+  final Histogram preload = new Histogram();
+  // play -> the position starts moving
+  final Histogram firstAudio = new Histogram();
+  // seek -> seek complete
+  final Histogram seek = new Histogram();
+  final Histogram cover = new Histogram();
+  final Histogram notification = new Histogram();
+
+  // How long creating the AudioPlayer (when the plugin loads) and AudioPlayer.setUp took (-1 if they haven't run).
+  // These are only measured once so they aren't reset.
+  private long loadTime = -1;
+  private long setUpTime = -1;
+
+  private long stalls = 0;
+  private long errors = 0;
+
+  // When the operations that are in progress started (-1 if nothing is in progress)
+  private long preloadStart = -1;
+  private long playStart = -1;
+  private long seekStart = -1;
+
+  static long now() {
+    return SystemClock.elapsedRealtime();
+  }
+
+  synchronized void preloadStarted() {
+    this.preloadStart = now();
+  }
+
+  synchronized void prepared() {
+    if (this.preloadStart == -1) return;
+    this.preload.record(now() - this.preloadStart);
+    this.preloadStart = -1;
+  }
+
+  synchronized void playStarted() {
+    this.playStart = now();
+  }
+
+  synchronized void audioStarted() {
+    if (this.playStart == -1) return;
+    this.firstAudio.record(now() - this.playStart);
+    this.playStart = -1;
+  }
+
+  synchronized void seekStarted() {
+    this.seekStart = now();
+  }
+
+  synchronized void seekCompleted() {
+    if (this.seekStart == -1) return;
+    this.seek.record(now() - this.seekStart);
+    this.seekStart = -1;
+  }
+
+  /**
+   * Forget about whatever is in progress (e.g. when a song is unloaded before it's prepared).
+   */
+  synchronized void cancel() {
+    this.preloadStart = -1;
+    this.playStart = -1;
+    this.seekStart = -1;
+  }
+
+  synchronized void loaded(long time) {
+    this.loadTime = time;
+  }
+
+  synchronized void setUp(long time) {
+    this.setUpTime = time;
+  }
+
+  synchronized void stalled() {
+    this.stalls++;
+  }
+
+  synchronized void failed() {
+    this.errors++;
+  }
+
+  synchronized JSObject toJSObject() {
+    return new JSObject()
+      .put("preload", this.preload.toJSObject())
+      .put("firstAudio", this.firstAudio.toJSObject())
+      .put("seek", this.seek.toJSObject())
+      .put("cover", this.cover.toJSObject())
+      .put("notification", this.notification.toJSObject())
+      .put("stalls", this.stalls)
+      .put("errors", this.errors)
+      .put("startup", new JSObject().put("load", this.loadTime).put("setUp", this.setUpTime));
+  }
+
+  synchronized void reset() {
+    this.preload.reset();
+    this.firstAudio.reset();
+    this.seek.reset();
+    this.cover.reset();
+    this.notification.reset();
+    this.stalls = 0;
+    this.errors = 0;
+  }
+}
@@ -0,0 +1,185 @@
+package com.getcapacitor.community.audio;
+
+import android.app.Notification;
+import android.content.Intent;
+import android.media.session.MediaSession;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.media.MediaBrowserServiceCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Owns the AudioPlayer so that playback doesn't depend on the activity. The plugin binds to this service and talks to
+ * the player directly (it's in the same process). While a song is playing the service is started and runs in the
+ * foreground with the notification, so Android keeps the process around after the activity is destroyed. Once the
+ * notification is dismissed the service stops and is destroyed when the last client unbinds.
+ *
+ * It's also a media browser service so Android Auto, Bluetooth devices, etc. can browse the queue and control
+ * playback through the media session without starting the WebView.
+ */
+public class PlaybackService extends MediaBrowserServiceCompat implements AudioPlayer.Host {
+  private static final String TAG = "native-audio";
+  // The only folder there is. Its children are the songs in the queue.
+  private static final String ROOT_ID = "root";
+  // The apps besides our own and the system that may browse the queue and control playback. MediaBrowserServiceCompat
+  // already checks that the package belongs to the calling uid.
+  private static final Set<String> TRUSTED_PACKAGES = new HashSet<>(Arrays.asList(
+    "com.android.systemui",
+    "com.android.bluetooth",
+    // Android Auto
+    "com.google.android.projection.gearhead",
+    // Android Automotive
+    "com.android.car.media",
+    // Wear OS
+    "com.google.android.wearable.app",
+    // Google Assistant
+    "com.google.android.googlequicksearchbox"
+  ));
+
+  class LocalBinder extends Binder {
+    AudioPlayer getPlayer() {
+      return player;
+    }
+  }
+
+  private final IBinder binder = new LocalBinder();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private AudioPlayer player;
+  // Whether the service was started (rather than only bound) so that it outlives the activity. Only touched on the
+  // player thread.
+  private boolean started = false;
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    Log.i(TAG, "Creating the playback service");
+    this.player = new AudioPlayer(this, this);
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    // Media browsers connect with the MediaBrowserService protocol, the plugin gets the player directly
+    if (SERVICE_INTERFACE.equals(intent.getAction())) return super.onBind(intent);
+    return this.binder;
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    // This is only started to keep it running during playback. If the process is killed there is nothing to resume.
+    return START_NOT_STICKY;
+  }
+
+  @Override
+  public void onDestroy() {
+    Log.i(TAG, "Destroying the playback service");
+    this.player.destroy();
+    super.onDestroy();
+  }
+
+  @Nullable
+  @Override
+  public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+    // Anyone else could read the queue and control playback through the session
+    if (!isTrusted(clientPackageName, clientUid)) {
+      Log.w(TAG, "Refusing media browser connection from " + clientPackageName);
+      return null;
+    }
+
+    // The session is normally created when the first song is loaded. The browser's connection completes once the
+    // session token is set.
+    this.player.prepareSession();
+    return new BrowserRoot(ROOT_ID, null);
+  }
+
+  private static boolean isTrusted(String packageName, int uid) {
+    return uid == Process.myUid() || uid == Process.SYSTEM_UID || TRUSTED_PACKAGES.contains(packageName);
+  }
+
+  @Override
+  public void onLoadChildren(@NonNull String parentId, @NonNull final Result<List<MediaBrowserCompat.MediaItem>> result) {
+    if (!ROOT_ID.equals(parentId)) {
+      result.sendResult(new ArrayList<MediaBrowserCompat.MediaItem>());
+      return;
+    }
+
+    result.detach();
+    this.player.loadQueue(new AudioPlayer.QueueCallback() {
+      @Override
+      public void onQueue(List<PlayQueue.Track> tracks, int index) {
+        List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(tracks.size());
+        for (int i = 0; i < tracks.size(); i++) {
+          Info info = tracks.get(i).info;
+          MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+            .setMediaId(AudioPlayer.QUEUE_MEDIA_ID + i)
+            .setTitle(info.title)
+            .setSubtitle(info.artist + " - " + info.album)
+            .build();
+          items.add(new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+        }
+        result.sendResult(items);
+      }
+    });
+  }
+
+  @Override
+  public void onSessionCreated(final MediaSession session) {
+    final MediaSession.Token token = session.getSessionToken();
+    this.mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        // The token can only be set once and the session lives as long as the player
+        if (getSessionToken() == null) setSessionToken(MediaSessionCompat.Token.fromToken(token));
+      }
+    });
+  }
+
+  @Override
+  public void onQueueChanged() {
+    this.mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        notifyChildrenChanged(ROOT_ID);
+      }
+    });
+  }
+
+  @Override
+  public void onPosted(Notification notification, boolean playing) {
+    if (playing) {
+      if (!this.started) {
+        ContextCompat.startForegroundService(this, new Intent(this, PlaybackService.class));
+        this.started = true;
+      }
+      this.startForeground(NotificationRenderer.NOTIFICATION_ID, notification);
+    } else {
+      // Keep the notification but let Android reclaim the service while paused
+      this.stopForeground(false);
+    }
+  }
+
+  @Override
+  public void onCancelled() {
+    this.stopForeground(true);
+    if (this.started) {
+      this.started = false;
+      this.stopSelf();
+    }
+  }
+}
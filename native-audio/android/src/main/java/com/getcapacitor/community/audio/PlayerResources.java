@@ -0,0 +1,165 @@
+package com.getcapacitor.community.audio;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.media.session.MediaSession;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the native resources that the plugin holds once something is loaded: the broadcast receiver, the media
+ * session, the players and audio focus. "acquire" and "release" can be called any number of times and "release"
+ * always leaves nothing behind, which matters because the plugin is created again every time the activity is.
+ * Everything here must run on the player thread.
+ */
+class PlayerResources {
+  interface EngineFactory {
+    PlaybackEngine create();
+  }
+
+  private static final String TAG = "native-audio";
+
+  private final Context context;
+  private final Handler handler;
+  private final BroadcastReceiver receiver;
+  private final IntentFilter filter;
+  private final MediaSession.Callback callback;
+  private final AudioManager.OnAudioFocusChangeListener focusListener;
+  private final EngineFactory factory;
+
+  private boolean acquired = false;
+  @Nullable
+  private MediaSession mediaSession = null;
+  // Every engine that was created since "acquire" so that none of them can be forgotten
+  private final List<PlaybackEngine> engines = new ArrayList<>();
+  private boolean hasFocus = false;
+  // Android 8.0+. Created once so that abandoning it matches the request.
+  @Nullable
+  private AudioFocusRequest focusRequest = null;
+
+  PlayerResources(
+    Context context,
+    Handler handler,
+    BroadcastReceiver receiver,
+    IntentFilter filter,
+    MediaSession.Callback callback,
+    AudioManager.OnAudioFocusChangeListener focusListener,
+    EngineFactory factory
+  ) {
+    this.context = context;
+    this.handler = handler;
+    this.receiver = receiver;
+    this.filter = filter;
+    this.callback = callback;
+    this.focusListener = focusListener;
+    this.factory = factory;
+  }
+
+  void acquire() {
+    if (this.acquired) return;
+    this.acquired = true;
+
+    this.context.registerReceiver(this.receiver, this.filter);
+
+    this.mediaSession = new MediaSession(this.context, "capacitor-community-native-audio");
+    this.mediaSession.setActive(true);
+    // Deliver the callbacks on the player thread so that they can use the players directly
+    this.mediaSession.setCallback(this.callback, this.handler);
+  }
+
+  boolean isAcquired() {
+    return this.acquired;
+  }
+
+  @Nullable
+  MediaSession getMediaSession() {
+    return this.mediaSession;
+  }
+
+  PlaybackEngine createEngine() {
+    PlaybackEngine engine = this.factory.create();
+    this.engines.add(engine);
+    return engine;
+  }
+
+  int getEngineCount() {
+    return this.engines.size();
+  }
+
+  /**
+   * Ask the other apps to stop playing. Returns true if they will. On Android 8.0+, focus changes are delivered on the
+   * handler.
+   */
+  boolean requestAudioFocus() {
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    int result;
+    if (Build.VERSION.SDK_INT >= 26) {
+      if (this.focusRequest == null) {
+        AudioAttributes attributes = new AudioAttributes.Builder()
+          .setUsage(AudioAttributes.USAGE_MEDIA)
+          .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+          .build();
+        this.focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+          .setAudioAttributes(attributes)
+          // We duck ourselves (with a ramp) rather than letting the system do it
+          .setWillPauseWhenDucked(true)
+          .setOnAudioFocusChangeListener(this.focusListener, this.handler)
+          .build();
+      }
+      result = audioManager.requestAudioFocus(this.focusRequest);
+    } else {
+      result = audioManager.requestAudioFocus(this.focusListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+    }
+    // A failed request (e.g. during a call) doesn't take away focus we already have, which still has to be abandoned
+    if (result != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) return false;
+    this.hasFocus = true;
+    return true;
+  }
+
+  void abandonAudioFocus() {
+    if (!this.hasFocus) return;
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    if (this.focusRequest != null) {
+      audioManager.abandonAudioFocusRequest(this.focusRequest);
+    } else {
+      audioManager.abandonAudioFocus(this.focusListener);
+    }
+    this.hasFocus = false;
+  }
+
+  void release() {
+    for (PlaybackEngine engine : this.engines) {
+      try {
+        engine.release();
+      } catch (RuntimeException e) {
+        // Keep going so that one broken player doesn't leak the rest
+        Log.w(TAG, "Unable to release a player", e);
+      }
+    }
+    this.engines.clear();
+
+    this.abandonAudioFocus();
+
+    if (this.mediaSession != null) {
+      this.mediaSession.setCallback(null);
+      this.mediaSession.setActive(false);
+      this.mediaSession.release();
+      this.mediaSession = null;
+    }
+
+    if (this.acquired) {
+      this.context.unregisterReceiver(this.receiver);
+      this.acquired = false;
+    }
+  }
+}
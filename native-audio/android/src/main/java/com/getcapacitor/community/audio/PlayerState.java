@@ -0,0 +1,127 @@
+package com.getcapacitor.community.audio;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Locale;
+
+/**
+ * An immutable snapshot of the playback state. Only the player thread creates these (see AudioPlayer.publishState)
+ * and it publishes them through an AtomicReference so any thread can answer "where are we" instantly without touching
+ * the players, which aren't thread safe and throw in some states (e.g. while preparing).
+ *
+ * The position is stored along with when it was read so that the current position can be extrapolated while playing
+ * instead of publishing a new snapshot every few milliseconds.
+ */
+final class PlayerState {
+  enum Status {
+    // Nothing is loaded (or playback was stopped)
+    IDLE,
+    // A song is preparing
+    LOADING,
+    PAUSED,
+    PLAYING,
+    // The last song finished and there is nothing after it
+    ENDED,
+    // The song failed to load or play
+    ERROR,
+  }
+
+  static final PlayerState INITIAL = new PlayerState(Status.IDLE, null, null, -1, 0, 0, -1, 0);
+
+  final Status status;
+  @Nullable
+  final String songId;
+  @Nullable
+  final Info info;
+  // The position in the queue or -1 if there is no queue
+  final int index;
+  // In milliseconds. "position" is where playback was at "updatedAt" (SystemClock.elapsedRealtime).
+  private final int position;
+  private final long updatedAt;
+  // -1 if not known
+  final int duration;
+  // 0 - 100
+  final int bufferedPercent;
+
+  PlayerState(
+    Status status,
+    @Nullable String songId,
+    @Nullable Info info,
+    int index,
+    int position,
+    long updatedAt,
+    int duration,
+    int bufferedPercent
+  ) {
+    this.status = status;
+    this.songId = songId;
+    this.info = info;
+    this.index = index;
+    this.position = position;
+    this.updatedAt = updatedAt;
+    this.duration = duration;
+    this.bufferedPercent = bufferedPercent;
+  }
+
+  /**
+   * A snapshot of "player" right now. "player" is null if nothing is prepared. "position" is used instead of the
+   * player's position unless it's -1 (e.g. the target of a seek that is still running, since players report either
+   * the old position or the target while seeking).
+   */
+  static PlayerState of(
+    Status status,
+    @Nullable String songId,
+    @Nullable Info info,
+    int index,
+    @Nullable PlaybackEngine player,
+    int position,
+    int bufferedPercent
+  ) {
+    int duration = -1;
+    if (player != null) {
+      if (position < 0) position = player.getCurrentPosition();
+      duration = player.getDuration();
+    }
+
+    return new PlayerState(
+      status,
+      songId,
+      info,
+      index,
+      Math.max(position, 0),
+      SystemClock.elapsedRealtime(),
+      duration,
+      bufferedPercent
+    );
+  }
+
+  /**
+   * The position in milliseconds right now.
+   */
+  int position() {
+    if (this.status != Status.PLAYING) return this.position;
+
+    long position = this.position + SystemClock.elapsedRealtime() - this.updatedAt;
+    if (this.duration > 0 && position > this.duration) position = this.duration;
+    return (int) position;
+  }
+
+  JSObject toJSObject() {
+    JSObject object = new JSObject()
+      .put("status", this.status.name().toLowerCase(Locale.US))
+      .put("index", this.index)
+      .put("currentTime", this.position() / 1000.0)
+      .put("duration", this.duration < 0 ? 0 : this.duration / 1000.0)
+      .put("buffered", this.duration < 0 ? 0 : this.duration * this.bufferedPercent / 100 / 1000.0);
+
+    if (this.songId != null) object.put("songId", this.songId);
+    if (this.info != null) {
+      object.put("title", this.info.title).put("artist", this.info.artist).put("album", this.info.album);
+    }
+    return object;
+  }
+}
@@ -0,0 +1,82 @@
+package com.getcapacitor.community.audio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of non-overlapping [start, end) byte ranges. Adjacent and overlapping ranges are merged as they are added.
+ */
+class RangeSet {
+  // start -> end
+  private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+  void add(long start, long end) {
+    if (end <= start) return;
+
+    // Merge with the range that starts at or before "start" if they touch
+    Map.Entry<Long, Long> floor = this.ranges.floorEntry(start);
+    if (floor != null && floor.getValue() >= start) {
+      start = floor.getKey();
+      end = Math.max(end, floor.getValue());
+    }
+
+    // Swallow every range that starts within the new range
+    Map.Entry<Long, Long> next = this.ranges.ceilingEntry(start);
+    while (next != null && next.getKey() <= end) {
+      end = Math.max(end, next.getValue());
+      this.ranges.remove(next.getKey());
+      next = this.ranges.ceilingEntry(start);
+    }
+
+    this.ranges.put(start, end);
+  }
+
+  /**
+   * Returns the end of the range that contains the position or -1 if the position isn't in any range.
+   */
+  long endOf(long position) {
+    Map.Entry<Long, Long> floor = this.ranges.floorEntry(position);
+    if (floor == null || floor.getValue() <= position) return -1;
+    return floor.getValue();
+  }
+
+  /**
+   * Returns the start of the first range after the position or -1 if there are no more ranges.
+   */
+  long nextStart(long position) {
+    Long next = this.ranges.higherKey(position);
+    return next == null ? -1 : next;
+  }
+
+  boolean covers(long start, long end) {
+    return this.endOf(start) >= end;
+  }
+
+  long total() {
+    long total = 0;
+    for (Map.Entry<Long, Long> range : this.ranges.entrySet()) {
+      total += range.getValue() - range.getKey();
+    }
+    return total;
+  }
+
+  void write(DataOutputStream output) throws IOException {
+    output.writeInt(this.ranges.size());
+    for (Map.Entry<Long, Long> range : this.ranges.entrySet()) {
+      output.writeLong(range.getKey());
+      output.writeLong(range.getValue());
+    }
+  }
+
+  static RangeSet read(DataInputStream input) throws IOException {
+    RangeSet set = new RangeSet();
+    int count = input.readInt();
+    for (int i = 0; i < count; i++) {
+      set.add(input.readLong(), input.readLong());
+    }
+    return set;
+  }
+}
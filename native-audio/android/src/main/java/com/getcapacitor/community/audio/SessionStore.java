@@ -0,0 +1,317 @@
+package com.getcapacitor.community.audio;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps what was playing on disk so that it can be loaded again after the process is killed: the songs (the queue or
+ * just the current song), which one is current and the position in it.
+ *
+ * The file is a header, the position and then the songs. The position is at a fixed offset so the frequent position
+ * updates overwrite 8 bytes in place and the songs are only written again when they change. Each part has its own
+ * checksum so a write that was cut short loses that part instead of the whole session.
+ *
+ * Saves are coalesced and written at most once per WRITE_DELAY on a background priority thread, so they can be called
+ * from the player thread as often as needed.
+ */
+class SessionStore {
+  static class Session {
+    final List<PlayQueue.Track> tracks;
+    final int index;
+    // Whether "tracks" is a queue set by setQueue rather than a song loaded by preload
+    final boolean queued;
+    // In milliseconds
+    final int position;
+
+    Session(List<PlayQueue.Track> tracks, int index, boolean queued, int position) {
+      this.tracks = tracks;
+      this.index = index;
+      this.queued = queued;
+      this.position = position;
+    }
+  }
+
+  private static final String TAG = "native-audio";
+  // "NASS"
+  private static final int MAGIC = 0x4e415353;
+  private static final int VERSION = 1;
+  private static final int POSITION_OFFSET = 8;
+  private static final int BODY_OFFSET = POSITION_OFFSET + 8;
+  // A queue of a few thousand songs is well under this
+  private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+  private static final long WRITE_DELAY = 1000;
+  // How long shutdown waits for the last write
+  private static final long SHUTDOWN_TIMEOUT = 1000;
+
+  private final File file;
+  private final File temp;
+  private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+  // What hasn't been written yet. Guarded by "this".
+  @Nullable
+  private List<PlayQueue.Track> pendingTracks = null;
+  private int pendingIndex = 0;
+  private boolean pendingQueued = false;
+  // -1 if the position hasn't changed
+  private int pendingPosition = -1;
+  private boolean pendingClear = false;
+  private boolean scheduled = false;
+  private boolean shutdown = false;
+
+  private final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  SessionStore(File file) {
+    this.file = file;
+    this.temp = new File(file.getPath() + ".tmp");
+    // shutdown writes what is pending right away
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      }
+    });
+  }
+
+  /**
+   * Read the saved session or return null if there isn't one. This reads the file on the calling thread.
+   */
+  @Nullable
+  Session load() {
+    if (!this.file.exists()) return null;
+
+    try {
+      byte[] data = readFile(this.file);
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      if (data.length < BODY_OFFSET + 4 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Unknown format");
+      }
+
+      // A bad position only loses the position
+      int position = buffer.getInt(POSITION_OFFSET);
+      if (buffer.getInt(POSITION_OFFSET + 4) != checksum(data, POSITION_OFFSET, 4) || position < 0) position = 0;
+
+      buffer.position(BODY_OFFSET);
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining() - 4) throw new IOException("Truncated");
+      if (buffer.getInt(BODY_OFFSET + 4 + length) != checksum(data, BODY_OFFSET + 4, length)) {
+        throw new IOException("Bad checksum");
+      }
+
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, BODY_OFFSET + 4, length));
+      boolean queued = input.readBoolean();
+      int index = input.readInt();
+      int count = input.readInt();
+      if (count <= 0 || index < 0 || index >= count) throw new IOException("Invalid index");
+
+      List<PlayQueue.Track> tracks = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String url = input.readUTF();
+        String songId = readNullable(input);
+        String title = input.readUTF();
+        String artist = input.readUTF();
+        String album = input.readUTF();
+        String cover = readNullable(input);
+        tracks.add(new PlayQueue.Track(url, songId, new Info(title, artist, cover, album)));
+      }
+
+      return new Session(tracks, index, queued, position);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read the saved session", e);
+      this.file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Save the songs, which one is current and the position. "tracks" must not be changed afterwards.
+   */
+  synchronized void save(List<PlayQueue.Track> tracks, int index, boolean queued, int position) {
+    this.pendingTracks = tracks;
+    this.pendingIndex = index;
+    this.pendingQueued = queued;
+    this.pendingPosition = position;
+    this.pendingClear = false;
+    this.schedule();
+  }
+
+  /**
+   * Save the position in the current song without writing the songs again.
+   */
+  synchronized void savePosition(int position) {
+    this.pendingPosition = position;
+    this.schedule();
+  }
+
+  synchronized void clear() {
+    this.pendingTracks = null;
+    this.pendingPosition = -1;
+    this.pendingClear = true;
+    this.schedule();
+  }
+
+  /**
+   * Write whatever is pending right away and wait (briefly) for it to finish since the process might be about to die.
+   * Saves after this are ignored.
+   */
+  void shutdown() {
+    synchronized (this) {
+      if (this.shutdown) return;
+      this.shutdown = true;
+      this.executor.execute(this.flush);
+      this.executor.shutdown();
+    }
+
+    try {
+      this.executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void schedule() {
+    if (this.scheduled || this.shutdown) return;
+    this.scheduled = true;
+    this.executor.schedule(this.flush, WRITE_DELAY, TimeUnit.MILLISECONDS);
+  }
+
+  private void flush() {
+    List<PlayQueue.Track> tracks;
+    int index;
+    boolean queued;
+    int position;
+    boolean clear;
+    synchronized (this) {
+      tracks = this.pendingTracks;
+      index = this.pendingIndex;
+      queued = this.pendingQueued;
+      position = this.pendingPosition;
+      clear = this.pendingClear;
+      this.pendingTracks = null;
+      this.pendingPosition = -1;
+      this.pendingClear = false;
+      this.scheduled = false;
+    }
+
+    try {
+      if (clear) this.file.delete();
+      if (tracks != null) {
+        this.writeAll(tracks, index, queued, Math.max(position, 0));
+      } else if (position >= 0) {
+        this.writePosition(position);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to save the session", e);
+    }
+  }
+
+  /**
+   * Write a new file and swap it in so that the old session survives if this is cut short.
+   */
+  private void writeAll(List<PlayQueue.Track> tracks, int index, boolean queued, int position) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(body);
+    output.writeBoolean(queued);
+    output.writeInt(index);
+    output.writeInt(tracks.size());
+    for (PlayQueue.Track track : tracks) {
+      output.writeUTF(track.url);
+      writeNullable(output, track.songId);
+      output.writeUTF(track.info.title);
+      output.writeUTF(track.info.artist);
+      output.writeUTF(track.info.album);
+      writeNullable(output, track.info.cover);
+    }
+    byte[] bytes = body.toByteArray();
+
+    FileOutputStream file = new FileOutputStream(this.temp);
+    try {
+      DataOutputStream out = new DataOutputStream(file);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.write(positionBlock(position));
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.writeInt(checksum(bytes, 0, bytes.length));
+      out.flush();
+      file.getFD().sync();
+    } finally {
+      file.close();
+    }
+
+    if (!this.temp.renameTo(this.file)) throw new IOException("Unable to rename " + this.temp);
+  }
+
+  private void writePosition(int position) throws IOException {
+    if (!this.file.exists()) return;
+
+    RandomAccessFile file = new RandomAccessFile(this.file, "rw");
+    try {
+      // Only a complete file has a position to update
+      if (file.length() < BODY_OFFSET || file.readInt() != MAGIC || file.readInt() != VERSION) return;
+      file.seek(POSITION_OFFSET);
+      file.write(positionBlock(position));
+    } finally {
+      file.close();
+    }
+  }
+
+  private static byte[] positionBlock(int position) {
+    byte[] block = ByteBuffer.allocate(8).putInt(position).array();
+    ByteBuffer.wrap(block).putInt(4, checksum(block, 0, 4));
+    return block;
+  }
+
+  private static int checksum(byte[] data, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(data, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static void writeNullable(DataOutputStream output, @Nullable String value) throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) output.writeUTF(value);
+  }
+
+  @Nullable
+  private static String readNullable(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    long length = file.length();
+    if (length > BODY_OFFSET + 8 + MAX_BODY_BYTES) throw new IOException("Too large");
+
+    byte[] data = new byte[(int) length];
+    DataInputStream input = new DataInputStream(new FileInputStream(file));
+    try {
+      input.readFully(data);
+    } finally {
+      input.close();
+    }
+    return data;
+  }
+}
@@ -0,0 +1,200 @@
+package com.getcapacitor.community.audio;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.StatFs;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * Reads the conditions from Android. The network and the battery are tracked with callbacks and kept in fields since
+ * asking for them takes a binder call. The network is tracked with a default network callback on API 24+ and with the
+ * (deprecated) connectivity broadcast before that. The free storage is read every time since there is no broadcast for
+ * it (and StatFs is cheap).
+ */
+class SystemConditions implements ConditionsSource {
+  private static final String TAG = "native-audio";
+
+  private final Context context;
+  private final Handler handler;
+  // Where the songs are stored
+  private final File dir;
+
+  // Written on the handler's thread, read from anywhere
+  private volatile boolean connected = true;
+  private volatile boolean metered = false;
+  private volatile boolean charging = false;
+  private volatile int batteryPercent = -1;
+
+  @Nullable
+  private volatile Listener listener = null;
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      boolean changed;
+      if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+        changed = readBattery(intent);
+      } else {
+        changed = readNetwork();
+      }
+
+      // The battery broadcast is sent every time the level moves by a percent so only pass on what the policy uses
+      if (changed) notifyChanged();
+    }
+  };
+
+  // API 24+. This is called on a ConnectivityManager thread so everything is passed on to the handler.
+  private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+    @Override
+    public void onCapabilitiesChanged(Network network, final NetworkCapabilities capabilities) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (readCapabilities(capabilities)) notifyChanged();
+        }
+      });
+    }
+
+    @Override
+    public void onLost(Network network) {
+      // Only called when there is no default network at all. Switching networks calls onCapabilitiesChanged.
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (readCapabilities(null)) notifyChanged();
+        }
+      });
+    }
+  };
+  private boolean networkCallbackRegistered = false;
+
+  /**
+   * "handler" is where the listener is called.
+   */
+  SystemConditions(Context context, Handler handler, File dir) {
+    this.context = context;
+    this.handler = handler;
+    this.dir = dir;
+  }
+
+  @Override
+  public Conditions get() {
+    return new Conditions(this.connected, this.metered, this.charging, this.batteryPercent, this.freeBytes());
+  }
+
+  @Override
+  public void start(Listener listener) {
+    if (this.listener != null) return;
+    this.listener = listener;
+
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+    ConnectivityManager manager = this.connectivityManager();
+    if (manager != null && Build.VERSION.SDK_INT >= 24) {
+      // The callback is called with the current network too but only if there is one, and not right away
+      Network network = manager.getActiveNetwork();
+      this.readCapabilities(network != null ? manager.getNetworkCapabilities(network) : null);
+      manager.registerDefaultNetworkCallback(this.networkCallback);
+      this.networkCallbackRegistered = true;
+    } else {
+      this.readNetwork();
+      filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+    }
+
+    // The battery broadcast is sticky so this also gives us the current battery state
+    Intent battery = this.context.registerReceiver(this.receiver, filter, null, this.handler);
+    if (battery != null) this.readBattery(battery);
+  }
+
+  @Override
+  public void stop() {
+    if (this.listener == null) return;
+    this.listener = null;
+    this.context.unregisterReceiver(this.receiver);
+
+    ConnectivityManager manager = this.connectivityManager();
+    if (this.networkCallbackRegistered && manager != null) {
+      manager.unregisterNetworkCallback(this.networkCallback);
+      this.networkCallbackRegistered = false;
+    }
+  }
+
+  private void notifyChanged() {
+    Listener listener = this.listener;
+    if (listener != null) listener.onChanged(this.get());
+  }
+
+  @Nullable
+  private ConnectivityManager connectivityManager() {
+    return (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+  }
+
+  /**
+   * Read the default network's capabilities (null if there is none). Returns true if the network was connected or
+   * disconnected or became (un)metered.
+   */
+  private boolean readCapabilities(@Nullable NetworkCapabilities capabilities) {
+    boolean wasConnected = this.connected;
+    boolean wasMetered = this.metered;
+    this.connected = capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    this.metered = capabilities != null && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    return this.connected != wasConnected || this.metered != wasMetered;
+  }
+
+  /**
+   * Same as readCapabilities for API 23 and below where the connectivity broadcast is all there is.
+   */
+  @SuppressWarnings("deprecation")
+  private boolean readNetwork() {
+    ConnectivityManager manager = this.connectivityManager();
+    if (manager == null) return false;
+
+    boolean wasConnected = this.connected;
+    boolean wasMetered = this.metered;
+    NetworkInfo network = manager.getActiveNetworkInfo();
+    this.connected = network != null && network.isConnected();
+    this.metered = manager.isActiveNetworkMetered();
+    return this.connected != wasConnected || this.metered != wasMetered;
+  }
+
+  /**
+   * Returns true if charging started or stopped or the battery went above or below TransferPolicy.LOW_BATTERY_PERCENT.
+   */
+  private boolean readBattery(Intent intent) {
+    boolean wasCharging = this.charging;
+    boolean wasLow = isLow(this.batteryPercent);
+    int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    this.batteryPercent = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+    int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+    this.charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+    return this.charging != wasCharging || isLow(this.batteryPercent) != wasLow;
+  }
+
+  private static boolean isLow(int batteryPercent) {
+    return batteryPercent >= 0 && batteryPercent <= TransferPolicy.LOW_BATTERY_PERCENT;
+  }
+
+  private long freeBytes() {
+    try {
+      return new StatFs(this.dir.getAbsolutePath()).getAvailableBytes();
+    } catch (IllegalArgumentException e) {
+      // The directory doesn't exist yet
+      Log.w(TAG, "Unable to read the free space of " + this.dir, e);
+      return -1;
+    }
+  }
+}
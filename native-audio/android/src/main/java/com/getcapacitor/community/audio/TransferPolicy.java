@@ -0,0 +1,113 @@
+package com.getcapacitor.community.audio;
+
+/**
+ * Decides how much the plugin downloads ahead of time based on the conditions. Users on a metered connection or a
+ * low battery only get what they are about to play, users on Wi-Fi who are charging get songs further ahead and more
+ * downloads at once, and nothing speculative is downloaded while storage is low. Songs that the user asked to
+ * download (downloadSongs) are still downloaded, just one at a time.
+ */
+class TransferPolicy {
+  // Leave at least this much storage for the rest of the device
+  static final long STORAGE_RESERVE = 512L * 1024 * 1024;
+  // At or below this (and not charging) the battery is treated like a metered connection
+  static final int LOW_BATTERY_PERCENT = 15;
+  static final int MAX_PREFETCH = 8;
+
+  private static final int SAVER_TRANSFERS = 1;
+  private static final int NORMAL_TRANSFERS = 3;
+  private static final int AGGRESSIVE_TRANSFERS = 4;
+
+  private enum Mode {
+    OFFLINE,
+    // Metered or low battery
+    SAVER,
+    NORMAL,
+    // Unmetered and charging
+    AGGRESSIVE,
+  }
+
+  private final ConditionsSource source;
+
+  TransferPolicy(ConditionsSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Start calling "listener" whenever the conditions change.
+   */
+  void start(ConditionsSource.Listener listener) {
+    this.source.start(listener);
+  }
+
+  void stop() {
+    this.source.stop();
+  }
+
+  Conditions getConditions() {
+    return this.source.get();
+  }
+
+  /**
+   * How many songs after the next song to download, given that JS asked for "requested".
+   */
+  int prefetchDepth(int requested) {
+    Conditions conditions = this.source.get();
+    if (isStorageLow(conditions)) return 0;
+
+    switch (mode(conditions)) {
+      case OFFLINE:
+        return 0;
+      case SAVER:
+        return Math.min(requested, 1);
+      case AGGRESSIVE:
+        return Math.min(requested * 2, MAX_PREFETCH);
+      default:
+        return requested;
+    }
+  }
+
+  /**
+   * How many songs can download at once.
+   */
+  int maxTransfers() {
+    switch (mode(this.source.get())) {
+      case OFFLINE:
+      case SAVER:
+        return SAVER_TRANSFERS;
+      case AGGRESSIVE:
+        return AGGRESSIVE_TRANSFERS;
+      default:
+        return NORMAL_TRANSFERS;
+    }
+  }
+
+  /**
+   * Whether the starts of songs that might be played (HeadPrefetcher) should be downloaded.
+   */
+  boolean allowHeads() {
+    Conditions conditions = this.source.get();
+    Mode mode = mode(conditions);
+    return !isStorageLow(conditions) && (mode == Mode.NORMAL || mode == Mode.AGGRESSIVE);
+  }
+
+  /**
+   * How big the song cache can be when the user allows "configured" bytes and the cache currently uses "used" bytes.
+   * The cache never grows past the point where less than STORAGE_RESERVE is free, and shrinks if it already has.
+   */
+  long cacheBytes(long configured, long used) {
+    Conditions conditions = this.source.get();
+    if (conditions.freeBytes < 0) return configured;
+    return Math.max(0, Math.min(configured, used + conditions.freeBytes - STORAGE_RESERVE));
+  }
+
+  private static Mode mode(Conditions conditions) {
+    if (!conditions.connected) return Mode.OFFLINE;
+    boolean lowBattery = !conditions.charging && conditions.batteryPercent >= 0 && conditions.batteryPercent <= LOW_BATTERY_PERCENT;
+    if (conditions.metered || lowBattery) return Mode.SAVER;
+    return conditions.charging ? Mode.AGGRESSIVE : Mode.NORMAL;
+  }
+
+  private static boolean isStorageLow(Conditions conditions) {
+    return conditions.freeBytes >= 0 && conditions.freeBytes < STORAGE_RESERVE;
+  }
+}
@@ -0,0 +1,229 @@
+package com.getcapacitor.community.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reduces songs to the quietest and loudest sample in each of a fixed number of buckets for drawing a waveform. Songs
+ * are decoded one buffer at a time so memory use doesn't depend on the length of the song. The result is saved to
+ * disk as two signed bytes (min, max) per bucket so each song is only analyzed once per bucket count.
+ *
+ * Analysis runs on a single background priority thread so it only gets the CPU that playback doesn't need.
+ */
+class WaveformCache {
+  interface Callback {
+    /**
+     * "peaks" has the min and max of each bucket one after the other, scaled to -127..127.
+     */
+    void onLoaded(String songId, byte[] peaks);
+
+    void onError(String songId, Exception e);
+  }
+
+  private static final String TAG = "native-audio";
+  private static final long TIMEOUT_US = 10000;
+
+  private final AudioCache disk;
+  private final AudioCache songs;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  WaveformCache(File dir, long maxDiskBytes, AudioCache songs) {
+    this.songs = songs;
+    this.disk = new AudioCache(dir, maxDiskBytes);
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        disk.init();
+      }
+    });
+  }
+
+  /**
+   * Load the peaks from disk or analyze the song. The song is read from the song cache if it's there, otherwise from
+   * "url". The callback is called on the background thread.
+   */
+  void load(final String songId, @Nullable final String url, final int buckets, final Callback callback) {
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        // The bucket count is only digits so this can't collide with another song's key
+        String key = songId + "_" + buckets;
+        try {
+          byte[] peaks = loadFromDisk(key, buckets);
+          if (peaks == null) {
+            File file = songs.get(songId);
+            String source = file != null ? file.getAbsolutePath() : url;
+            if (source == null) throw new IOException(songId + " isn't cached and has no path");
+
+            long start = System.currentTimeMillis();
+            peaks = analyze(source, buckets);
+            Log.i(TAG, "Analyzed " + songId + " in " + (System.currentTimeMillis() - start) + "ms");
+            disk.put(key, new ByteArrayInputStream(peaks));
+          }
+
+          callback.onLoaded(songId, peaks);
+        } catch (Exception e) {
+          callback.onError(songId, e);
+        }
+      }
+    });
+  }
+
+  void clear() {
+    this.executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        disk.clear();
+      }
+    });
+  }
+
+  /**
+   * Stop the thread. Waveforms that haven't been analyzed yet are never answered.
+   */
+  void shutdown() {
+    this.executor.shutdownNow();
+  }
+
+  @Nullable
+  private byte[] loadFromDisk(String key, int buckets) {
+    File file = this.disk.get(key);
+    if (file == null) return null;
+
+    byte[] peaks = new byte[buckets * 2];
+    try {
+      InputStream input = new FileInputStream(file);
+      try {
+        int offset = 0;
+        int read;
+        while (offset < peaks.length && (read = input.read(peaks, offset, peaks.length - offset)) != -1) {
+          offset += read;
+        }
+        if (offset == peaks.length && input.read() == -1) return peaks;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read " + file, e);
+    }
+
+    // Something went wrong when this was written so analyze the song again
+    this.disk.remove(key);
+    return null;
+  }
+
+  private static byte[] analyze(String source, int buckets) throws IOException {
+    MediaExtractor extractor = new MediaExtractor();
+    MediaCodec codec = null;
+    try {
+      extractor.setDataSource(source);
+
+      MediaFormat format = null;
+      for (int i = 0; i < extractor.getTrackCount(); i++) {
+        MediaFormat trackFormat = extractor.getTrackFormat(i);
+        String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("audio/")) {
+          extractor.selectTrack(i);
+          format = trackFormat;
+          break;
+        }
+      }
+
+      if (format == null) throw new IOException("No audio track in " + source);
+      if (!format.containsKey(MediaFormat.KEY_DURATION)) throw new IOException("Unknown duration for " + source);
+      long durationUs = format.getLong(MediaFormat.KEY_DURATION);
+      if (durationUs <= 0) throw new IOException("Unknown duration for " + source);
+
+      int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+      int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+      codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+      codec.configure(format, null, null, 0);
+      codec.start();
+
+      int[] mins = new int[buckets];
+      int[] maxes = new int[buckets];
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      boolean inputDone = false;
+      boolean outputDone = false;
+
+      while (!outputDone) {
+        if (!inputDone) {
+          int index = codec.dequeueInputBuffer(TIMEOUT_US);
+          if (index >= 0) {
+            int size = extractor.readSampleData(codec.getInputBuffer(index), 0);
+            if (size < 0) {
+              codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            } else {
+              codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+              extractor.advance();
+            }
+          }
+        }
+
+        int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+          // Some codecs only report the real sample rate or channel count once they start decoding (e.g. HE-AAC)
+          MediaFormat outputFormat = codec.getOutputFormat();
+          sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+          channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        } else if (index >= 0) {
+          if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) outputDone = true;
+
+          ByteBuffer buffer = codec.getOutputBuffer(index);
+          buffer.limit(info.offset + info.size);
+          buffer.position(info.offset);
+          ShortBuffer samples = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+          int frames = channels > 0 && sampleRate > 0 ? samples.remaining() / channels : 0;
+          for (int frame = 0; frame < frames; frame++) {
+            long timeUs = info.presentationTimeUs + frame * 1000000L / sampleRate;
+            int bucket = (int) Math.min(buckets - 1, Math.max(0, timeUs * buckets / durationUs));
+            for (int channel = 0; channel < channels; channel++) {
+              short sample = samples.get();
+              if (sample < mins[bucket]) mins[bucket] = sample;
+              if (sample > maxes[bucket]) maxes[bucket] = sample;
+            }
+          }
+
+          codec.releaseOutputBuffer(index, false);
+        }
+      }
+
+      byte[] peaks = new byte[buckets * 2];
+      for (int i = 0; i < buckets; i++) {
+        peaks[i * 2] = (byte) Math.round(mins[i] * 127f / 32768f);
+        peaks[i * 2 + 1] = (byte) Math.round(maxes[i] * 127f / 32768f);
+      }
+      return peaks;
+    } finally {
+      if (codec != null) {
+        try {
+          codec.stop();
+        } catch (IllegalStateException e) {
+          // It was never started
+        }
+        codec.release();
+      }
+      extractor.release();
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package com.getcapacitor.community.audio;
+
+import android.app.Application;
+import android.app.Notification;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.media.session.MediaSession;
+import android.os.Handler;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs thousands of preload/play/queue/skip/stop/destroy cycles through AudioPlayer (like a long session with the
+ * service being created over and over) with FakePlaybackEngine in place of MediaPlayer, and checks that the number of
+ * receivers, media sessions, threads and players goes back to where it started after every destroy.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class AudioPlayerSoakTest {
+  private static final int CYCLES = 2000;
+  // How long threads get to finish after destroy
+  private static final long THREAD_TIMEOUT = 5000;
+
+  private Application context;
+  private final List<FakePlaybackEngine> engines = new CopyOnWriteArrayList<>();
+  private final List<MediaSession> sessions = new CopyOnWriteArrayList<>();
+
+  private final AudioPlayer.Host host = new AudioPlayer.Host() {
+    @Override
+    public void onSessionCreated(MediaSession session) {
+      sessions.add(session);
+    }
+
+    @Override
+    public void onQueueChanged() {
+    }
+
+    @Override
+    public void onPosted(Notification notification, boolean playing) {
+    }
+
+    @Override
+    public void onCancelled() {
+    }
+  };
+
+  private final PlayerResources.EngineFactory factory = new PlayerResources.EngineFactory() {
+    @Override
+    public PlaybackEngine create() {
+      FakePlaybackEngine engine = new FakePlaybackEngine();
+      engines.add(engine);
+      return engine;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    this.context = RuntimeEnvironment.application;
+  }
+
+  @Test
+  public void resourcesStayFlatOverManyCycles() throws InterruptedException {
+    // The first cycle starts threads and services that Robolectric keeps around, so measure after it
+    this.runCycle(0);
+    int receivers = this.registeredReceivers();
+    int threads = this.settledThreads();
+
+    for (int cycle = 1; cycle <= CYCLES; cycle++) {
+      this.runCycle(cycle);
+
+      assertEquals("players leaked in cycle " + cycle, 0, this.liveEngines());
+      assertEquals("receivers leaked in cycle " + cycle, receivers, this.registeredReceivers());
+      assertTrue("network callbacks leaked in cycle " + cycle, this.networkCallbacks().isEmpty());
+      for (MediaSession session : this.sessions) {
+        assertFalse("media session leaked in cycle " + cycle, session.isActive());
+      }
+      assertTrue("threads leaked in cycle " + cycle, this.awaitThreads(threads) <= threads);
+    }
+
+    assertTrue(this.engines.size() >= CYCLES * 2);
+  }
+
+  @Test
+  public void destroyBeforeAnythingIsLoaded() throws InterruptedException {
+    this.runCycle(0);
+    int receivers = this.registeredReceivers();
+    int threads = this.settledThreads();
+
+    for (int i = 0; i < 50; i++) {
+      AudioPlayer player = new AudioPlayer(this.context, this.host, this.factory);
+      // Nothing that needs to be released is created until something is loaded
+      this.stop(player);
+      assertEquals(receivers, this.registeredReceivers());
+      assertTrue(this.networkCallbacks().isEmpty());
+      this.destroy(player);
+    }
+
+    assertEquals(0, this.liveEngines());
+    assertEquals(receivers, this.registeredReceivers());
+    assertTrue(this.awaitThreads(threads) <= threads);
+  }
+
+  @Test
+  public void restoresWithoutSettingUp() throws InterruptedException {
+    //noinspection ResultOfMethodCallIgnored
+    new File(this.context.getFilesDir(), "native-audio-session").delete();
+
+    AudioPlayer player = new AudioPlayer(this.context, this.host, this.factory);
+    FakePluginCall preload = new FakePluginCall("preload", song("restored"));
+    player.preload(preload);
+    this.finishPreparing(player);
+    preload.await();
+    FakePluginCall seek = new FakePluginCall("setCurrentTime", new JSObject().put("currentTime", 30));
+    player.setCurrentTime(seek);
+    seek.await();
+    // The process is killed
+    this.destroy(player);
+
+    this.engines.clear();
+    this.sessions.clear();
+    player = new AudioPlayer(this.context, this.host, this.factory);
+    // The session is restored on the player thread and the song is prepared ahead
+    this.finishPreparing(player);
+    FakePluginCall getState = new FakePluginCall("getState", new JSObject());
+    player.getState(getState);
+    JSObject state = getState.await();
+    assertEquals("paused", state.getString("status"));
+    assertEquals("restored", state.getString("title"));
+    assertEquals(30.0, state.optDouble("currentTime"), 0.001);
+    // Only the player exists, ready at the saved position. The media session waits until something is played.
+    assertEquals(1, this.engines.size());
+    FakePlaybackEngine engine = this.engines.get(0);
+    assertEquals("restored", engine.getPath());
+    assertEquals(FakePlaybackEngine.State.PREPARED, engine.getState());
+    assertEquals(30000, engine.getCurrentPosition());
+    assertTrue(this.sessions.isEmpty());
+
+    // Plays right away without preparing again
+    this.play(player);
+    assertEquals(1, this.sessions.size());
+    assertTrue(engine.isPlaying());
+    assertEquals(30000, engine.getCurrentPosition());
+    for (FakePlaybackEngine other : this.engines) {
+      assertNotEquals(FakePlaybackEngine.State.PREPARING, other.getState());
+    }
+
+    this.stop(player);
+    this.destroy(player);
+  }
+
+  /**
+   * What an app does over a session: preload and play a song, hand a queue to the plugin, let a song finish, skip
+   * and then either stop or leave it playing when the service is destroyed.
+   */
+  private void runCycle(int cycle) throws InterruptedException {
+    AudioPlayer player = new AudioPlayer(this.context, this.host, this.factory);
+    final String prefix = "song-" + cycle + "-";
+
+    FakePluginCall preload = new FakePluginCall("preload", song(prefix + "single"));
+    player.preload(preload);
+    this.finishPreparing(player);
+    preload.await();
+    this.play(player);
+
+    JSArray songs = new JSArray();
+    for (int i = 0; i < 3; i++) songs.put(song(prefix + i));
+    FakePluginCall setQueue = new FakePluginCall("setQueue", new JSObject().put("songs", songs).put("index", 0));
+    player.setQueue(setQueue);
+    // The current song and the next one (for gapless playback)
+    this.finishPreparing(player);
+    setQueue.await();
+    this.play(player);
+
+    // The first song finishes and the next one takes over without a gap
+    this.onPlayerThread(player, new Runnable() {
+      @Override
+      public void run() {
+        for (FakePlaybackEngine engine : engines) {
+          if (engine.isPlaying() && (prefix + 0).equals(engine.getPath())) engine.advance(FakePlaybackEngine.DURATION);
+        }
+      }
+    });
+    this.finishPreparing(player);
+
+    // Skip from the notification or headphones
+    player.callback.onSkipToNext();
+    this.finishPreparing(player);
+
+    if (cycle % 2 == 0) this.stop(player);
+    this.destroy(player);
+  }
+
+  private void play(AudioPlayer player) throws InterruptedException {
+    FakePluginCall play = new FakePluginCall("play", new JSObject());
+    player.play(play);
+    play.await();
+  }
+
+  private void stop(AudioPlayer player) throws InterruptedException {
+    FakePluginCall stop = new FakePluginCall("stop", new JSObject());
+    player.stop(stop);
+    stop.await();
+  }
+
+  private void destroy(AudioPlayer player) throws InterruptedException {
+    Thread thread = player.getPlayerLooper().getThread();
+    player.destroy();
+    thread.join(THREAD_TIMEOUT);
+    assertFalse("the player thread is still running", thread.isAlive());
+  }
+
+  /**
+   * Finish preparing every player that is preparing.
+   */
+  private void finishPreparing(AudioPlayer player) throws InterruptedException {
+    this.onPlayerThread(player, new Runnable() {
+      @Override
+      public void run() {
+        for (FakePlaybackEngine engine : engines) {
+          if (engine.getState() == FakePlaybackEngine.State.PREPARING) engine.finishPreparing();
+        }
+      }
+    });
+  }
+
+  /**
+   * Run "runnable" on the player thread once everything that was sent to the player before it has run. The players
+   * must only be touched there.
+   */
+  private void onPlayerThread(AudioPlayer player, final Runnable runnable) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    new Handler(player.getPlayerLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        runnable.run();
+        done.countDown();
+      }
+    });
+    assertTrue("the player thread is stuck", done.await(THREAD_TIMEOUT, TimeUnit.MILLISECONDS));
+  }
+
+  private int liveEngines() {
+    int live = 0;
+    for (FakePlaybackEngine engine : this.engines) {
+      if (engine.getState() != FakePlaybackEngine.State.RELEASED) live++;
+    }
+    return live;
+  }
+
+  private int registeredReceivers() {
+    return shadowOf(this.context).getRegisteredReceivers().size();
+  }
+
+  private Set<ConnectivityManager.NetworkCallback> networkCallbacks() {
+    return shadowOf((ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE)).getNetworkCallbacks();
+  }
+
+  /**
+   * Wait for the number of live threads to drop to "expected" (executors finish their threads in the background after
+   * they are shut down) and return the number of live threads.
+   */
+  private int awaitThreads(int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + THREAD_TIMEOUT;
+    while (liveThreads() > expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return liveThreads();
+  }
+
+  /**
+   * The number of live threads once it stops going down.
+   */
+  private int settledThreads() throws InterruptedException {
+    int threads = liveThreads();
+    while (true) {
+      Thread.sleep(200);
+      int now = liveThreads();
+      if (now >= threads) return threads;
+      threads = now;
+    }
+  }
+
+  private static int liveThreads() {
+    return Thread.getAllStackTraces().size();
+  }
+
+  private static JSObject song(String path) {
+    return new JSObject().put("path", path).put("title", path).put("artist", "Artist").put("album", "Album");
+  }
+}
@@ -0,0 +1,173 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes logs, reads them back with a new index (like after the process was killed) and checks that a damaged tail
+ * only loses the damaged records and that compaction keeps the newest state of every song.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CacheIndexTest {
+  // A record for a one letter song ID: op, ID length, ID, size, last access and CRC
+  private static final int RECORD_BYTES = 1 + 2 + 1 + 8 + 8 + 4;
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    this.file = File.createTempFile("index", null);
+    this.file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    this.file.delete();
+    new File(this.file.getPath() + ".tmp").delete();
+  }
+
+  @Test
+  public void nothingSaved() {
+    assertNull(new CacheIndex(this.file).load());
+  }
+
+  @Test
+  public void notAnIndex() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    raf.writeLong(42);
+    raf.close();
+    assertNull(new CacheIndex(this.file).load());
+  }
+
+  @Test
+  public void replaysTheLog() {
+    CacheIndex index = this.newIndex();
+    index.put("a", 1);
+    index.put("b", 2);
+    index.put("c", 3);
+    index.touch("a");
+    index.remove("b");
+    // Unknown songs are ignored
+    index.touch("x");
+    index.remove("x");
+
+    Map<String, CacheIndex.Entry> loaded = new CacheIndex(this.file).load();
+    assertNotNull(loaded);
+    assertEquals(Arrays.asList("c", "a"), new ArrayList<>(loaded.keySet()));
+    assertEquals(3, loaded.get("c").size);
+    assertEquals(1, loaded.get("a").size);
+  }
+
+  @Test
+  public void dropsATruncatedTail() throws IOException {
+    CacheIndex index = this.newIndex();
+    index.put("a", 1);
+    index.put("b", 2);
+    long length = this.file.length();
+
+    // The app was killed halfway through writing "b"
+    this.truncate(length - RECORD_BYTES / 2);
+    CacheIndex reloaded = new CacheIndex(this.file);
+    assertEquals(Arrays.asList("a"), new ArrayList<>(reloaded.load().keySet()));
+
+    // New records go after the last good record rather than after the torn one
+    reloaded.put("c", 3);
+    Map<String, CacheIndex.Entry> loaded = new CacheIndex(this.file).load();
+    assertEquals(Arrays.asList("a", "c"), new ArrayList<>(loaded.keySet()));
+    assertEquals(3, loaded.get("c").size);
+  }
+
+  @Test
+  public void dropsARecordWithABadChecksum() throws IOException {
+    CacheIndex index = this.newIndex();
+    index.put("a", 1);
+    index.put("b", 2);
+    index.put("c", 3);
+    long length = this.file.length();
+
+    // Flip a bit in the size of "b"
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    long position = length - 2 * RECORD_BYTES + 1 + 2 + 1;
+    raf.seek(position);
+    int value = raf.read();
+    raf.seek(position);
+    raf.write(value ^ 1);
+    raf.close();
+
+    // Everything from the bad record on is dropped
+    CacheIndex reloaded = new CacheIndex(this.file);
+    assertEquals(Arrays.asList("a"), new ArrayList<>(reloaded.load().keySet()));
+    assertTrue(this.file.length() < length);
+
+    reloaded.put("d", 4);
+    assertEquals(Arrays.asList("a", "d"), new ArrayList<>(new CacheIndex(this.file).load().keySet()));
+  }
+
+  @Test
+  public void compactionKeepsTheNewestRecordOfEachSong() {
+    CacheIndex index = this.newIndex();
+    index.put("a", 1);
+    index.put("b", 2);
+    index.put("c", 3);
+    index.remove("c");
+    // Enough records to compact a few times over
+    for (int i = 0; i < 3000; i++) {
+      index.touch(i % 2 == 0 ? "a" : "b");
+      if (i == 2000) index.put("a", 10);
+    }
+    index.touch("a");
+
+    // Compacted once it reached 1024 records rather than growing to thousands (plus the 8 byte header)
+    assertTrue(this.file.length() <= 8 + 1025 * RECORD_BYTES);
+
+    Map<String, CacheIndex.Entry> loaded = new CacheIndex(this.file).load();
+    assertNotNull(loaded);
+    assertEquals(Arrays.asList("b", "a"), new ArrayList<>(loaded.keySet()));
+    assertEquals(10, loaded.get("a").size);
+    assertEquals(2, loaded.get("b").size);
+  }
+
+  @Test
+  public void rebuildReplacesTheLog() {
+    CacheIndex index = this.newIndex();
+    index.put("a", 1);
+
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    sizes.put("b", 2L);
+    sizes.put("c", 3L);
+    index.rebuild(sizes);
+
+    assertEquals(Arrays.asList("b", "c"), new ArrayList<>(new CacheIndex(this.file).load().keySet()));
+  }
+
+  /**
+   * An index with an empty log, like AudioCache creates the first time.
+   */
+  private CacheIndex newIndex() {
+    CacheIndex index = new CacheIndex(this.file);
+    assertNull(index.load());
+    index.rebuild(new LinkedHashMap<String, Long>());
+    return index;
+  }
+
+  private void truncate(long length) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    raf.setLength(length);
+    raf.close();
+  }
+}
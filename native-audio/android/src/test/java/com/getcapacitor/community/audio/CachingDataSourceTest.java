@@ -0,0 +1,244 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams songs from MockWebServer and checks that interrupted downloads continue with a Range request, that servers
+ * which ignore the Range header still work and that the finished song ends up in the AudioCache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CachingDataSourceTest {
+  private static final String SONG_ID = "song";
+  private static final int SIZE = 100 * 1024;
+  private static final int HALF = SIZE / 2;
+
+  private final byte[] song = new byte[SIZE];
+  private final List<String> cached = new ArrayList<>();
+  private final CachingDataSource.Listener listener = new CachingDataSource.Listener() {
+    @Override
+    public void onCached(String songId) {
+      cached.add(songId);
+    }
+  };
+
+  private MockWebServer server;
+  private File root;
+  private File partialDir;
+  private AudioCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(1).nextBytes(this.song);
+    this.server = new MockWebServer();
+    this.server.start();
+
+    this.root = File.createTempFile("caching", null);
+    this.root.delete();
+    this.root.mkdirs();
+    this.partialDir = new File(this.root, "partial");
+    this.cache = new AudioCache(new File(this.root, "songs"), 10 * SIZE);
+    this.cache.init();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.server.shutdown();
+    delete(this.root);
+  }
+
+  @Test
+  public void cachesTheWholeSong() throws Exception {
+    this.server.enqueue(this.partial(0, SIZE));
+
+    CachingDataSource source = this.open();
+    assertArrayEquals(this.song, read(source, 0, SIZE));
+    assertEquals(SIZE, source.getSize());
+    assertEquals(-1, source.readAt(SIZE, new byte[16], 0, 16));
+    source.close();
+
+    assertEquals("bytes=0-", this.server.takeRequest().getHeader("Range"));
+    this.assertCached();
+  }
+
+  @Test
+  public void resumesWithARangeRequest() throws Exception {
+    this.server.enqueue(this.partial(0, SIZE));
+    this.server.enqueue(this.partial(HALF, SIZE));
+
+    // Stop halfway (e.g. the app was closed)
+    CachingDataSource first = this.open();
+    assertArrayEquals(Arrays.copyOfRange(this.song, 0, HALF), read(first, 0, HALF));
+    first.close();
+    assertTrue(this.cached.isEmpty());
+    assertFalse(this.cache.contains(SONG_ID));
+
+    // The first half comes from disk and only the second half is requested
+    CachingDataSource second = this.open();
+    assertArrayEquals(this.song, read(second, 0, SIZE));
+    second.close();
+
+    assertEquals("bytes=0-", this.server.takeRequest().getHeader("Range"));
+    assertEquals("bytes=" + HALF + "-", this.server.takeRequest().getHeader("Range"));
+    assertEquals(2, this.server.getRequestCount());
+    this.assertCached();
+  }
+
+  @Test
+  public void onlyRequestsTheGap() throws Exception {
+    this.server.enqueue(this.partial(0, SIZE));
+    this.server.enqueue(this.partial(HALF, SIZE));
+
+    CachingDataSource first = this.open();
+    read(first, 0, HALF / 2);
+    first.close();
+
+    // Seek ahead past the gap and then go back to fill it in
+    CachingDataSource second = this.open();
+    read(second, HALF, SIZE - HALF);
+    this.server.enqueue(this.partial(HALF / 2, HALF));
+    assertArrayEquals(this.song, read(second, 0, SIZE));
+    second.close();
+
+    this.server.takeRequest();
+    this.server.takeRequest();
+    assertEquals("bytes=" + (HALF / 2) + "-" + (HALF - 1), this.server.takeRequest().getHeader("Range"));
+    this.assertCached();
+  }
+
+  @Test
+  public void fallsBackWhenTheRangeIsIgnored() throws Exception {
+    this.server.enqueue(this.partial(0, SIZE));
+    // The server sends the whole song again
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+
+    CachingDataSource first = this.open();
+    read(first, 0, HALF);
+    first.close();
+
+    CachingDataSource second = this.open();
+    assertArrayEquals(Arrays.copyOfRange(this.song, HALF, SIZE), read(second, HALF, SIZE - HALF));
+    assertEquals(SIZE, second.getSize());
+    second.close();
+
+    this.server.takeRequest();
+    assertEquals("bytes=" + HALF + "-", this.server.takeRequest().getHeader("Range"));
+    this.assertCached();
+  }
+
+  @Test
+  public void cachesASongWithoutContentLength() throws Exception {
+    this.server.enqueue(new MockResponse().setChunkedBody(new Buffer().write(this.song), 8 * 1024));
+
+    CachingDataSource source = this.open();
+    assertEquals(-1, source.getSize());
+    assertArrayEquals(this.song, read(source, 0, SIZE));
+    // The end of the stream is the end of the song
+    assertEquals(-1, source.readAt(SIZE, new byte[16], 0, 16));
+    assertEquals(SIZE, source.getSize());
+    source.close();
+
+    this.assertCached();
+    assertEquals(1, this.server.getRequestCount());
+  }
+
+  @Test
+  public void servesTheCommittedFile() throws Exception {
+    this.server.enqueue(this.partial(0, SIZE));
+
+    CachingDataSource source = this.open();
+    read(source, 0, SIZE);
+    // Seeking back after the song was moved into the cache
+    assertArrayEquals(Arrays.copyOfRange(this.song, 10, 20), read(source, 10, 10));
+    source.close();
+
+    assertEquals(1, this.server.getRequestCount());
+    this.assertCached();
+  }
+
+  private CachingDataSource open() throws IOException {
+    return new CachingDataSource(
+      this.cache,
+      null,
+      this.partialDir,
+      SONG_ID,
+      this.server.url("/song.mp3").toString(),
+      this.listener
+    );
+  }
+
+  /**
+   * A 206 response with the bytes from "start" to "end" (exclusive).
+   */
+  private MockResponse partial(int start, int end) {
+    return new MockResponse()
+      .setResponseCode(206)
+      .setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + SIZE)
+      .setBody(new Buffer().write(Arrays.copyOfRange(this.song, start, end)));
+  }
+
+  private void assertCached() throws IOException {
+    assertEquals(Arrays.asList(SONG_ID), this.cached);
+    File file = this.cache.get(SONG_ID);
+    assertNotNull(file);
+    assertArrayEquals(this.song, readFile(file));
+    assertFalse(new File(this.partialDir, SONG_ID + ".part").exists());
+    assertFalse(new File(this.partialDir, SONG_ID + ".ranges").exists());
+  }
+
+  /**
+   * Read "length" bytes starting at "position" the way MediaPlayer does, in small reads.
+   */
+  private static byte[] read(CachingDataSource source, long position, int length) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    while (output.size() < length) {
+      int read = source.readAt(position + output.size(), buffer, 0, Math.min(buffer.length, length - output.size()));
+      if (read == -1) break;
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    InputStream input = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+    } finally {
+      input.close();
+    }
+    return output.toByteArray();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    file.delete();
+  }
+}
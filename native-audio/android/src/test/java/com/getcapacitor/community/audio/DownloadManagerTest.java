@@ -0,0 +1,294 @@
+package com.getcapacitor.community.audio;
+
+import com.getcapacitor.JSArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downloads songs from MockWebServer and checks that a download which was cut off is reported and continues later,
+ * that the length is checked before the song is moved into the AudioCache and that a cleared download doesn't leave
+ * anything behind.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DownloadManagerTest {
+  private static final String SONG_ID = "song";
+  private static final int SIZE = 100 * 1024;
+  private static final int HALF = SIZE / 2;
+  private static final long TIMEOUT = 10000;
+
+  private final byte[] song = new byte[SIZE];
+  private final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+  private final DownloadManager.Listener listener = new DownloadManager.Listener() {
+    @Override
+    public void onProgress(JSArray downloads) {}
+
+    @Override
+    public void onComplete(String songId) {
+      completed.add(songId);
+    }
+
+    @Override
+    public void onError(String songId, String message) {
+      errors.add(songId + ": " + message);
+    }
+  };
+
+  private MockWebServer server;
+  private File root;
+  private File downloadDir;
+  private AudioCache cache;
+  private DownloadManager downloads;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(1).nextBytes(this.song);
+    this.server = new MockWebServer();
+    this.server.start();
+
+    this.root = File.createTempFile("downloads", null);
+    this.root.delete();
+    this.root.mkdirs();
+    this.downloadDir = new File(this.root, "downloads");
+    this.cache = new AudioCache(new File(this.root, "songs"), 10 * SIZE);
+    this.cache.init();
+    this.downloads = new DownloadManager(this.cache, this.downloadDir, this.listener);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.downloads.shutdown();
+    this.server.shutdown();
+    delete(this.root);
+  }
+
+  @Test
+  public void downloadsTheWholeSong() throws Exception {
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+
+    assertNull(this.server.takeRequest().getHeader("Range"));
+    assertEquals(Collections.singletonList(SONG_ID), this.completed);
+    this.assertCached();
+  }
+
+  @Test
+  public void reportsACutOffDownloadAndStartsAgain() throws Exception {
+    this.server.enqueue(
+      new MockResponse().setBody(new Buffer().write(this.song)).setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY)
+    );
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+    assertEquals(1, this.errors.size());
+    assertTrue(this.completed.isEmpty());
+    assertFalse(this.cache.contains(SONG_ID));
+    this.server.takeRequest();
+
+    // Queued again later (e.g. the next downloadSongs) and this time the server sends everything
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(2);
+
+    assertEquals(Collections.singletonList(SONG_ID), this.completed);
+    this.assertCached();
+  }
+
+  @Test
+  public void resumesWithARangeRequest() throws Exception {
+    this.writePartial(HALF);
+    this.server.enqueue(this.partial(HALF, SIZE, SIZE));
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+
+    assertEquals("bytes=" + HALF + "-", this.server.takeRequest().getHeader("Range"));
+    assertTrue(this.errors.isEmpty());
+    assertEquals(Collections.singletonList(SONG_ID), this.completed);
+    this.assertCached();
+  }
+
+  @Test
+  public void startsOverWhenTheRangeIsIgnored() throws Exception {
+    this.writePartial(HALF);
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+
+    assertEquals("bytes=" + HALF + "-", this.server.takeRequest().getHeader("Range"));
+    assertEquals(Collections.singletonList(SONG_ID), this.completed);
+    this.assertCached();
+  }
+
+  @Test
+  public void rejectsTheWrongLength() throws Exception {
+    this.writePartial(HALF);
+    // The server claims the song is longer than what it sends
+    this.server.enqueue(this.partial(HALF, SIZE, SIZE + 10));
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+
+    assertEquals(1, this.errors.size());
+    assertTrue(this.errors.get(0), this.errors.get(0).contains("Expected " + (SIZE + 10) + " bytes"));
+    assertTrue(this.completed.isEmpty());
+    assertFalse(this.cache.contains(SONG_ID));
+    // The next attempt starts from the beginning
+    assertFalse(this.partialFile().exists());
+  }
+
+  @Test
+  public void startsOverWhenTheRangeIsNotSatisfiable() throws Exception {
+    this.writePartial(SIZE);
+    this.server.enqueue(new MockResponse().setResponseCode(416));
+
+    this.downloads.download(SONG_ID, this.url());
+    this.awaitDone(1);
+
+    assertEquals(1, this.errors.size());
+    assertFalse(this.cache.contains(SONG_ID));
+    assertFalse(this.partialFile().exists());
+  }
+
+  @Test
+  public void clearStopsARunningDownload() throws Exception {
+    // One at a time so the second song only starts once the cleared one has stopped
+    this.downloads.setMaxTransfers(1);
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)).throttleBody(8 * 1024, 50, TimeUnit.MILLISECONDS));
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+
+    this.downloads.download(SONG_ID, this.url());
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (this.partialFile().length() == 0) {
+      assertTrue("The download didn't start", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+
+    this.downloads.clear();
+    this.downloads.download("other", this.url());
+    this.awaitDone(1);
+
+    // Cancelling isn't an error and the cleared song is neither cached nor written again
+    assertTrue(this.errors.toString(), this.errors.isEmpty());
+    assertEquals(Collections.singletonList("other"), this.completed);
+    assertFalse(this.cache.contains(SONG_ID));
+    assertFalse(this.partialFile().exists());
+  }
+
+  @Test
+  public void clearStopsADownloadThatIsWaitingForTheServer() throws Exception {
+    this.downloads.setMaxTransfers(1);
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+    this.server.enqueue(new MockResponse().setBody(new Buffer().write(this.song)));
+
+    this.downloads.download(SONG_ID, this.url());
+    // The request was sent and the task is waiting for the response when the downloads are cleared
+    this.server.takeRequest();
+    this.downloads.clear();
+    this.downloads.download("other", this.url());
+    this.awaitDone(1);
+
+    assertTrue(this.errors.toString(), this.errors.isEmpty());
+    assertEquals(Collections.singletonList("other"), this.completed);
+    assertFalse(this.cache.contains(SONG_ID));
+    assertFalse(this.partialFile().exists());
+  }
+
+  private String url() {
+    return this.server.url("/song.mp3").toString();
+  }
+
+  private File partialFile() {
+    return new File(this.downloadDir, SONG_ID + ".download");
+  }
+
+  /**
+   * What an earlier download left behind.
+   */
+  private void writePartial(int length) throws IOException {
+    this.downloadDir.mkdirs();
+    FileOutputStream output = new FileOutputStream(this.partialFile());
+    try {
+      output.write(this.song, 0, length);
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * A 206 response with the bytes from "start" to "end" (exclusive) of a song that is "total" bytes long.
+   */
+  private MockResponse partial(int start, int end, int total) {
+    return new MockResponse()
+      .setResponseCode(206)
+      .setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + total)
+      .setBody(new Buffer().write(Arrays.copyOfRange(this.song, start, end)));
+  }
+
+  /**
+   * Wait until "count" downloads have either completed or failed.
+   */
+  private void awaitDone(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (this.completed.size() + this.errors.size() < count) {
+      assertTrue("Timed out waiting for the downloads", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private void assertCached() throws IOException {
+    assertTrue(this.cache.contains(SONG_ID));
+    assertArrayEquals(this.song, readAll(this.cache.get(SONG_ID)));
+    assertFalse(this.partialFile().exists());
+  }
+
+  private static byte[] readAll(File file) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    InputStream input = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[8 * 1024];
+      int read;
+      while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+    } finally {
+      input.close();
+    }
+    return output.toByteArray();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    file.delete();
+  }
+}
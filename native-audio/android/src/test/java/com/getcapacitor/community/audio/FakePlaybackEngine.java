@@ -0,0 +1,170 @@
+package com.getcapacitor.community.audio;
+
+import android.media.MediaDataSource;
+
+import androidx.annotation.Nullable;
+
+/**
+ * An in-memory PlaybackEngine for tests that run on the JVM. Nothing is decoded and time doesn't pass by itself: the
+ * test decides when a song finishes preparing (finishPreparing), stalls (stall), fails (fail) and how far playback
+ * moves (advance). The listener is called synchronously. Calls that MediaPlayer would reject in the current state
+ * throw IllegalStateException so misuse shows up in tests.
+ */
+class FakePlaybackEngine implements PlaybackEngine {
+  enum State { IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, COMPLETED, ERROR, RELEASED }
+
+  // The duration of every song
+  static final int DURATION = 180000;
+
+  private Listener listener;
+  @Nullable
+  private PlaybackEngine next;
+  private State state = State.IDLE;
+  @Nullable
+  private String path;
+  private int position = 0;
+  private float volume = 1;
+
+  @Override
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void reset() {
+    this.check(this.state != State.RELEASED, "reset");
+    this.state = State.IDLE;
+    this.path = null;
+    this.position = 0;
+  }
+
+  @Override
+  public void setDataSource(String path) {
+    this.check(this.state == State.IDLE, "setDataSource");
+    this.path = path;
+    this.state = State.INITIALIZED;
+  }
+
+  @Override
+  public void setDataSource(MediaDataSource source) {
+    this.setDataSource("data-source");
+  }
+
+  @Override
+  public void prepareAsync() {
+    this.check(this.state == State.INITIALIZED || this.state == State.STOPPED, "prepareAsync");
+    this.state = State.PREPARING;
+  }
+
+  @Override
+  public void start() {
+    this.check(
+      this.state == State.PREPARED || this.state == State.STARTED || this.state == State.PAUSED || this.state == State.COMPLETED,
+      "start"
+    );
+    if (this.state == State.COMPLETED) this.position = 0;
+    this.state = State.STARTED;
+  }
+
+  @Override
+  public void pause() {
+    this.check(this.state == State.STARTED || this.state == State.PAUSED || this.state == State.COMPLETED, "pause");
+    if (this.state == State.STARTED) this.state = State.PAUSED;
+  }
+
+  @Override
+  public void stop() {
+    this.check(this.isPrepared() || this.state == State.STOPPED, "stop");
+    this.state = State.STOPPED;
+  }
+
+  @Override
+  public void seekTo(int ms, boolean exact) {
+    this.check(this.isPrepared(), "seekTo");
+    this.position = Math.max(0, Math.min(ms, DURATION));
+    this.listener.onSeekComplete(this);
+  }
+
+  @Override
+  public void setVolume(float volume) {
+    this.check(this.state != State.ERROR && this.state != State.RELEASED, "setVolume");
+    this.volume = volume;
+  }
+
+  @Override
+  public int getCurrentPosition() {
+    return this.position;
+  }
+
+  @Override
+  public int getDuration() {
+    return this.isPrepared() ? DURATION : -1;
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return this.state == State.STARTED;
+  }
+
+  @Override
+  public void setNext(@Nullable PlaybackEngine next) {
+    this.check(this.isPrepared(), "setNext");
+    this.next = next;
+  }
+
+  @Override
+  public void release() {
+    this.state = State.RELEASED;
+  }
+
+  State getState() {
+    return this.state;
+  }
+
+  @Nullable
+  String getPath() {
+    return this.path;
+  }
+
+  float getVolume() {
+    return this.volume;
+  }
+
+  void finishPreparing() {
+    this.check(this.state == State.PREPARING, "finishPreparing");
+    this.state = State.PREPARED;
+    this.listener.onPrepared(this);
+  }
+
+  void stall() {
+    this.listener.onStall(this);
+  }
+
+  void fail(String message) {
+    this.state = State.ERROR;
+    this.listener.onError(this, message);
+  }
+
+  /**
+   * Move playback forward. When the end of the song is reached the next engine is started (like MediaPlayer does
+   * with setNextMediaPlayer) and then onCompletion is called.
+   */
+  void advance(int ms) {
+    if (this.state != State.STARTED) return;
+
+    this.position = Math.min(this.position + ms, DURATION);
+    if (this.position < DURATION) return;
+
+    this.state = State.COMPLETED;
+    if (this.next != null) this.next.start();
+    this.listener.onCompletion(this);
+  }
+
+  private boolean isPrepared() {
+    return this.state == State.PREPARED || this.state == State.STARTED || this.state == State.PAUSED || this.state == State.COMPLETED;
+  }
+
+  private void check(boolean valid, String method) {
+    if (!valid) throw new IllegalStateException(method + " called in state " + this.state);
+  }
+}
@@ -0,0 +1,95 @@
+package com.getcapacitor.community.audio;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A PluginCall that records how it was settled instead of answering a WebView, so the plugin can be driven without a
+ * bridge.
+ */
+class FakePluginCall extends PluginCall {
+  private final CountDownLatch settled = new CountDownLatch(1);
+  @Nullable
+  private volatile JSObject result = null;
+  @Nullable
+  private volatile String error = null;
+
+  FakePluginCall(String methodName, JSObject data) {
+    super(null, "NativeAudio", "-1", methodName, data);
+  }
+
+  /**
+   * Wait for the call to be resolved and return what it was resolved with. Throws if it was rejected or never settled.
+   */
+  JSObject await() throws InterruptedException {
+    if (!this.settled.await(5, TimeUnit.SECONDS)) throw new AssertionError(this.getMethodName() + " never settled");
+    if (this.error != null) throw new AssertionError(this.getMethodName() + " was rejected: " + this.error);
+    return this.result;
+  }
+
+  boolean isSettled() {
+    return this.settled.getCount() == 0;
+  }
+
+  @Nullable
+  String getError() {
+    return this.error;
+  }
+
+  @Override
+  public void success() {
+    this.resolve(new JSObject());
+  }
+
+  @Override
+  public void success(JSObject data) {
+    this.resolve(data);
+  }
+
+  @Override
+  public void resolve() {
+    this.resolve(new JSObject());
+  }
+
+  @Override
+  public void resolve(JSObject data) {
+    this.result = data;
+    this.settled.countDown();
+  }
+
+  @Override
+  public void error(String msg) {
+    this.reject(msg, null, null);
+  }
+
+  @Override
+  public void error(String msg, Exception ex) {
+    this.reject(msg, null, ex);
+  }
+
+  @Override
+  public void error(String msg, String code, Exception ex) {
+    this.reject(msg, code, ex);
+  }
+
+  @Override
+  public void reject(String msg) {
+    this.reject(msg, null, null);
+  }
+
+  @Override
+  public void reject(String msg, Exception ex) {
+    this.reject(msg, null, ex);
+  }
+
+  @Override
+  public void reject(String msg, String code, Exception ex) {
+    this.error = msg;
+    this.settled.countDown();
+  }
+}
@@ -0,0 +1,98 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket edges of Histogram and how percentiles are picked from the buckets.
+ */
+public class HistogramTest {
+  @Test
+  public void emptyHistogram() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.percentile(0));
+    assertEquals(0, histogram.percentile(0.5));
+    assertEquals(0, histogram.percentile(1));
+  }
+
+  @Test
+  public void firstBucketIsUpToOneMs() {
+    Histogram histogram = new Histogram();
+    histogram.record(0);
+    histogram.record(1);
+    histogram.record(2);
+    assertEquals(3, histogram.getCount());
+    // 0 and 1 are in the first bucket and 2 is in the next one
+    assertEquals(1, histogram.percentile(0.5));
+    assertEquals(1, histogram.percentile(2.0 / 3));
+    assertEquals(2, histogram.percentile(1));
+  }
+
+  @Test
+  public void negativeDurationsCountAsZero() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getCount());
+    // The upper bound of the bucket is never more than the largest duration
+    assertEquals(0, histogram.percentile(0.5));
+  }
+
+  @Test
+  public void upperBoundIsCappedAtMax() {
+    Histogram histogram = new Histogram();
+    histogram.record(3);
+    histogram.record(100);
+    // 100 is in the 128 bucket
+    assertEquals(4, histogram.percentile(0.5));
+    assertEquals(100, histogram.percentile(1));
+  }
+
+  @Test
+  public void lastBucketReturnsMax() {
+    Histogram histogram = new Histogram();
+    // 65536 is the upper bound of the last bounded bucket, anything above that has no upper bound
+    histogram.record(65536);
+    histogram.record(65537);
+    histogram.record(1000000);
+    assertEquals(65536, histogram.percentile(1.0 / 3));
+    assertEquals(1000000, histogram.percentile(2.0 / 3));
+    assertEquals(1000000, histogram.percentile(1));
+  }
+
+  @Test
+  public void rankIsRoundedUp() {
+    Histogram histogram = new Histogram();
+    histogram.record(1);
+    histogram.record(2);
+    histogram.record(100);
+    histogram.record(200);
+    // 0.5 * 4 is exactly the second duration and anything above it is the third
+    assertEquals(2, histogram.percentile(0.5));
+    assertEquals(128, histogram.percentile(0.51));
+    assertEquals(200, histogram.percentile(0.99));
+  }
+
+  @Test
+  public void rankZeroIsTheFirstDuration() {
+    Histogram histogram = new Histogram();
+    histogram.record(5);
+    histogram.record(100);
+    // ceil(0 * count) is 0 which still has to land in a bucket that has something in it
+    assertEquals(8, histogram.percentile(0));
+  }
+
+  @Test
+  public void resetForgetsEverything() {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    histogram.record(100000);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.percentile(1));
+
+    histogram.record(3);
+    assertEquals(3, histogram.percentile(1));
+  }
+}
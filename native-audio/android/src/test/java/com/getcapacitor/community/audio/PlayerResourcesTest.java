@@ -0,0 +1,220 @@
+package com.getcapacitor.community.audio;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.media.session.MediaSession;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks that PlayerResources can be acquired and released any number of times and that release leaves nothing behind.
+ * AudioPlayerSoakTest does the same for whole playback sessions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PlayerResourcesTest {
+  private Application context;
+  private final List<FakePlaybackEngine> engines = new ArrayList<>();
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+    }
+  };
+  private final AudioManager.OnAudioFocusChangeListener focusListener = new AudioManager.OnAudioFocusChangeListener() {
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+    }
+  };
+  private final PlaybackEngine.Listener listener = new PlaybackEngine.Listener() {
+    @Override
+    public void onPrepared(PlaybackEngine engine) {
+    }
+
+    @Override
+    public void onCompletion(PlaybackEngine engine) {
+    }
+
+    @Override
+    public void onBufferingUpdate(PlaybackEngine engine, int percent) {
+    }
+
+    @Override
+    public void onSeekComplete(PlaybackEngine engine) {
+    }
+
+    @Override
+    public void onStall(PlaybackEngine engine) {
+    }
+
+    @Override
+    public void onError(PlaybackEngine engine, String message) {
+    }
+  };
+
+  @Before
+  public void setUp() {
+    this.context = RuntimeEnvironment.application;
+  }
+
+  @Test
+  public void releaseReleasesPlayingEngines() {
+    int receivers = this.registeredReceivers();
+    PlayerResources resources = this.createResources();
+    resources.acquire();
+    FakePlaybackEngine player = (FakePlaybackEngine) resources.createEngine();
+    FakePlaybackEngine next = (FakePlaybackEngine) resources.createEngine();
+    player.setDataSource("song");
+    player.prepareAsync();
+    player.finishPreparing();
+    player.start();
+    next.setDataSource("next");
+    next.prepareAsync();
+
+    resources.release();
+    assertEquals(0, this.liveEngines());
+    assertEquals(0, resources.getEngineCount());
+    assertEquals(receivers, this.registeredReceivers());
+    assertNull(resources.getMediaSession());
+  }
+
+  @Test
+  public void releaseGivesUpAudioFocus() {
+    PlayerResources resources = this.createResources();
+    resources.acquire();
+    assertTrue(resources.requestAudioFocus());
+
+    resources.release();
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    AudioFocusRequest request = shadowOf(audioManager).getLastAbandonedAudioFocusRequest();
+    assertNotNull(request);
+    // The plugin ducks itself
+    assertTrue(request.willPauseWhenDucked());
+  }
+
+  @Test
+  public void failedRequestKeepsAudioFocus() {
+    PlayerResources resources = this.createResources();
+    resources.acquire();
+    assertTrue(resources.requestAudioFocus());
+
+    // e.g. a call started while we were playing
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    shadowOf(audioManager).setNextFocusRequestResponse(AudioManager.AUDIOFOCUS_REQUEST_FAILED);
+    assertFalse(resources.requestAudioFocus());
+
+    // The first request still has to be given up
+    resources.release();
+    assertNotNull(shadowOf(audioManager).getLastAbandonedAudioFocusRequest());
+  }
+
+  @Test
+  public void failedRequestIsNotAbandoned() {
+    PlayerResources resources = this.createResources();
+    resources.acquire();
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    shadowOf(audioManager).setNextFocusRequestResponse(AudioManager.AUDIOFOCUS_REQUEST_FAILED);
+    assertFalse(resources.requestAudioFocus());
+
+    resources.release();
+    assertNull(shadowOf(audioManager).getLastAbandonedAudioFocusRequest());
+  }
+
+  @Test
+  @Config(sdk = 25)
+  public void releaseGivesUpAudioFocusBeforeOreo() {
+    PlayerResources resources = this.createResources();
+    resources.acquire();
+    assertTrue(resources.requestAudioFocus());
+
+    resources.release();
+    AudioManager audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    assertSame(this.focusListener, shadowOf(audioManager).getLastAbandonedAudioFocusListener());
+  }
+
+  @Test
+  public void releaseCanBeCalledMoreThanOnce() {
+    int receivers = this.registeredReceivers();
+    PlayerResources resources = this.createResources();
+
+    // Destroyed before anything was loaded
+    resources.release();
+    assertEquals(receivers, this.registeredReceivers());
+
+    resources.acquire();
+    resources.createEngine();
+    resources.release();
+    resources.release();
+    assertEquals(receivers, this.registeredReceivers());
+    assertEquals(0, this.liveEngines());
+    assertFalse(resources.isAcquired());
+  }
+
+  @Test
+  public void acquireCanBeCalledMoreThanOnce() {
+    int receivers = this.registeredReceivers();
+    PlayerResources resources = this.createResources();
+
+    resources.acquire();
+    MediaSession session = resources.getMediaSession();
+    resources.acquire();
+    assertSame(session, resources.getMediaSession());
+    assertEquals(receivers + 1, this.registeredReceivers());
+
+    resources.release();
+    assertEquals(receivers, this.registeredReceivers());
+  }
+
+  private PlayerResources createResources() {
+    IntentFilter filter = new IntentFilter();
+    filter.addAction("play");
+    filter.addAction("pause");
+    return new PlayerResources(
+      this.context,
+      new Handler(Looper.getMainLooper()),
+      this.receiver,
+      filter,
+      new MediaSession.Callback() {
+      },
+      this.focusListener,
+      new PlayerResources.EngineFactory() {
+        @Override
+        public PlaybackEngine create() {
+          FakePlaybackEngine engine = new FakePlaybackEngine();
+          engine.setListener(listener);
+          engines.add(engine);
+          return engine;
+        }
+      }
+    );
+  }
+
+  private int liveEngines() {
+    int live = 0;
+    for (FakePlaybackEngine engine : this.engines) {
+      if (engine.getState() != FakePlaybackEngine.State.RELEASED) live++;
+    }
+    return live;
+  }
+
+  private int registeredReceivers() {
+    return shadowOf(this.context).getRegisteredReceivers().size();
+  }
+}
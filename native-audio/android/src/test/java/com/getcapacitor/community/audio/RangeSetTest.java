@@ -0,0 +1,137 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that RangeSet merges overlapping and adjacent ranges and answers lookups at the edges of ranges.
+ */
+public class RangeSetTest {
+  @Test
+  public void emptySet() {
+    RangeSet set = new RangeSet();
+    assertEquals(-1, set.endOf(0));
+    assertEquals(-1, set.nextStart(0));
+    assertEquals(0, set.total());
+    assertFalse(set.covers(0, 1));
+  }
+
+  @Test
+  public void emptyRangesAreIgnored() {
+    RangeSet set = new RangeSet();
+    set.add(10, 10);
+    set.add(20, 5);
+    assertEquals(0, set.total());
+    assertEquals(-1, set.nextStart(0));
+  }
+
+  @Test
+  public void endIsExclusive() {
+    RangeSet set = new RangeSet();
+    set.add(10, 20);
+    assertEquals(-1, set.endOf(9));
+    assertEquals(20, set.endOf(10));
+    assertEquals(20, set.endOf(19));
+    assertEquals(-1, set.endOf(20));
+  }
+
+  @Test
+  public void separateRangesStaySeparate() {
+    RangeSet set = new RangeSet();
+    set.add(30, 40);
+    set.add(0, 10);
+    assertEquals(10, set.endOf(0));
+    assertEquals(-1, set.endOf(10));
+    assertEquals(30, set.nextStart(10));
+    assertEquals(-1, set.nextStart(30));
+    assertEquals(20, set.total());
+    assertFalse(set.covers(0, 40));
+  }
+
+  @Test
+  public void adjacentRangesAreMerged() {
+    RangeSet set = new RangeSet();
+    set.add(0, 10);
+    set.add(10, 20);
+    // Adjacent on the other side
+    set.add(-5, 0);
+    assertEquals(20, set.endOf(-5));
+    assertEquals(-1, set.nextStart(-5));
+    assertEquals(25, set.total());
+    assertTrue(set.covers(-5, 20));
+  }
+
+  @Test
+  public void overlappingRangesAreMerged() {
+    RangeSet set = new RangeSet();
+    set.add(0, 10);
+    set.add(5, 15);
+    assertEquals(15, set.endOf(0));
+    assertEquals(15, set.total());
+
+    // Starts before an existing range and ends inside it
+    set.add(-5, 3);
+    assertEquals(15, set.endOf(-5));
+    assertEquals(20, set.total());
+  }
+
+  @Test
+  public void containedRangesChangeNothing() {
+    RangeSet set = new RangeSet();
+    set.add(0, 100);
+    set.add(10, 20);
+    set.add(0, 100);
+    assertEquals(100, set.endOf(50));
+    assertEquals(100, set.total());
+  }
+
+  @Test
+  public void oneRangeCanSwallowMany() {
+    RangeSet set = new RangeSet();
+    set.add(0, 10);
+    set.add(20, 30);
+    set.add(40, 50);
+    set.add(60, 70);
+    set.add(5, 65);
+    assertEquals(70, set.endOf(0));
+    assertEquals(-1, set.nextStart(0));
+    assertEquals(70, set.total());
+    assertTrue(set.covers(0, 70));
+  }
+
+  @Test
+  public void fillingTheGapsCoversTheWholeSong() {
+    RangeSet set = new RangeSet();
+    set.add(0, 100);
+    set.add(200, 300);
+    assertFalse(set.covers(0, 300));
+    assertEquals(200, set.nextStart(100));
+
+    set.add(100, 200);
+    assertTrue(set.covers(0, 300));
+    assertTrue(set.covers(150, 300));
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    RangeSet set = new RangeSet();
+    set.add(0, 10);
+    set.add(20, 30);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    set.write(new DataOutputStream(bytes));
+    RangeSet read = RangeSet.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(10, read.endOf(0));
+    assertEquals(20, read.nextStart(10));
+    assertEquals(30, read.endOf(25));
+    assertEquals(20, read.total());
+  }
+}
@@ -0,0 +1,165 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saves sessions, reads them back with a new store (like after the process was killed) and checks that a damaged file
+ * loses as little as possible.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SessionStoreTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    this.file = File.createTempFile("session", null);
+    this.file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    this.file.delete();
+  }
+
+  @Test
+  public void nothingSaved() {
+    assertNull(new SessionStore(this.file).load());
+  }
+
+  @Test
+  public void restoresTheQueue() {
+    List<PlayQueue.Track> tracks = Arrays.asList(
+      track("a", "song-a"),
+      new PlayQueue.Track("file:///b.mp3", null, new Info("B", null, "https://example.com/b.jpg", null)),
+      track("c", "song-c")
+    );
+
+    SessionStore store = new SessionStore(this.file);
+    store.save(tracks, 1, true, 12345);
+    store.shutdown();
+
+    SessionStore.Session session = new SessionStore(this.file).load();
+    assertNotNull(session);
+    assertTrue(session.queued);
+    assertEquals(1, session.index);
+    assertEquals(12345, session.position);
+    assertEquals(3, session.tracks.size());
+
+    PlayQueue.Track b = session.tracks.get(1);
+    assertEquals("file:///b.mp3", b.url);
+    assertNull(b.songId);
+    assertEquals("B", b.info.title);
+    assertEquals("Unknown Artist", b.info.artist);
+    assertEquals("Unknown Album", b.info.album);
+    assertEquals("https://example.com/b.jpg", b.info.cover);
+    assertEquals("song-c", session.tracks.get(2).songId);
+    assertNull(session.tracks.get(2).info.cover);
+  }
+
+  @Test
+  public void positionIsUpdatedWithoutTheSongs() {
+    SessionStore store = new SessionStore(this.file);
+    store.save(Collections.singletonList(track("a", "song-a")), 0, false, 1000);
+    store.shutdown();
+    long length = this.file.length();
+
+    store = new SessionStore(this.file);
+    store.savePosition(2000);
+    store.savePosition(3000);
+    store.shutdown();
+
+    assertEquals(length, this.file.length());
+    SessionStore.Session session = new SessionStore(this.file).load();
+    assertNotNull(session);
+    assertFalse(session.queued);
+    assertEquals(3000, session.position);
+    assertEquals("song-a", session.tracks.get(0).songId);
+  }
+
+  @Test
+  public void positionWithoutSongsIsIgnored() {
+    SessionStore store = new SessionStore(this.file);
+    store.savePosition(2000);
+    store.shutdown();
+
+    assertFalse(this.file.exists());
+  }
+
+  @Test
+  public void clearForgetsTheSession() {
+    SessionStore store = new SessionStore(this.file);
+    store.save(Collections.singletonList(track("a", "song-a")), 0, false, 1000);
+    store.shutdown();
+
+    store = new SessionStore(this.file);
+    store.clear();
+    store.savePosition(2000);
+    store.shutdown();
+
+    assertNull(new SessionStore(this.file).load());
+  }
+
+  @Test
+  public void damagedPositionKeepsTheSongs() throws IOException {
+    SessionStore store = new SessionStore(this.file);
+    store.save(Collections.singletonList(track("a", "song-a")), 0, false, 1000);
+    store.shutdown();
+
+    this.corrupt(8);
+    SessionStore.Session session = new SessionStore(this.file).load();
+    assertNotNull(session);
+    assertEquals(0, session.position);
+    assertEquals("song-a", session.tracks.get(0).songId);
+  }
+
+  @Test
+  public void damagedSongsLoseTheSession() throws IOException {
+    SessionStore store = new SessionStore(this.file);
+    store.save(Collections.singletonList(track("a", "song-a")), 0, false, 1000);
+    store.shutdown();
+
+    this.corrupt(30);
+    assertNull(new SessionStore(this.file).load());
+    assertFalse(this.file.exists());
+  }
+
+  @Test
+  public void savesAfterShutdownAreIgnored() {
+    SessionStore store = new SessionStore(this.file);
+    store.shutdown();
+    store.save(Collections.singletonList(track("a", "song-a")), 0, false, 1000);
+
+    assertNull(new SessionStore(this.file).load());
+  }
+
+  private void corrupt(int offset) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(this.file, "rw");
+    try {
+      file.seek(offset);
+      int value = file.read();
+      file.seek(offset);
+      file.write(value ^ 0xff);
+    } finally {
+      file.close();
+    }
+  }
+
+  private static PlayQueue.Track track(String name, String songId) {
+    return new PlayQueue.Track("https://example.com/" + name + ".mp3", songId, new Info(name, "Artist", null, "Album"));
+  }
+}
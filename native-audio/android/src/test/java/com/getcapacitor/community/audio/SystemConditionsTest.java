@@ -0,0 +1,194 @@
+package com.getcapacitor.community.audio;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowNetwork;
+import org.robolectric.shadows.ShadowNetworkCapabilities;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Sends network callbacks (or broadcasts before API 24) and battery broadcasts and checks that the listener only hears
+ * about the ones that can change what TransferPolicy decides.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class SystemConditionsTest {
+  private final Network network = ShadowNetwork.newInstance(1);
+  private Application context;
+  private SystemConditions conditions;
+  private int changes = 0;
+
+  private final ConditionsSource.Listener listener = new ConditionsSource.Listener() {
+    @Override
+    public void onChanged(Conditions conditions) {
+      changes++;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    this.context = RuntimeEnvironment.application;
+    // The battery broadcast is sticky so this is what "start" reads
+    this.sendBattery(80, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    this.conditions = new SystemConditions(this.context, new Handler(Looper.getMainLooper()), this.context.getFilesDir());
+    this.conditions.start(this.listener);
+    shadowOf(Looper.getMainLooper()).idle();
+    this.changes = 0;
+  }
+
+  @After
+  public void tearDown() {
+    this.conditions.stop();
+  }
+
+  @Test
+  public void ignoresBatteryPercent() {
+    this.sendBattery(79, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    this.sendBattery(50, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    this.sendBattery(TransferPolicy.LOW_BATTERY_PERCENT + 1, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    assertEquals(0, this.changes);
+    assertEquals(TransferPolicy.LOW_BATTERY_PERCENT + 1, this.conditions.get().batteryPercent);
+  }
+
+  @Test
+  public void reportsLowBattery() {
+    this.sendBattery(TransferPolicy.LOW_BATTERY_PERCENT, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    assertEquals(1, this.changes);
+
+    this.sendBattery(TransferPolicy.LOW_BATTERY_PERCENT - 5, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    assertEquals(1, this.changes);
+
+    this.sendBattery(TransferPolicy.LOW_BATTERY_PERCENT + 1, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    assertEquals(2, this.changes);
+  }
+
+  @Test
+  public void reportsCharging() {
+    this.sendBattery(80, BatteryManager.BATTERY_STATUS_CHARGING);
+    assertEquals(1, this.changes);
+    assertTrue(this.conditions.get().charging);
+
+    // Still charging
+    this.sendBattery(81, BatteryManager.BATTERY_STATUS_CHARGING);
+    this.sendBattery(100, BatteryManager.BATTERY_STATUS_FULL);
+    assertEquals(1, this.changes);
+
+    this.sendBattery(100, BatteryManager.BATTERY_STATUS_DISCHARGING);
+    assertEquals(2, this.changes);
+  }
+
+  @Test
+  public void reportsDisconnecting() {
+    this.sendNetwork(true);
+    this.changes = 0;
+
+    for (ConnectivityManager.NetworkCallback callback : this.networkCallbacks()) callback.onLost(this.network);
+    shadowOf(Looper.getMainLooper()).idle();
+    assertEquals(1, this.changes);
+    assertFalse(this.conditions.get().connected);
+
+    // Nothing changed
+    for (ConnectivityManager.NetworkCallback callback : this.networkCallbacks()) callback.onLost(this.network);
+    shadowOf(Looper.getMainLooper()).idle();
+    assertEquals(1, this.changes);
+  }
+
+  @Test
+  public void reportsMetered() {
+    this.sendNetwork(true);
+    this.changes = 0;
+
+    // Going from Wi-Fi to mobile data
+    this.sendNetwork(false);
+    assertEquals(1, this.changes);
+    assertTrue(this.conditions.get().connected);
+    assertTrue(this.conditions.get().metered);
+
+    this.sendNetwork(false);
+    assertEquals(1, this.changes);
+
+    this.sendNetwork(true);
+    assertEquals(2, this.changes);
+    assertFalse(this.conditions.get().metered);
+  }
+
+  @Test
+  @Config(sdk = 23)
+  public void reportsDisconnectingBeforeNougat() {
+    assertTrue(this.networkCallbacks().isEmpty());
+
+    shadowOf(this.connectivityManager()).setActiveNetworkInfo(null);
+    this.send(new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+    assertEquals(1, this.changes);
+    assertFalse(this.conditions.get().connected);
+
+    // Nothing changed
+    this.send(new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+    assertEquals(1, this.changes);
+  }
+
+  @Test
+  public void stopsListening() {
+    assertEquals(1, this.networkCallbacks().size());
+    this.conditions.stop();
+    assertTrue(this.networkCallbacks().isEmpty());
+    this.sendBattery(80, BatteryManager.BATTERY_STATUS_CHARGING);
+    assertEquals(0, this.changes);
+  }
+
+  private ConnectivityManager connectivityManager() {
+    return (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+  }
+
+  private Set<ConnectivityManager.NetworkCallback> networkCallbacks() {
+    return shadowOf(this.connectivityManager()).getNetworkCallbacks();
+  }
+
+  /**
+   * Tell the default network callback that there is a network with internet access.
+   */
+  private void sendNetwork(boolean unmetered) {
+    NetworkCapabilities capabilities = ShadowNetworkCapabilities.newInstance();
+    shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    if (unmetered) shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    for (ConnectivityManager.NetworkCallback callback : this.networkCallbacks()) {
+      callback.onCapabilitiesChanged(this.network, capabilities);
+    }
+    shadowOf(Looper.getMainLooper()).idle();
+  }
+
+  private void sendBattery(int percent, int status) {
+    Intent intent = new Intent(Intent.ACTION_BATTERY_CHANGED)
+      .putExtra(BatteryManager.EXTRA_LEVEL, percent)
+      .putExtra(BatteryManager.EXTRA_SCALE, 100)
+      .putExtra(BatteryManager.EXTRA_STATUS, status);
+    this.context.sendStickyBroadcast(intent);
+    shadowOf(Looper.getMainLooper()).idle();
+  }
+
+  private void send(Intent intent) {
+    this.context.sendBroadcast(intent);
+    shadowOf(Looper.getMainLooper()).idle();
+  }
+}
@@ -0,0 +1,143 @@
+package com.getcapacitor.community.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the decisions of TransferPolicy under simulated network, battery and storage conditions.
+ */
+public class TransferPolicyTest {
+  private static final long GB = 1024L * 1024 * 1024;
+
+  private static class FakeConditions implements ConditionsSource {
+    Conditions conditions = Conditions.UNKNOWN;
+    ConditionsSource.Listener listener = null;
+
+    @Override
+    public Conditions get() {
+      return this.conditions;
+    }
+
+    @Override
+    public void start(Listener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+      this.listener = null;
+    }
+
+    void set(Conditions conditions) {
+      this.conditions = conditions;
+      if (this.listener != null) this.listener.onChanged(conditions);
+    }
+  }
+
+  private final FakeConditions source = new FakeConditions();
+  private final TransferPolicy policy = new TransferPolicy(this.source);
+
+  @Test
+  public void unknownConditionsKeepTheDefaults() {
+    assertEquals(2, this.policy.prefetchDepth(2));
+    assertEquals(3, this.policy.maxTransfers());
+    assertTrue(this.policy.allowHeads());
+    assertEquals(100, this.policy.cacheBytes(100, 50));
+  }
+
+  @Test
+  public void meteredPrefetchesLess() {
+    this.source.set(new Conditions(true, true, false, 80, 10 * GB));
+    assertEquals(1, this.policy.prefetchDepth(4));
+    assertEquals(0, this.policy.prefetchDepth(0));
+    assertEquals(1, this.policy.maxTransfers());
+    assertFalse(this.policy.allowHeads());
+  }
+
+  @Test
+  public void meteredWhileChargingIsStillMetered() {
+    this.source.set(new Conditions(true, true, true, 80, 10 * GB));
+    assertEquals(1, this.policy.prefetchDepth(4));
+    assertEquals(1, this.policy.maxTransfers());
+  }
+
+  @Test
+  public void unmeteredWhileChargingIsAggressive() {
+    this.source.set(new Conditions(true, false, true, 50, 10 * GB));
+    assertEquals(4, this.policy.prefetchDepth(2));
+    assertEquals(TransferPolicy.MAX_PREFETCH, this.policy.prefetchDepth(6));
+    assertEquals(4, this.policy.maxTransfers());
+    assertTrue(this.policy.allowHeads());
+  }
+
+  @Test
+  public void lowBatteryActsLikeMetered() {
+    this.source.set(new Conditions(true, false, false, TransferPolicy.LOW_BATTERY_PERCENT, 10 * GB));
+    assertEquals(1, this.policy.prefetchDepth(2));
+    assertEquals(1, this.policy.maxTransfers());
+    assertFalse(this.policy.allowHeads());
+
+    // A low battery that is charging is fine
+    this.source.set(new Conditions(true, false, true, TransferPolicy.LOW_BATTERY_PERCENT, 10 * GB));
+    assertEquals(4, this.policy.prefetchDepth(2));
+  }
+
+  @Test
+  public void offlineDownloadsNothingAhead() {
+    this.source.set(new Conditions(false, false, true, 100, 10 * GB));
+    assertEquals(0, this.policy.prefetchDepth(2));
+    assertEquals(1, this.policy.maxTransfers());
+    assertFalse(this.policy.allowHeads());
+  }
+
+  @Test
+  public void lowStorageHoldsBack() {
+    this.source.set(new Conditions(true, false, true, 100, TransferPolicy.STORAGE_RESERVE - 1));
+    assertEquals(0, this.policy.prefetchDepth(2));
+    assertFalse(this.policy.allowHeads());
+    // Songs that were asked for still download
+    assertEquals(4, this.policy.maxTransfers());
+  }
+
+  @Test
+  public void cacheNeverEatsTheReserve() {
+    long configured = 2 * GB;
+
+    // Plenty of space
+    this.source.set(new Conditions(true, false, false, 80, 10 * GB));
+    assertEquals(configured, this.policy.cacheBytes(configured, GB));
+
+    // The cache can only grow by what is free above the reserve
+    this.source.set(new Conditions(true, false, false, 80, TransferPolicy.STORAGE_RESERVE + 100));
+    assertEquals(GB + 100, this.policy.cacheBytes(configured, GB));
+
+    // Below the reserve the cache shrinks to give the space back
+    this.source.set(new Conditions(true, false, false, 80, TransferPolicy.STORAGE_RESERVE - 100));
+    assertEquals(GB - 100, this.policy.cacheBytes(configured, GB));
+
+    // But never below 0
+    this.source.set(new Conditions(true, false, false, 80, 0));
+    assertEquals(0, this.policy.cacheBytes(configured, 100));
+  }
+
+  @Test
+  public void listenerHearsAboutChanges() {
+    final Conditions[] heard = new Conditions[1];
+    this.policy.start(new ConditionsSource.Listener() {
+      @Override
+      public void onChanged(Conditions conditions) {
+        heard[0] = conditions;
+      }
+    });
+
+    Conditions metered = new Conditions(true, true, false, 80, 10 * GB);
+    this.source.set(metered);
+    assertSame(metered, heard[0]);
+    assertSame(metered, this.policy.getConditions());
+
+    this.policy.stop();
+    this.source.set(Conditions.UNKNOWN);
+    assertSame(metered, heard[0]);
+  }
+}
@@ -9,8 +9,32 @@ declare module "@capacitor/core" {
 export interface NativeAudioPlugin {
   /**
    * Load a file so that it is ready to play. This wipes away all previous info center information.
+   *
+   * If another `preload` call comes in before this one finishes, this one is rejected.
    */
   preload(options: PreloadOptions): Promise<void>;
+  /**
+   * Load the song that should play after the currently loaded song. When the current song finishes, the next song
+   * starts without any silence and "next-started" is emitted instead of "complete". Calling `preload` or `stop`
+   * discards the next song.
+   */
+  preloadNext(options: PreloadOptions): Promise<void>;
+  /**
+   * Give the plugin the list of songs to play and load the song at `index`. From then on, the plugin moves through the
+   * queue by itself when a song completes or when next/previous is pressed (including from the notification and
+   * headphones) and emits "index-changed" instead of "complete", "next" and "previous". The next song is prepared for
+   * gapless playback and the `prefetch` (defaults to 2) songs after that are downloaded ahead of time. On Android,
+   * fewer songs are downloaded ahead on metered connections, a low battery or low storage and more on Wi-Fi while
+   * charging.
+   *
+   * Calling `preload`, `preloadNext` or `stop` hands control back to JS.
+   */
+  setQueue(options: QueueOptions & { prefetch?: number }): Promise<void>;
+  /**
+   * Replace the songs in the queue without interrupting the current song (e.g. after a reorder or shuffle). The song
+   * at `index` must be the currently loaded song.
+   */
+  updateQueue(options: QueueOptions): Promise<void>;
   /**
    * Play the currently loaded song.
    */
@@ -31,20 +55,83 @@ export interface NativeAudioPlugin {
    * Set the time of the currently loaded song.
    */
   setCurrentTime(opts: { currentTime: number }): Promise<void>;
+  /**
+   * Start dragging the seek bar. "timeupdate" isn't sent until `endScrub` is called.
+   */
+  beginScrub(): Promise<void>;
+  /**
+   * Move to the position under the user's finger. This seek is fast but approximate and, if a seek is still running,
+   * only the newest position is used.
+   */
+  updateScrub(opts: { currentTime: number }): Promise<void>;
+  /**
+   * Stop dragging the seek bar and seek exactly to `currentTime`.
+   */
+  endScrub(opts: { currentTime: number }): Promise<void>;
+  /**
+   * Set how often (in milliseconds) "timeupdate" is sent while a song is playing. Set to `0` to disable the event.
+   * Defaults to `1000`.
+   */
+  setTimeUpdateInterval(options: { interval: number }): Promise<void>;
+  /**
+   * Set how long (in milliseconds) the end of a song overlaps with the start of the next song (see `preloadNext` and
+   * `setQueue`). Set to `0` to go back to gapless playback. Defaults to `0`. Only supported on Android.
+   */
+  setCrossfade(options: { duration: number }): Promise<void>;
   /**
    * Get the duration of the currently loaded song.
    */
   getDuration(): Promise<{ duration: number }>;
   /**
-   * Pause the music and remove all data from the info center.
+   * Get the playback state. This answers immediately, even while a song is loading.
+   */
+  getState(): Promise<PlaybackStatus>;
+  /**
+   * Pause the music and remove all data from the info center. On Android, this also deletes every cached song.
    */
   clearCache(): Promise<void>;
+  /**
+   * Set the maximum number of bytes the song cache can use. Least recently played songs are removed first. On
+   * Android, the cache is kept smaller when storage is low.
+   */
+  setCacheSize(options: { maxBytes: number }): Promise<void>;
+  /**
+   * Download the start of songs that are likely to be played soon (e.g. the songs that are on screen) so that they
+   * start instantly if they are picked. Calling this again replaces the songs that haven't been downloaded yet. Only
+   * supported on Android 6.0+ and skipped on metered connections, a low battery or low storage.
+   */
+  prefetchHeads(options: { songs: { path: string; songId: string }[] }): Promise<void>;
+  /**
+   * Download whole songs for offline playback. Songs that are already downloaded or downloading are skipped. Downloads
+   * that were cancelled or interrupted continue where they stopped. Only supported on Android.
+   */
+  downloadSongs(options: { songs: { path: string; songId: string }[] }): Promise<void>;
+  /**
+   * Stop downloading the given songs (or every song if `songIds` isn't given).
+   */
+  cancelDownloads(options?: { songIds?: string[] }): Promise<void>;
+  /**
+   * Get the quietest (`min`) and loudest (`max`) sample (-1 to 1) in each of `buckets` equal parts of a song for
+   * drawing a waveform. The song is decoded from the cache if it's there, otherwise from `path`. The result is saved
+   * so each song is only analyzed once. Only supported on Android.
+   */
+  getWaveform(options: { songId: string; buckets: number; path?: string }): Promise<{ min: number[]; max: number[] }>;
+  /**
+   * Get how long playback takes to start, seek, etc. since the app started (or since the last reset). Only supported on
+   * Android.
+   */
+  getMetrics(options?: { reset?: boolean }): Promise<Metrics>;
+  /**
+   * Set how often (in milliseconds) "metrics" is sent. Set to `0` to disable the event. Defaults to `0`.
+   */
+  setMetricsInterval(options: { interval: number }): Promise<void>;
   stop(): Promise<void>;
 
   /**
    * Add a listener for one of the various events.
    *
    * complete -> the current song is complete
+   * next-started -> the current song is complete and the song given to `preloadNext` has started playing
    * play -> the song should play
    * pause -> the song should pause
    * next -> the song should go to the next song
@@ -52,7 +139,7 @@ export interface NativeAudioPlugin {
    * stop -> the song should stop playing and all state should be reset
    */
   addListener(
-    eventName: "complete" | "play" | "pause" | "next" | "previous" | "stop",
+    eventName: "complete" | "next-started" | "play" | "pause" | "next" | "previous" | "stop",
     listenerFunc: () => void
   ): PluginListenerHandle;
 
@@ -65,6 +152,52 @@ export interface NativeAudioPlugin {
     listenerFunc: (data: { message: string }) => void
   ): PluginListenerHandle;
 
+  /**
+   * Sent periodically while a song is playing (see `setTimeUpdateInterval`). This isn't sent while paused or while the
+   * app is in the background. All values are in seconds.
+   */
+  addListener(
+    eventName: "timeupdate",
+    listenerFunc: (data: { currentTime: number; duration: number; buffered: number }) => void
+  ): PluginListenerHandle;
+
+  /**
+   * Sent when the plugin moves to another song in the queue given to `setQueue`.
+   */
+  addListener(
+    eventName: "index-changed",
+    listenerFunc: (data: { index: number }) => void
+  ): PluginListenerHandle;
+
+  /**
+   * Android only. Sent at startup with the song (and queue) that was loaded before the app was killed and the saved
+   * position. The song is prepared at the saved position in the background so `play` (or next/previous) starts right
+   * away without calling `preload`. The notification isn't shown until then. Calling `stop` forgets the saved session.
+   */
+  addListener(
+    eventName: "session-restored",
+    listenerFunc: (data: PlaybackStatus) => void
+  ): PluginListenerHandle;
+
+  /**
+   * Android only. Sent once per interruption by another app (e.g. a navigation prompt or a call), after it ends.
+   * Playback is handled natively: `"duck"` lowers the volume while the other app plays, `"pause"` pauses and resumes
+   * when the other app is done (`resumed` is `true` if playback was resumed) and `"stop"` pauses for good since the
+   * other app took over. `duration` is how long the interruption lasted in seconds.
+   */
+  addListener(
+    eventName: "audio-focus",
+    listenerFunc: (data: { loss: "duck" | "pause" | "stop"; resumed: boolean; duration: number }) => void
+  ): PluginListenerHandle;
+
+  /**
+   * Sent periodically (see `setMetricsInterval`).
+   */
+  addListener(
+    eventName: "metrics",
+    listenerFunc: (data: Metrics) => void
+  ): PluginListenerHandle;
+
   addListener(
     eventName: "init-offline",
     listenerFunc: (data: { songIds: string[] }) => void
@@ -74,10 +207,28 @@ export interface NativeAudioPlugin {
     eventName: "download-complete",
     listenerFunc: (data: { songId: string }) => void
   ): PluginListenerHandle;
+
+  /**
+   * Sent every half second while songs given to `downloadSongs` are downloading. Only the songs that made progress are
+   * included. `total` is `-1` if the size isn't known.
+   */
+  addListener(
+    eventName: "download-progress",
+    listenerFunc: (data: { downloads: { songId: string; loaded: number; total: number }[] }) => void
+  ): PluginListenerHandle;
+
+  addListener(
+    eventName: "download-error",
+    listenerFunc: (data: { songId: string; message: string }) => void
+  ): PluginListenerHandle;
 }
 
 export interface PreloadOptions {
   path: string;
+  /**
+   * Used as the cache key. If this isn't given, the song is always streamed from `path`.
+   */
+  songId?: string;
   title: string;
   artist: string;
   album: string;
@@ -87,3 +238,66 @@ export interface PreloadOptions {
   cover?: string;
   volume?: number;
 }
+
+export interface QueueOptions {
+  songs: Omit<PreloadOptions, "volume">[];
+  index: number;
+}
+
+/**
+ * A summary of a set of durations. All values are in milliseconds.
+ */
+export interface PlaybackStatus {
+  status: "idle" | "loading" | "paused" | "playing" | "ended" | "error";
+  songId?: string;
+  title?: string;
+  artist?: string;
+  album?: string;
+  /**
+   * The position in the queue given to `setQueue` or `-1` if there is no queue.
+   */
+  index: number;
+  /**
+   * All in seconds.
+   */
+  currentTime: number;
+  duration: number;
+  buffered: number;
+}
+
+export interface Timings {
+  count: number;
+  mean: number;
+  min: number;
+  max: number;
+  p50: number;
+  p90: number;
+  p99: number;
+}
+
+export interface Metrics {
+  /**
+   * From loading a song to the song being ready to play.
+   */
+  preload: Timings;
+  /**
+   * From pressing play to the song actually playing.
+   */
+  firstAudio: Timings;
+  /**
+   * From seeking to playback continuing at the new position.
+   */
+  seek: Timings;
+  cover: Timings;
+  notification: Timings;
+  /**
+   * How many times playback stopped to wait for more data.
+   */
+  stalls: number;
+  errors: number;
+  /**
+   * How long (in milliseconds) the plugin took to load when the app started and to set up the media session and
+   * players the first time something was loaded. `-1` if that hasn't happened yet. These aren't reset.
+   */
+  startup: { load: number; setUp: number };
+}
@@ -1,5 +1,5 @@
 import { WebPlugin } from "@capacitor/core";
-import { NativeAudioPlugin, PreloadOptions } from "./definitions";
+import { Metrics, NativeAudioPlugin, PlaybackStatus, PreloadOptions, QueueOptions, Timings } from "./definitions";
 
 export class NativeAudioWeb extends WebPlugin implements NativeAudioPlugin {
   // FIXME Fix https://sentry.io/organizations/relar/issues/1976465264/?project=5258806&query=is%3Aunresolved
@@ -10,6 +10,8 @@ export class NativeAudioWeb extends WebPlugin implements NativeAudioPlugin {
   // crossOrigin="anonymous"
   // preload="metadata"
   private audioElement = document.createElement("audio");
+  private next: PreloadOptions | undefined;
+  private queue: QueueOptions | undefined;
 
   constructor() {
     super({
@@ -20,7 +22,30 @@ export class NativeAudioWeb extends WebPlugin implements NativeAudioPlugin {
     document.body.appendChild(this.audioElement);
 
     this.audioElement.onended = () => {
-      this.notifyListeners("complete", {});
+      if (this.queue) {
+        this.moveInQueue(1);
+        return;
+      }
+
+      // There is no gapless playback on the web but we can at least skip the round trip
+      const next = this.next;
+      if (!next) {
+        this.notifyListeners("complete", {});
+        return;
+      }
+
+      this.preload(next).then(() => this.play());
+      this.notifyListeners("next-started", {});
+    };
+
+    // The browser already sends these every 15 to 250 ms while playing
+    this.audioElement.ontimeupdate = () => {
+      const { currentTime, duration, buffered } = this.audioElement;
+      this.notifyListeners("timeupdate", {
+        currentTime,
+        duration,
+        buffered: buffered.length ? buffered.end(buffered.length - 1) : 0,
+      });
     };
   }
 
@@ -34,16 +59,101 @@ export class NativeAudioWeb extends WebPlugin implements NativeAudioPlugin {
     // Nothing to do
   }
 
+  async setCacheSize() {
+    // Nothing to do
+  }
+
+  async setTimeUpdateInterval() {
+    // The browser decides how often "timeupdate" is sent
+  }
+
+  async setCrossfade() {
+    // Not supported
+  }
+
+  async prefetchHeads() {
+    // The browser decides what to cache
+  }
+
+  async downloadSongs() {
+    // Not supported
+  }
+
+  async cancelDownloads() {
+    // Not supported
+  }
+
+  async getWaveform(): Promise<{ min: number[]; max: number[] }> {
+    // Not supported
+    return { min: [], max: [] };
+  }
+
+  async getMetrics(): Promise<Metrics> {
+    // Not supported
+    const empty: Timings = { count: 0, mean: 0, min: 0, max: 0, p50: 0, p90: 0, p99: 0 };
+    return {
+      preload: empty,
+      firstAudio: empty,
+      seek: empty,
+      cover: empty,
+      notification: empty,
+      stalls: 0,
+      errors: 0,
+      startup: { load: 0, setUp: 0 },
+    };
+  }
+
+  async setMetricsInterval() {
+    // Not supported
+  }
+
   async pause(): Promise<void> {
     this.audioElement.pause();
   }
 
   async preload(options: PreloadOptions): Promise<void> {
-    this.audioElement.src = options.path;
+    this.queue = undefined;
+    this.loadSong(options);
     this.setVolume({ volume: options.volume ?? 1.0 });
   }
 
+  async setQueue(options: QueueOptions): Promise<void> {
+    this.queue = { songs: options.songs, index: options.index };
+    this.loadSong(options.songs[options.index]);
+  }
+
+  async updateQueue(options: QueueOptions): Promise<void> {
+    if (!this.queue) throw Error("setQueue must be called first");
+    this.queue = { songs: options.songs, index: options.index };
+  }
+
+  private moveInQueue(offset: number) {
+    if (!this.queue) return;
+    const index = this.queue.index + offset;
+    if (index < 0 || index >= this.queue.songs.length) {
+      this.notifyListeners("complete", {});
+      return;
+    }
+
+    this.queue.index = index;
+    this.loadSong(this.queue.songs[index]);
+    this.play();
+    this.notifyListeners("index-changed", { index });
+  }
+
+  private loadSong(song: QueueOptions["songs"][number]) {
+    this.next = undefined;
+    this.audioElement.src = song.path;
+  }
+
+  async preloadNext(options: PreloadOptions): Promise<void> {
+    this.queue = undefined;
+    this.next = options;
+  }
+
   async stop() {
+    this.queue = undefined;
+    this.next = undefined;
     this.audioElement.pause();
   }
 
@@ -67,9 +177,44 @@ export class NativeAudioWeb extends WebPlugin implements NativeAudioPlugin {
     };
   }
 
+  async getState(): Promise<PlaybackStatus> {
+    const audio = this.audioElement;
+    const duration = isNaN(audio.duration) ? 0 : audio.duration;
+    let status: PlaybackStatus["status"] = "paused";
+    if (!audio.src) status = "idle";
+    else if (audio.error) status = "error";
+    else if (audio.ended) status = "ended";
+    else if (audio.readyState < HTMLMediaElement.HAVE_METADATA) status = "loading";
+    else if (!audio.paused) status = "playing";
+
+    return {
+      status,
+      index: -1,
+      currentTime: audio.currentTime,
+      duration,
+      buffered: audio.buffered.length > 0 ? audio.buffered.end(audio.buffered.length - 1) : 0,
+    };
+  }
+
   async setCurrentTime({ currentTime }: { currentTime: number }) {
     this.audioElement.currentTime = currentTime;
   }
+
+  async beginScrub() {
+    // The browser already merges seeks
+  }
+
+  async updateScrub({ currentTime }: { currentTime: number }) {
+    if (this.audioElement.fastSeek) {
+      this.audioElement.fastSeek(currentTime);
+    } else {
+      this.audioElement.currentTime = currentTime;
+    }
+  }
+
+  async endScrub({ currentTime }: { currentTime: number }) {
+    this.audioElement.currentTime = currentTime;
+  }
 }
 
 const NativeAudio = new NativeAudioWeb();